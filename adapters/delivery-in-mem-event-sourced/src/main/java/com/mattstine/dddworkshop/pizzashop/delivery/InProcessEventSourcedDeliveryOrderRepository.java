@@ -4,16 +4,18 @@ import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenOrderRef;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.InProcessEventSourcedRepository;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateIndex;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.UniqueIndex;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * @author Matt Stine
  */
 final class InProcessEventSourcedDeliveryOrderRepository extends InProcessEventSourcedRepository<DeliveryOrderRef, DeliveryOrder, DeliveryOrder.OrderState, DeliveryOrderEvent, DeliveryOrderAddedEvent> implements DeliveryOrderRepository {
 
-    private final Map<KitchenOrderRef, DeliveryOrderRef> kitchenOrderRefToDeliveryOrderRef;
+    private final UniqueIndex<KitchenOrderRef, DeliveryOrderRef> kitchenOrderRefToDeliveryOrderRef;
+    private final StateIndex<DeliveryOrder.State, DeliveryOrderRef> deliveryOrdersByState;
 
     InProcessEventSourcedDeliveryOrderRepository(EventLog eventLog, Topic topic) {
         super(eventLog,
@@ -23,23 +25,24 @@ final class InProcessEventSourcedDeliveryOrderRepository extends InProcessEventS
                 DeliveryOrderAddedEvent.class,
                 topic);
 
-        kitchenOrderRefToDeliveryOrderRef = new HashMap<>();
-
-        eventLog.subscribe(topic, e -> {
-            if (e instanceof DeliveryOrderAddedEvent) {
-                kitchenOrderRefToDeliveryOrderRef.put(((DeliveryOrderAddedEvent) e)
-                                .getState()
-                                .getKitchenOrderRef(),
-                        ((DeliveryOrderAddedEvent) e).getRef());
-            }
-        });
+        kitchenOrderRefToDeliveryOrderRef = uniqueIndex(DeliveryOrderAddedEvent.class,
+                doae -> doae.getState().getKitchenOrderRef());
+        deliveryOrdersByState = stateIndex(InProcessEventSourcedDeliveryOrderRepository::stateAfter);
     }
 
     @Override
     public DeliveryOrder findByKitchenOrderRef(KitchenOrderRef kitchenOrderRef) {
-        DeliveryOrderRef ref = kitchenOrderRefToDeliveryOrderRef.get(kitchenOrderRef);
-        if (ref != null) {
-            return this.findByRef(ref);
+        return findBy(kitchenOrderRefToDeliveryOrderRef, kitchenOrderRef);
+    }
+
+    @Override
+    public Stream<DeliveryOrder> findByState(DeliveryOrder.State state) {
+        return findAllBy(deliveryOrdersByState, state);
+    }
+
+    private static DeliveryOrder.State stateAfter(DeliveryOrderEvent event) {
+        if (event instanceof DeliveryOrderAddedEvent) {
+            return DeliveryOrder.State.READY_FOR_DELIVERY;
         }
         return null;
     }
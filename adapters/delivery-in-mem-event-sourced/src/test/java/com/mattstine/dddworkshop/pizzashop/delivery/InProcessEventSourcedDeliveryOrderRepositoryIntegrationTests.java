@@ -47,4 +47,11 @@ public class InProcessEventSourcedDeliveryOrderRepositoryIntegrationTests {
 
         assertThat(repository.findByKitchenOrderRef(kitchenOrderRef)).isEqualTo(deliveryOrder);
     }
+
+    @Test
+    public void find_by_state_hydrates_deliveryOrder_ready_for_delivery() {
+        repository.add(deliveryOrder);
+
+        assertThat(repository.findByState(DeliveryOrder.State.READY_FOR_DELIVERY)).contains(deliveryOrder);
+    }
 }
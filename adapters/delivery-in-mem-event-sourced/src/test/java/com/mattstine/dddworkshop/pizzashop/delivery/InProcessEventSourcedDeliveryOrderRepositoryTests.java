@@ -53,7 +53,7 @@ public class InProcessEventSourcedDeliveryOrderRepositoryTests {
     public void find_by_ref_hydrates_added_order() {
         repository.add(deliveryOrder);
 
-        when(eventLog.eventsBy(new Topic("delivery_orders")))
+        when(eventLog.eventsBy(new Topic("delivery_orders"), ref))
                 .thenReturn(Collections.singletonList(new DeliveryOrderAddedEvent(ref, deliveryOrder.state())));
 
         assertThat(repository.findByRef(ref)).isEqualTo(deliveryOrder);
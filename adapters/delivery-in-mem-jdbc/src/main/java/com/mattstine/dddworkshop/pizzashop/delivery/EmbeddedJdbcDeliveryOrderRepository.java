@@ -4,18 +4,42 @@ import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenOrderRef;
 import com.mattstine.dddworkshop.pizzashop.delivery.acl.ordering.OnlineOrderRef;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import org.h2.jdbcx.JdbcConnectionPool;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Stream;
 
 final class EmbeddedJdbcDeliveryOrderRepository implements DeliveryOrderRepository {
-
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("DELIVERY_ORDERS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS DELIVERY_ORDERS (REF VARCHAR(255), KITCHEN_ORDER_REF VARCHAR(255), ONLINE_ORDER_REF VARCHAR(255), STATE INT)",
+                    "CREATE INDEX IF NOT EXISTS DELIVERY_ORDERS_STATE ON DELIVERY_ORDERS (STATE)",
+                    "CREATE TABLE IF NOT EXISTS DELIVERY_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)")
+            .version(2,
+                    "ALTER TABLE DELIVERY_ORDERS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE DELIVERY_ORDERS ADD CONSTRAINT DELIVERY_ORDERS_PK PRIMARY KEY (REF)",
+                    "CREATE INDEX DELIVERY_ORDERS_KITCHEN_ORDER_REF ON DELIVERY_ORDERS (KITCHEN_ORDER_REF)",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ALTER COLUMN INDEX SET NOT NULL",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ADD CONSTRAINT DELIVERY_ORDER_PIZZAS_PK PRIMARY KEY (REF, INDEX)",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ADD CONSTRAINT DELIVERY_ORDER_PIZZAS_DELIVERY_ORDERS_FK FOREIGN KEY (REF) REFERENCES DELIVERY_ORDERS (REF)")
+            .version(3,
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS DROP CONSTRAINT DELIVERY_ORDER_PIZZAS_DELIVERY_ORDERS_FK",
+                    "ALTER TABLE DELIVERY_ORDERS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE DELIVERY_ORDERS ALTER COLUMN KITCHEN_ORDER_REF UUID",
+                    "ALTER TABLE DELIVERY_ORDERS ALTER COLUMN ONLINE_ORDER_REF UUID",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE DELIVERY_ORDER_PIZZAS ADD CONSTRAINT DELIVERY_ORDER_PIZZAS_DELIVERY_ORDERS_FK FOREIGN KEY (REF) REFERENCES DELIVERY_ORDERS (REF)")
+            .build();
+    private static final String SELECT_WITH_PIZZAS = "SELECT o.REF, o.KITCHEN_ORDER_REF, o.ONLINE_ORDER_REF, o.STATE, p.SIZE FROM DELIVERY_ORDERS o LEFT JOIN DELIVERY_ORDER_PIZZAS p ON p.REF = o.REF";
 
     private final EventLog eventLog;
     private final Topic topic;
@@ -26,15 +50,7 @@ final class EmbeddedJdbcDeliveryOrderRepository implements DeliveryOrderReposito
         this.topic = topic;
         this.pool = pool;
 
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("CREATE TABLE DELIVERY_ORDERS (REF VARCHAR(255), KITCHEN_ORDER_REF VARCHAR(255), ONLINE_ORDER_REF VARCHAR(255), STATE INT)");
-            statement.execute();
-
-            statement = connection.prepareStatement("CREATE TABLE DELIVERY_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)");
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to initialize KITCHEN_ORDERS table: ", e);
-        }
+        SCHEMA.migrate(pool);
     }
 
     @Override
@@ -45,20 +61,30 @@ final class EmbeddedJdbcDeliveryOrderRepository implements DeliveryOrderReposito
     @Override
     public void add(DeliveryOrder deliveryOrder) {
         try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO DELIVERY_ORDERS (REF, KITCHEN_ORDER_REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?, ?)");
-            statement.setString(1, deliveryOrder.getRef().getReference());
-            statement.setString(2, deliveryOrder.getKitchenOrderRef().getReference());
-            statement.setString(3, deliveryOrder.getOnlineOrderRef().getReference());
-            statement.setInt(4, deliveryOrder.getState().ordinal());
-            statement.execute();
-
-            statement = connection.prepareStatement("INSERT INTO DELIVERY_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)");
-            for (int i = 0; i < deliveryOrder.getPizzas().size(); i++) {
-                DeliveryOrder.Pizza pizza = deliveryOrder.getPizzas().get(i);
-                statement.setString(1, deliveryOrder.getRef().getReference());
-                statement.setInt(2, i);
-                statement.setInt(3, pizza.getSize().ordinal());
-                statement.execute();
+            connection.setAutoCommit(false);
+            try (PreparedStatement orderStatement = connection.prepareStatement("INSERT INTO DELIVERY_ORDERS (REF, KITCHEN_ORDER_REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?, ?)");
+                 PreparedStatement pizzaStatement = connection.prepareStatement("INSERT INTO DELIVERY_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)")) {
+                RefColumns.setRef(orderStatement, 1, deliveryOrder.getRef());
+                RefColumns.setRef(orderStatement, 2, deliveryOrder.getKitchenOrderRef());
+                RefColumns.setRef(orderStatement, 3, deliveryOrder.getOnlineOrderRef());
+                orderStatement.setInt(4, deliveryOrder.getState().ordinal());
+                orderStatement.execute();
+
+                for (int i = 0; i < deliveryOrder.getPizzas().size(); i++) {
+                    DeliveryOrder.Pizza pizza = deliveryOrder.getPizzas().get(i);
+                    RefColumns.setRef(pizzaStatement, 1, deliveryOrder.getRef());
+                    pizzaStatement.setInt(2, i);
+                    pizzaStatement.setInt(3, pizza.getSize().ordinal());
+                    pizzaStatement.addBatch();
+                }
+                pizzaStatement.executeBatch();
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to insert DeliveryOrder into DELIVERY_ORDERS table: ", e);
@@ -69,57 +95,84 @@ final class EmbeddedJdbcDeliveryOrderRepository implements DeliveryOrderReposito
 
     @Override
     public DeliveryOrder findByRef(DeliveryOrderRef ref) {
-        DeliveryOrder deliveryOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, KITCHEN_ORDER_REF, ONLINE_ORDER_REF, STATE FROM DELIVERY_ORDERS WHERE REF = ?");
-            deliveryOrder = rehydrateDeliveryOrder(connection, statement, ref);
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to retrieve DeliveryOrder from DELIVERY_ORDERS table: ", e);
-        }
-        return deliveryOrder;
+        return findOneWithPizzas("REF", ref);
     }
 
     @Override
     public DeliveryOrder findByKitchenOrderRef(KitchenOrderRef kitchenOrderRef) {
-        DeliveryOrder deliveryOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, KITCHEN_ORDER_REF, ONLINE_ORDER_REF, STATE FROM DELIVERY_ORDERS WHERE KITCHEN_ORDER_REF = ?");
-            deliveryOrder = rehydrateDeliveryOrder(connection, statement, kitchenOrderRef);
+        return findOneWithPizzas("KITCHEN_ORDER_REF", kitchenOrderRef);
+    }
+
+    @Override
+    public Stream<DeliveryOrder> findByState(DeliveryOrder.State state) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.STATE = ? ORDER BY o.REF, p.INDEX")) {
+            statement.setInt(1, state.ordinal());
+            return rehydrateDeliveryOrders(statement.executeQuery()).stream();
         } catch (SQLException e) {
-            throw new RuntimeException("Unable to retrieve DeliveryOrder from DELIVERY_ORDERS table: ", e);
+            throw new RuntimeException("Unable to retrieve DeliveryOrders from DELIVERY_ORDERS table: ", e);
         }
-        return deliveryOrder;
     }
 
-    private DeliveryOrder rehydrateDeliveryOrder(Connection connection, PreparedStatement statement, Ref reference) throws SQLException {
-        DeliveryOrder deliveryOrder = null;
-        statement.setString(1, reference.getReference());
-        ResultSet resultSet = statement.executeQuery();
-        if (resultSet.first()) {
-            DeliveryOrderRef dor = new DeliveryOrderRef(resultSet.getString(1));
-            KitchenOrderRef kor = new KitchenOrderRef(resultSet.getString(2));
-            OnlineOrderRef onlineOrderRef = new OnlineOrderRef(resultSet.getString(3));
-            int state = resultSet.getInt(4);
-
-            statement = connection.prepareStatement("SELECT REF, INDEX, SIZE FROM DELIVERY_ORDER_PIZZAS WHERE REF = ? ORDER BY INDEX");
-            statement.setString(1, dor.getReference());
-            resultSet = statement.executeQuery();
-
-            List<DeliveryOrder.Pizza> pizzas = new ArrayList<>();
-            while (resultSet.next()) {
-                int size = resultSet.getInt(3);
-                pizzas.add(DeliveryOrder.Pizza.builder().size(DeliveryOrder.Pizza.Size.values()[size]).build());
+    /**
+     * Loads every requested order, with its pizzas, from one join of DELIVERY_ORDERS and DELIVERY_ORDER_PIZZAS.
+     */
+    @Override
+    public Map<DeliveryOrderRef, DeliveryOrder> findAllByRefs(Collection<DeliveryOrderRef> refs) {
+        Map<DeliveryOrderRef, DeliveryOrder> found = new HashMap<>();
+        if (!refs.isEmpty()) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.REF IN " + RefColumns.inClause(refs.size()) + " ORDER BY o.REF, p.INDEX")) {
+                RefColumns.setRefs(statement, refs);
+                rehydrateDeliveryOrders(statement.executeQuery())
+                        .forEach(deliveryOrder -> found.put(deliveryOrder.getRef(), deliveryOrder));
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to retrieve DeliveryOrders from DELIVERY_ORDERS table: ", e);
             }
+        }
+
+        return RefColumns.inRequestedOrder(refs, found);
+    }
+
+    private DeliveryOrder findOneWithPizzas(String column, Ref ref) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o." + column + " = ? ORDER BY o.REF, p.INDEX")) {
+            RefColumns.setRef(statement, 1, ref);
+            List<DeliveryOrder> deliveryOrders = rehydrateDeliveryOrders(statement.executeQuery());
+            return deliveryOrders.isEmpty() ? null : deliveryOrders.get(0);
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve DeliveryOrder from DELIVERY_ORDERS table: ", e);
+        }
+    }
 
-            deliveryOrder = DeliveryOrder.builder()
-                    .ref(dor)
-                    .kitchenOrderRef(kor)
-                    .onlineOrderRef(onlineOrderRef)
-                    .eventLog(eventLog)
-                    .pizzas(pizzas)
-                    .build();
-            deliveryOrder.setState(DeliveryOrder.State.values()[state]);
+    /*
+     * Expects the rows of SELECT_WITH_PIZZAS ordered by REF and then
+     * INDEX, so each order's rows are adjacent. An order without pizzas
+     * has a single row with a NULL SIZE.
+     */
+    private List<DeliveryOrder> rehydrateDeliveryOrders(ResultSet resultSet) throws SQLException {
+        List<DeliveryOrder> deliveryOrders = new ArrayList<>();
+        boolean more = resultSet.next();
+        while (more) {
+            RefId ref = RefColumns.getRefId(resultSet, 1);
+            DeliveryOrder.DeliveryOrderBuilder builder = DeliveryOrder.builder()
+                    .ref(new DeliveryOrderRef(ref))
+                    .kitchenOrderRef(new KitchenOrderRef(RefColumns.getRefId(resultSet, 2)))
+                    .onlineOrderRef(new OnlineOrderRef(RefColumns.getRefId(resultSet, 3)))
+                    .eventLog(eventLog);
+            DeliveryOrder.State state = DeliveryOrder.State.values()[resultSet.getInt(4)];
+            do {
+                int size = resultSet.getInt(5);
+                if (!resultSet.wasNull()) {
+                    builder.pizza(DeliveryOrder.Pizza.builder().size(DeliveryOrder.Pizza.Size.values()[size]).build());
+                }
+                more = resultSet.next();
+            } while (more && ref.equals(RefColumns.getRefId(resultSet, 1)));
+
+            DeliveryOrder deliveryOrder = builder.build();
+            deliveryOrder.setState(state);
+            deliveryOrders.add(deliveryOrder);
         }
-        return deliveryOrder;
+        return deliveryOrders;
     }
 }
@@ -5,6 +5,8 @@ import com.mattstine.dddworkshop.pizzashop.delivery.acl.ordering.OnlineOrderRef;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
 import org.junit.Before;
@@ -82,15 +84,15 @@ public class EmbeddedJdbcDeliveryOrderRepositoryTests {
         statement.setString(1, deliveryOrder.getRef().getReference());
         ResultSet resultSet = statement.executeQuery();
         resultSet.first();
-        String reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(deliveryOrder.getRef().getReference());
+        RefId reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(deliveryOrder.getRef().getId());
 
         statement = connection.prepareStatement("SELECT REF, INDEX INT, SIZE INT FROM DELIVERY_ORDER_PIZZAS WHERE REF = ?");
         statement.setString(1, deliveryOrder.getRef().getReference());
         resultSet = statement.executeQuery();
         resultSet.first();
-        reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(deliveryOrder.getRef().getReference());
+        reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(deliveryOrder.getRef().getId());
         connection.close();
     }
 
@@ -115,4 +117,41 @@ public class EmbeddedJdbcDeliveryOrderRepositoryTests {
 
         assertThat(repository.findByRef(ref)).isEqualTo(deliveryOrder);
     }
+
+    @Test
+    public void find_by_kitchenOrderRef_hydrates_pizzas_in_order() {
+        DeliveryOrder large = DeliveryOrder.builder()
+                .ref(repository.nextIdentity())
+                .kitchenOrderRef(new KitchenOrderRef(RefStringGenerator.generateRefString()))
+                .onlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))
+                .pizza(DeliveryOrder.Pizza.builder().size(DeliveryOrder.Pizza.Size.LARGE).build())
+                .pizza(DeliveryOrder.Pizza.builder().size(DeliveryOrder.Pizza.Size.SMALL).build())
+                .pizza(DeliveryOrder.Pizza.builder().size(DeliveryOrder.Pizza.Size.MEDIUM).build())
+                .eventLog(eventLog)
+                .build();
+        repository.add(deliveryOrder);
+        repository.add(large);
+
+        assertThat(repository.findByKitchenOrderRef(large.getKitchenOrderRef())).isEqualTo(large);
+    }
+
+    @Test
+    public void find_by_ref_hydrates_order_without_pizzas() {
+        DeliveryOrder empty = DeliveryOrder.builder()
+                .ref(repository.nextIdentity())
+                .kitchenOrderRef(new KitchenOrderRef(RefStringGenerator.generateRefString()))
+                .onlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))
+                .eventLog(eventLog)
+                .build();
+        repository.add(empty);
+
+        assertThat(repository.findByRef(empty.getRef())).isEqualTo(empty);
+    }
+
+    @Test
+    public void find_by_state_hydrates_orders_ready_for_delivery() {
+        repository.add(deliveryOrder);
+
+        assertThat(repository.findByState(DeliveryOrder.State.READY_FOR_DELIVERY)).containsExactly(deliveryOrder);
+    }
 }
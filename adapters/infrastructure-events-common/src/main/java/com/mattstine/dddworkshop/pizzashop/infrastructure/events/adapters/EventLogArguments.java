@@ -0,0 +1,39 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.List;
+
+/**
+ * Argument checks shared by the {@link com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog}
+ * adapters, so each rejects bad arguments the same way.
+ *
+ * @author Matt Stine
+ */
+final class EventLogArguments {
+
+    private EventLogArguments() {
+    }
+
+    static void checkRead(long offset, int maxEvents) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must be >= 0");
+        }
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("maxEvents must be > 0");
+        }
+    }
+
+    static void checkAppend(Ref ref, long expectedVersion, List<Event> events) {
+        if (expectedVersion < 0) {
+            throw new IllegalArgumentException("expectedVersion must be >= 0");
+        }
+        for (Event event : events) {
+            if (!(event instanceof AggregateEvent) || !ref.equals(((AggregateEvent) event).getRef())) {
+                throw new IllegalArgumentException("Can only append events of " + ref + ": " + event);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+/**
+ * Converts events to and from the bytes an {@link com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog}
+ * keeps outside of the heap.
+ *
+ * @author Matt Stine
+ */
+public interface EventSerializer {
+    byte[] serialize(Event event);
+
+    Event deserialize(byte[] bytes);
+}
@@ -0,0 +1,41 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+import java.io.*;
+
+/**
+ * {@link EventSerializer} based on Java serialization; every {@link Event} is {@link Serializable}.
+ *
+ * @author Matt Stine
+ */
+public final class JavaEventSerializer implements EventSerializer {
+    private static final JavaEventSerializer SINGLETON = new JavaEventSerializer();
+
+    private JavaEventSerializer() {
+    }
+
+    public static JavaEventSerializer instance() {
+        return SINGLETON;
+    }
+
+    @Override
+    public byte[] serialize(Event event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to serialize " + event, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Event deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Event) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to deserialize event", e);
+        }
+    }
+}
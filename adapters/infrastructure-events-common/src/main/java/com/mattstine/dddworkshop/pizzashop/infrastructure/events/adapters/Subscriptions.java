@@ -0,0 +1,108 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.BatchEventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The handlers subscribed to one topic, routed by event class.
+ * <p>
+ * For every concrete event class published, the handlers interested in it are resolved once and cached in a
+ * dispatch table, so delivering an event costs one map lookup plus one call per interested handler, no
+ * matter how many handlers subscribed to other event types. Subscribing discards the table; it is rebuilt
+ * lazily.
+ *
+ * @author Matt Stine
+ */
+public final class Subscriptions {
+    private static final EventHandler[] NONE = new EventHandler[0];
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile ConcurrentMap<Class<?>, EventHandler[]> dispatchTable = new ConcurrentHashMap<>();
+
+    public void add(Class<? extends Event> eventType, EventHandler handler) {
+        subscriptions.add(new Subscription(eventType, handler));
+        this.dispatchTable = new ConcurrentHashMap<>();
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    public void clear() {
+        subscriptions.clear();
+        this.dispatchTable = new ConcurrentHashMap<>();
+    }
+
+    public boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    public void deliver(Event event) {
+        for (EventHandler handler : handlersFor(event.getClass())) {
+            handler.handleEvent(event);
+        }
+    }
+
+    /**
+     * Each handler receives the events of the batch it is interested in, in order, before the next handler
+     * sees any; a {@link BatchEventHandler} receives them in one callback.
+     */
+    public void deliver(List<Event> batch) {
+        if (batch.size() == 1) {
+            deliver(batch.get(0));
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            List<Event> events = subscription.eventType == Event.class ? batch : subscription.select(batch);
+            if (events.isEmpty()) {
+                continue;
+            }
+            if (subscription.handler instanceof BatchEventHandler) {
+                ((BatchEventHandler) subscription.handler).handleEvents(events);
+            } else {
+                events.forEach(subscription.handler::handleEvent);
+            }
+        }
+    }
+
+    private EventHandler[] handlersFor(Class<?> eventClass) {
+        return dispatchTable.computeIfAbsent(eventClass, this::resolve);
+    }
+
+    private EventHandler[] resolve(Class<?> eventClass) {
+        List<EventHandler> handlers = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.eventType.isAssignableFrom(eventClass)) {
+                handlers.add(subscription.handler);
+            }
+        }
+        return handlers.isEmpty() ? NONE : handlers.toArray(NONE);
+    }
+
+    private static final class Subscription {
+        private final Class<? extends Event> eventType;
+        private final EventHandler handler;
+
+        Subscription(Class<? extends Event> eventType, EventHandler handler) {
+            this.eventType = eventType;
+            this.handler = handler;
+        }
+
+        List<Event> select(List<Event> batch) {
+            List<Event> selected = new ArrayList<>(batch.size());
+            for (Event event : batch) {
+                if (eventType.isInstance(event)) {
+                    selected.add(event);
+                }
+            }
+            return selected;
+        }
+    }
+}
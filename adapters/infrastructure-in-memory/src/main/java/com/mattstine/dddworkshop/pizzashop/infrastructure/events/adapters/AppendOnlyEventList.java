@@ -0,0 +1,83 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Growable array of events with a single writer and any number of lock-free readers.
+ * <p>
+ * Callers must serialize calls to {@link #append(Event)} and {@link #appendAll(List)}. Readers obtain an immutable, constant-time
+ * {@link #snapshot()} that is never affected by later appends.
+ *
+ * @author Matt Stine
+ */
+final class AppendOnlyEventList {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Event[] elements = new Event[INITIAL_CAPACITY];
+    private volatile int size;
+
+    void append(Event event) {
+        Event[] current = this.elements;
+        int n = this.size;
+        if (n == current.length) {
+            current = Arrays.copyOf(current, n << 1);
+            this.elements = current;
+        }
+        current[n] = event;
+        this.size = n + 1;
+    }
+
+    /*
+     * The size is published once, so readers see either none or all of the events.
+     */
+    void appendAll(List<Event> events) {
+        Event[] current = this.elements;
+        int n = this.size;
+        int required = n + events.size();
+        if (required > current.length) {
+            current = Arrays.copyOf(current, Math.max(n << 1, required));
+            this.elements = current;
+        }
+        for (Event event : events) {
+            current[n++] = event;
+        }
+        this.size = n;
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<Event> snapshot() {
+        int n = this.size;
+        return new Snapshot(this.elements, n);
+    }
+
+    private static final class Snapshot extends AbstractList<Event> implements RandomAccess {
+        private final Event[] elements;
+        private final int size;
+
+        Snapshot(Event[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        @Override
+        public Event get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
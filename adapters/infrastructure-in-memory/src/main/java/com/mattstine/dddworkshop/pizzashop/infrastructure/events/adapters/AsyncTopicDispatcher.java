@@ -0,0 +1,147 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Delivers a single topic's events to its subscribers on a dedicated thread.
+ * <p>
+ * One thread per topic means every subscriber sees that topic's events in publication order. The queue is
+ * bounded by <code>capacity</code>: publishers block in {@link #reserve()} until the dispatcher catches up.
+ * Handlers running on any dispatcher thread are exempt from the bound, so a handler that publishes can never
+ * deadlock against the queue it is draining, nor against another topic's dispatcher publishing back to it. The
+ * exemption covers every topic, so a cascade of handlers publishing across topics is not bounded by
+ * <code>capacity</code>; only events from other threads are.
+ * <p>
+ * Once {@link #shutdown()} is called, {@link #reserve()} rejects further events and whatever is still queued is
+ * dropped, giving back its capacity and its {@link Quiescence} count.
+ *
+ * @author Matt Stine
+ */
+final class AsyncTopicDispatcher {
+    private final Subscriptions subscriptions;
+    private final Quiescence quiescence;
+    private final Semaphore capacity;
+    private final BlockingQueue<Dispatch> queue = new LinkedBlockingQueue<>();
+    private final DispatcherThread thread;
+    private volatile boolean closed;
+
+    AsyncTopicDispatcher(String name, Subscriptions subscriptions, int capacity, Quiescence quiescence) {
+        this.subscriptions = subscriptions;
+        this.quiescence = quiescence;
+        this.capacity = new Semaphore(capacity);
+        this.thread = new DispatcherThread(this::run, "event-dispatcher-" + name);
+        this.thread.start();
+    }
+
+    /**
+     * Wait for room in the queue; must be called before taking the topic's lock.
+     *
+     * @return whether a slot was reserved and must be released once the event is dispatched
+     * @throws IllegalStateException if the dispatcher has been shut down
+     */
+    boolean reserve() {
+        checkOpen();
+        if (Thread.currentThread() instanceof DispatcherThread) {
+            return false;
+        }
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for dispatch queue capacity", e);
+        }
+        if (closed) {
+            capacity.release();
+            checkOpen();
+        }
+        return true;
+    }
+
+    /**
+     * Hand an already appended batch of events to the dispatcher thread; never blocks. A batch that arrives
+     * after {@link #shutdown()} is dropped like any other undelivered batch.
+     */
+    synchronized void enqueue(List<Event> events, boolean reserved) {
+        if (closed) {
+            cancel(reserved);
+            return;
+        }
+        quiescence.enter();
+        queue.add(new Dispatch(events, reserved));
+    }
+
+    /**
+     * Give back a reservation whose events were never appended.
+     */
+    void cancel(boolean reserved) {
+        if (reserved) {
+            capacity.release();
+        }
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            closed = true;
+        }
+        thread.interrupt();
+
+        Dispatch dispatch;
+        while ((dispatch = queue.poll()) != null) {
+            release(dispatch);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(thread.getName() + " has been shut down");
+        }
+    }
+
+    private void release(Dispatch dispatch) {
+        if (dispatch.reserved) {
+            capacity.release();
+        }
+        quiescence.exit();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Dispatch dispatch;
+            try {
+                dispatch = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                subscriptions.deliver(dispatch.events);
+            } catch (RuntimeException e) {
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                release(dispatch);
+            }
+        }
+    }
+
+    private static final class Dispatch {
+        private final List<Event> events;
+        private final boolean reserved;
+
+        Dispatch(List<Event> events, boolean reserved) {
+            this.events = events;
+            this.reserved = reserved;
+        }
+    }
+
+    private static final class DispatcherThread extends Thread {
+        DispatcherThread(Runnable target, String name) {
+            super(target, name);
+            setDaemon(true);
+        }
+    }
+}
@@ -4,56 +4,274 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
-import lombok.AccessLevel;
-import lombok.NoArgsConstructor;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Thread-safe, in-memory {@link EventLog}.
+ * <p>
+ * Per-topic state is found by {@link Topic#getId()} in a {@link TopicTable}, so publishing never hashes the
+ * topic. Each topic owns its own lock, so publishers to different topics never contend. Handlers subscribed
+ * to an event type are routed by {@link Subscriptions}, so an event only reaches the handlers interested in
+ * it. Readers and subscriber dispatch never take a lock: {@link #eventsBy(Topic)} and
+ * {@link #eventsBy(Topic, Ref)} return immutable snapshots that are safe to iterate while other threads keep
+ * publishing.
+ * <p>
+ * The shared {@link #instance()} invokes subscribers on the publisher's thread. An {@link #asynchronous(int)}
+ * log instead hands each topic's events to a dedicated dispatcher thread, so publishing returns as soon as
+ * the event is appended.
+ *
  * @author Matt Stine
  */
-@NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class InProcessEventLog implements EventLog {
-    private static InProcessEventLog singleton;
-    private final Map<Topic, List<EventHandler>> topics = new HashMap<>();
-    private final Map<Topic, List<Event>> events = new HashMap<>();
+    private static final InProcessEventLog SINGLETON = new InProcessEventLog(0);
+    private final TopicTable<TopicLog> topics = new TopicTable<>();
+    private final int dispatchQueueCapacity;
+    private final Quiescence quiescence = new Quiescence();
+    private volatile boolean shutdown;
+
+    private InProcessEventLog(int dispatchQueueCapacity) {
+        this.dispatchQueueCapacity = dispatchQueueCapacity;
+    }
 
     public static InProcessEventLog instance() {
-        if (singleton == null) {
-            singleton = new InProcessEventLog();
+        return SINGLETON;
+    }
+
+    /**
+     * Create a log that, like {@link #instance()}, invokes subscribers on the publisher's thread, for callers such
+     * as benchmarks that must not fill the shared instance.
+     *
+     * @return a new, independent synchronous log
+     */
+    public static InProcessEventLog synchronous() {
+        return new InProcessEventLog(0);
+    }
+
+    /**
+     * Create a log that dispatches each topic's events on its own thread.
+     *
+     * @param dispatchQueueCapacity number of undelivered events per topic before publishers block
+     * @return a new, independent asynchronous log
+     */
+    public static InProcessEventLog asynchronous(int dispatchQueueCapacity) {
+        if (dispatchQueueCapacity < 1) {
+            throw new IllegalArgumentException("dispatchQueueCapacity must be > 0");
         }
-        return singleton;
+        return new InProcessEventLog(dispatchQueueCapacity);
     }
 
     @Override
     public void publish(Topic topic, Event event) {
-        List<Event> events = this.events.computeIfAbsent(topic, k -> new ArrayList<>());
-        events.add(event);
-        List<EventHandler> subscribers = this.topics.computeIfAbsent(topic, k -> new ArrayList<>());
-        subscribers
-                .forEach(subscriber -> subscriber.handleEvent(event));
+        TopicLog topicLog = topicLog(topic);
+        AsyncTopicDispatcher dispatcher = topicLog.dispatcher;
+        if (dispatcher == null) {
+            topicLog.append(event);
+            topicLog.subscriptions.deliver(event);
+        } else {
+            boolean reserved = dispatcher.reserve();
+            topicLog.appendAndEnqueue(Collections.singletonList(event), reserved);
+        }
+    }
+
+    @Override
+    public void publishAll(Topic topic, List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        TopicLog topicLog = topicLog(topic);
+        AsyncTopicDispatcher dispatcher = topicLog.dispatcher;
+        if (dispatcher == null) {
+            topicLog.appendAll(batch);
+            topicLog.subscriptions.deliver(batch);
+        } else {
+            boolean reserved = dispatcher.reserve();
+            topicLog.appendAndEnqueue(batch, reserved);
+        }
+    }
+
+    /**
+     * The version check and the append happen under the topic's lock, so they are atomic with respect to every
+     * other publish to the topic, versioned or not.
+     */
+    @Override
+    public void append(Topic topic, Ref ref, long expectedVersion, List<Event> events) {
+        EventLogArguments.checkAppend(ref, expectedVersion, events);
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        TopicLog topicLog = topicLog(topic);
+        AsyncTopicDispatcher dispatcher = topicLog.dispatcher;
+        if (dispatcher == null) {
+            topicLog.appendAll(topic, ref, expectedVersion, batch);
+            if (!batch.isEmpty()) {
+                topicLog.subscriptions.deliver(batch);
+            }
+        } else {
+            boolean reserved = dispatcher.reserve();
+            try {
+                topicLog.appendAndEnqueue(topic, ref, expectedVersion, batch, reserved);
+            } catch (VersionConflictException e) {
+                dispatcher.cancel(reserved);
+                throw e;
+            }
+        }
     }
 
     @Override
     public void subscribe(Topic topic, EventHandler handler) {
-        List<EventHandler> subscribers = this.topics.computeIfAbsent(topic, k -> new ArrayList<>());
-        subscribers.add(handler);
+        topicLog(topic).subscriptions.add(Event.class, handler);
+    }
+
+    @Override
+    public void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+        topicLog(topic).subscriptions.add(eventType, handler);
     }
 
     @Override
     public int getNumberOfSubscribers(Topic topic) {
-        return this.topics.computeIfAbsent(topic, k -> new ArrayList<>()).size();
+        return topicLog(topic).subscriptions.size();
     }
 
     @Override
     public List<Event> eventsBy(Topic topic) {
-        return this.events.computeIfAbsent(topic, k -> new ArrayList<>());
+        return topicLog(topic).events.snapshot();
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic, Ref ref) {
+        TopicLog topicLog = this.topics.get(topic);
+        if (topicLog == null) {
+            return Collections.emptyList();
+        }
+        AppendOnlyEventList events = topicLog.eventsByRef.get(ref);
+        if (events == null) {
+            return Collections.emptyList();
+        }
+        return events.snapshot();
     }
 
     public void purgeSubscribers() {
-        this.topics.clear();
+        this.topics.values().forEach(topicLog -> topicLog.subscriptions.clear());
+    }
+
+    /**
+     * Wait until every published event, including those published by handlers in response, has been
+     * delivered. Returns immediately for a synchronous log.
+     *
+     * @return <code>false</code> if the timeout elapsed first
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        return quiescence.await(timeout, unit);
+    }
+
+    /**
+     * Stop all dispatcher threads of an asynchronous log; undelivered events are dropped and further publishes
+     * are rejected with {@link IllegalStateException}.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        this.topics.values().forEach(topicLog -> {
+            if (topicLog.dispatcher != null) {
+                topicLog.dispatcher.shutdown();
+            }
+        });
+    }
+
+    private TopicLog topicLog(Topic topic) {
+        return this.topics.computeIfAbsent(topic, this::newTopicLog);
+    }
+
+    private TopicLog newTopicLog(Topic topic) {
+        Subscriptions subscriptions = new Subscriptions();
+        AsyncTopicDispatcher dispatcher = null;
+        if (dispatchQueueCapacity > 0) {
+            dispatcher = new AsyncTopicDispatcher(topic.getName(), subscriptions, dispatchQueueCapacity, quiescence);
+            if (shutdown) {
+                dispatcher.shutdown();
+            }
+        }
+        return new TopicLog(subscriptions, dispatcher);
+    }
+
+    private static final class TopicLog {
+        private final Subscriptions subscriptions;
+        private final AsyncTopicDispatcher dispatcher;
+        private final AppendOnlyEventList events = new AppendOnlyEventList();
+        private final ConcurrentMap<Ref, AppendOnlyEventList> eventsByRef = new ConcurrentHashMap<>();
+
+        TopicLog(Subscriptions subscriptions, AsyncTopicDispatcher dispatcher) {
+            this.subscriptions = subscriptions;
+            this.dispatcher = dispatcher;
+        }
+
+        /*
+         * Enqueueing under the topic's lock keeps dispatch order identical
+         * to log order; capacity was reserved before taking the lock.
+         */
+        synchronized void appendAndEnqueue(List<Event> batch, boolean reserved) {
+            if (batch.size() == 1) {
+                append(batch.get(0));
+            } else {
+                appendAll(batch);
+            }
+            dispatcher.enqueue(batch, reserved);
+        }
+
+        /*
+         * The topic's lock is only held for the array stores; subscribers
+         * are invoked outside of it so handlers may publish re-entrantly.
+         */
+        synchronized void append(Event event) {
+            events.append(event);
+            if (event instanceof AggregateEvent) {
+                Ref ref = ((AggregateEvent) event).getRef();
+                if (ref != null) {
+                    eventsByRef.computeIfAbsent(ref, k -> new AppendOnlyEventList()).append(event);
+                }
+            }
+        }
+
+        synchronized void appendAndEnqueue(Topic topic, Ref ref, long expectedVersion, List<Event> batch, boolean reserved) {
+            checkVersion(topic, ref, expectedVersion);
+            if (batch.isEmpty()) {
+                dispatcher.cancel(reserved);
+            } else {
+                appendAndEnqueue(batch, reserved);
+            }
+        }
+
+        synchronized void appendAll(Topic topic, Ref ref, long expectedVersion, List<Event> batch) {
+            checkVersion(topic, ref, expectedVersion);
+            appendAll(batch);
+        }
+
+        synchronized void appendAll(List<Event> batch) {
+            events.appendAll(batch);
+            Map<Ref, List<Event>> batchByRef = new LinkedHashMap<>();
+            for (Event event : batch) {
+                if (event instanceof AggregateEvent) {
+                    Ref ref = ((AggregateEvent) event).getRef();
+                    if (ref != null) {
+                        batchByRef.computeIfAbsent(ref, k -> new ArrayList<>()).add(event);
+                    }
+                }
+            }
+            batchByRef.forEach((ref, refEvents) ->
+                    eventsByRef.computeIfAbsent(ref, k -> new AppendOnlyEventList()).appendAll(refEvents));
+        }
+
+        private void checkVersion(Topic topic, Ref ref, long expectedVersion) {
+            AppendOnlyEventList refEvents = eventsByRef.get(ref);
+            long actualVersion = refEvents == null ? 0 : refEvents.size();
+            if (actualVersion != expectedVersion) {
+                throw new VersionConflictException(topic, ref, expectedVersion, actualVersion);
+            }
+        }
     }
 }
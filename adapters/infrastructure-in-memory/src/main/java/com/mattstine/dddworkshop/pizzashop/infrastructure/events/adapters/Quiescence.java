@@ -0,0 +1,37 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts events that have been queued for dispatch but not yet handled.
+ * <p>
+ * A handler that publishes enters before its own event exits, so the count only reaches zero once a whole
+ * cascade of events has been handled.
+ *
+ * @author Matt Stine
+ */
+final class Quiescence {
+    private long inFlight;
+
+    synchronized void enter() {
+        inFlight++;
+    }
+
+    synchronized void exit() {
+        if (--inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,391 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.BatchEventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link EventLog} built on a preallocated, power-of-two ring buffer per topic, in the style of the LMAX
+ * Disruptor.
+ * <p>
+ * Publishing claims the next sequence, stores the event in its slot and marks the slot available; there are
+ * no locks and no allocation on that path. Every subscriber runs on its own thread behind a sequence barrier,
+ * processing all events available to it in one batch and then advancing its sequence, which in turn frees
+ * slots for publishers. A publisher that laps the slowest subscriber waits, so the buffer size bounds how
+ * far any subscriber can fall behind.
+ * <p>
+ * History for {@link #eventsBy(Topic)} and {@link #eventsBy(Topic, Ref)} is kept by one more consumer per
+ * topic; reads wait until it has caught up with every event published before the call.
+ * <p>
+ * A handler that publishes to its own topic must not fill the ring: it would wait for a slot only it can
+ * free. Size the buffer for the largest burst a handler produces, or publish to a different topic.
+ *
+ * @author Matt Stine
+ */
+public final class RingBufferEventLog implements EventLog {
+    private final TopicTable<TopicRing> topics = new TopicTable<>();
+    private final int bufferSize;
+    private final WaitStrategy waitStrategy;
+
+    private RingBufferEventLog(int bufferSize, WaitStrategy waitStrategy) {
+        this.bufferSize = bufferSize;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @param bufferSize number of slots per topic; must be a power of two
+     */
+    public static RingBufferEventLog create(int bufferSize, WaitStrategy waitStrategy) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize must be a power of two");
+        }
+        return new RingBufferEventLog(bufferSize, waitStrategy);
+    }
+
+    @Override
+    public void publish(Topic topic, Event event) {
+        topicRing(topic).publish(event);
+    }
+
+    /**
+     * Claims a contiguous range of sequences for the batch, which therefore must fit in the ring.
+     * A {@link BatchEventHandler} receives the batch in one callback, possibly together with adjacent events.
+     */
+    @Override
+    public void publishAll(Topic topic, List<Event> events) {
+        if (events.size() > bufferSize) {
+            throw new IllegalArgumentException("Batch of " + events.size() + " events exceeds bufferSize " + bufferSize);
+        }
+        if (!events.isEmpty()) {
+            topicRing(topic).publishAll(events);
+        }
+    }
+
+    @Override
+    public void subscribe(Topic topic, EventHandler handler) {
+        topicRing(topic).subscribe(Event.class, handler);
+    }
+
+    /**
+     * Every subscriber still advances through every slot of the ring, but the handler is only invoked for
+     * events of <code>eventType</code>.
+     */
+    @Override
+    public void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+        topicRing(topic).subscribe(eventType, handler);
+    }
+
+    @Override
+    public int getNumberOfSubscribers(Topic topic) {
+        return topicRing(topic).subscribers;
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic) {
+        TopicRing topicRing = topicRing(topic);
+        topicRing.awaitJournal();
+        return topicRing.events.snapshot();
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic, Ref ref) {
+        TopicRing topicRing = this.topics.get(topic);
+        if (topicRing == null) {
+            return Collections.emptyList();
+        }
+        topicRing.awaitJournal();
+        AppendOnlyEventList events = topicRing.eventsByRef.get(ref);
+        if (events == null) {
+            return Collections.emptyList();
+        }
+        return events.snapshot();
+    }
+
+    /**
+     * Wait until every subscriber has handled every published event, including events published by
+     * handlers in response.
+     *
+     * @return <code>false</code> if the timeout elapsed first
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long previousClaims = -1;
+        for (int attempt = 0; ; attempt++) {
+            long claims = 0;
+            boolean drained = true;
+            for (TopicRing topicRing : this.topics.values()) {
+                claims += topicRing.claim.get();
+                drained &= topicRing.isDrained();
+            }
+            // a second pass seeing no new claims rules out handlers publishing behind the first one
+            if (drained && claims == previousClaims) {
+                return true;
+            }
+            previousClaims = drained ? claims : -1;
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt);
+        }
+    }
+
+    /**
+     * Stop all consumer threads; unprocessed events are dropped.
+     */
+    public void shutdown() {
+        this.topics.values().forEach(TopicRing::shutdown);
+    }
+
+    private TopicRing topicRing(Topic topic) {
+        return this.topics.computeIfAbsent(topic, t -> newTopicRing(t.getName()));
+    }
+
+    /*
+     * The journal thread is only started once the ring is fully
+     * constructed, so it never sees a partially initialized ring.
+     */
+    private TopicRing newTopicRing(String name) {
+        TopicRing topicRing = new TopicRing(name);
+        topicRing.journal.start();
+        return topicRing;
+    }
+
+    private final class TopicRing {
+        private final String name;
+        private final Event[] entries = new Event[bufferSize];
+        private final int mask = bufferSize - 1;
+        private final int shift = Integer.numberOfTrailingZeros(bufferSize);
+        private final AtomicIntegerArray available = new AtomicIntegerArray(bufferSize);
+        private final AtomicLong claim = new AtomicLong();
+        private final Sequence cachedGatingSequence = new Sequence(-1);
+        private volatile Processor[] processors;
+        private volatile int subscribers;
+
+        private final AppendOnlyEventList events = new AppendOnlyEventList();
+        private final ConcurrentMap<Ref, AppendOnlyEventList> eventsByRef = new ConcurrentHashMap<>();
+        private final Processor journal;
+
+        TopicRing(String name) {
+            this.name = name;
+            for (int i = 0; i < bufferSize; i++) {
+                available.set(i, -1);
+            }
+            this.journal = new Processor(this, Event.class, this::journal, -1, "ring-" + name + "-journal");
+            this.processors = new Processor[]{journal};
+        }
+
+        void publish(Event event) {
+            long sequence = claim.getAndIncrement();
+            awaitCapacity(sequence);
+            int index = (int) sequence & mask;
+            entries[index] = event;
+            available.set(index, (int) (sequence >>> shift));
+        }
+
+        /*
+         * Slots are marked available last to first, so consumers never
+         * see a prefix of the batch without the rest of it.
+         */
+        void publishAll(List<Event> batch) {
+            int n = batch.size();
+            long first = claim.getAndAdd(n);
+            long last = first + n - 1;
+            awaitCapacity(last);
+            for (int i = 0; i < n; i++) {
+                entries[(int) (first + i) & mask] = batch.get(i);
+            }
+            for (long sequence = last; sequence >= first; sequence--) {
+                available.set((int) sequence & mask, (int) (sequence >>> shift));
+            }
+        }
+
+        private void awaitCapacity(long sequence) {
+            long wrapPoint = sequence - bufferSize;
+            if (wrapPoint > cachedGatingSequence.get()) {
+                long minimum;
+                int attempt = 0;
+                while (wrapPoint > (minimum = minimumSequence(sequence))) {
+                    waitStrategy.idle(attempt++);
+                }
+                cachedGatingSequence.set(minimum);
+            }
+        }
+
+        synchronized void subscribe(Class<? extends Event> eventType, EventHandler handler) {
+            addProcessor(eventType, handler, "subscriber-" + subscribers);
+            subscribers++;
+        }
+
+        /*
+         * A new processor starts after the last claimed sequence, so it
+         * only sees events published once subscribe has returned.
+         */
+        private synchronized void addProcessor(Class<? extends Event> eventType, EventHandler handler, String role) {
+            Processor processor = new Processor(this, eventType, handler, claim.get() - 1,
+                    "ring-" + name + "-" + role);
+            Processor[] current = this.processors;
+            Processor[] next = new Processor[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = processor;
+            this.processors = next;
+            processor.start();
+        }
+
+        private void journal(Event event) {
+            events.append(event);
+            if (event instanceof AggregateEvent) {
+                Ref ref = ((AggregateEvent) event).getRef();
+                if (ref != null) {
+                    eventsByRef.computeIfAbsent(ref, k -> new AppendOnlyEventList()).append(event);
+                }
+            }
+        }
+
+        private long minimumSequence(long fallback) {
+            long minimum = fallback;
+            for (Processor processor : processors) {
+                minimum = Math.min(minimum, processor.sequence.get());
+            }
+            return minimum;
+        }
+
+        boolean isAvailable(long sequence) {
+            return available.get((int) sequence & mask) == (int) (sequence >>> shift);
+        }
+
+        /*
+         * Highest sequence from lowerBound on that is contiguously available,
+         * or lowerBound - 1 if none is.
+         */
+        long highestAvailable(long lowerBound, long claimed) {
+            for (long sequence = lowerBound; sequence < claimed; sequence++) {
+                if (!isAvailable(sequence)) {
+                    return sequence - 1;
+                }
+            }
+            return claimed - 1;
+        }
+
+        Event entry(long sequence) {
+            return entries[(int) sequence & mask];
+        }
+
+        void awaitJournal() {
+            long target = claim.get() - 1;
+            int attempt = 0;
+            while (journal.sequence.get() < target) {
+                waitStrategy.idle(attempt++);
+            }
+        }
+
+        boolean isDrained() {
+            long claimed = claim.get() - 1;
+            for (Processor processor : processors) {
+                if (processor.sequence.get() < claimed) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void shutdown() {
+            for (Processor processor : processors) {
+                processor.running = false;
+            }
+        }
+    }
+
+    /*
+     * Runs one handler behind the topic's sequence barrier.
+     */
+    private final class Processor extends Thread {
+        private final TopicRing ring;
+        private final Class<? extends Event> eventType;
+        private final EventHandler handler;
+        private final Sequence sequence;
+        private volatile boolean running = true;
+
+        Processor(TopicRing ring, Class<? extends Event> eventType, EventHandler handler, long initialSequence, String name) {
+            super(name);
+            setDaemon(true);
+            this.ring = ring;
+            this.eventType = eventType;
+            this.handler = handler;
+            this.sequence = new Sequence(initialSequence);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            int attempt = 0;
+            while (running) {
+                long highest = ring.highestAvailable(next, ring.claim.get());
+                if (highest < next) {
+                    waitStrategy.idle(attempt++);
+                    continue;
+                }
+                attempt = 0;
+                if (handler instanceof BatchEventHandler) {
+                    handleBatch(next, highest);
+                } else {
+                    for (long current = next; current <= highest; current++) {
+                        Event event = ring.entry(current);
+                        if (!eventType.isInstance(event)) {
+                            continue;
+                        }
+                        try {
+                            handler.handleEvent(event);
+                        } catch (RuntimeException e) {
+                            getUncaughtExceptionHandler().uncaughtException(this, e);
+                        }
+                    }
+                }
+                sequence.set(highest);
+                next = highest + 1;
+            }
+        }
+
+        private void handleBatch(long from, long to) {
+            List<Event> batch = new ArrayList<>((int) (to - from + 1));
+            for (long current = from; current <= to; current++) {
+                Event event = ring.entry(current);
+                if (eventType.isInstance(event)) {
+                    batch.add(event);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                ((BatchEventHandler) handler).handleEvents(Collections.unmodifiableList(batch));
+            } catch (RuntimeException e) {
+                getUncaughtExceptionHandler().uncaughtException(this, e);
+            }
+        }
+    }
+
+    /*
+     * Padded so that sequences written by different threads do not share a cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        Sequence(long initialValue) {
+            super(initialValue);
+        }
+    }
+}
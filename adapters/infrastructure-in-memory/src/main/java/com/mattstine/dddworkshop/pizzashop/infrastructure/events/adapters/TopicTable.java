@@ -0,0 +1,58 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Per-topic state indexed by {@link Topic#getId()}.
+ * <p>
+ * Lookups are a bounds check and an array load, with no hashing. The array is copied on write, which is
+ * cheap because topics are only ever added, and only a handful of times.
+ *
+ * @author Matt Stine
+ */
+final class TopicTable<T> {
+    private volatile Object[] slots = new Object[0];
+
+    /**
+     * @return the state of <code>topic</code>, or <code>null</code> if it has none yet
+     */
+    @SuppressWarnings("unchecked")
+    T get(Topic topic) {
+        Object[] slots = this.slots;
+        int id = topic.getId();
+        return id < slots.length ? (T) slots[id] : null;
+    }
+
+    T computeIfAbsent(Topic topic, Function<Topic, T> factory) {
+        T value = get(topic);
+        return value != null ? value : create(topic, factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<T> values() {
+        List<T> values = new ArrayList<>();
+        for (Object slot : this.slots) {
+            if (slot != null) {
+                values.add((T) slot);
+            }
+        }
+        return values;
+    }
+
+    private synchronized T create(Topic topic, Function<Topic, T> factory) {
+        T value = get(topic);
+        if (value == null) {
+            value = factory.apply(topic);
+            int id = topic.getId();
+            Object[] slots = Arrays.copyOf(this.slots, Math.max(this.slots.length, id + 1));
+            slots[id] = value;
+            this.slots = slots;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,52 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link RingBufferEventLog} thread waits for a sequence to become available: consumers waiting for
+ * publishers, and publishers waiting for the slowest consumer to free a slot.
+ *
+ * @author Matt Stine
+ */
+public enum WaitStrategy {
+    /**
+     * Lowest latency; burns a whole core per waiting thread.
+     */
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt) {
+        }
+    },
+    /**
+     * Spin briefly, then yield the core to other runnable threads.
+     */
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+    /**
+     * Spin and yield briefly, then park; cheapest on CPU at the cost of wake-up latency.
+     */
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt > 2 * SPIN_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 1_000;
+
+    /**
+     * @param attempt number of consecutive unsuccessful checks so far
+     */
+    abstract void idle(int attempt);
+}
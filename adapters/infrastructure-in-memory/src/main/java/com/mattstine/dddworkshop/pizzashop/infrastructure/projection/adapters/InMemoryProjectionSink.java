@@ -0,0 +1,57 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.ProjectionSink;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe {@link ProjectionSink} that keeps its views on the heap, so it starts out empty and is rebuilt
+ * from the topic on every restart.
+ *
+ * @author Matt Stine
+ */
+public final class InMemoryProjectionSink<K, V> implements ProjectionSink<K, V> {
+    private final ConcurrentMap<K, V> views = new ConcurrentHashMap<>();
+    private volatile long checkpoint;
+
+    @Override
+    public V find(K key) {
+        return views.get(key);
+    }
+
+    @Override
+    public void save(K key, V view) {
+        views.put(key, view);
+    }
+
+    @Override
+    public void delete(K key) {
+        views.remove(key);
+    }
+
+    @Override
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public void checkpoint(long offset) {
+        this.checkpoint = offset;
+    }
+
+    @Override
+    public void clear() {
+        views.clear();
+        this.checkpoint = 0;
+    }
+
+    /**
+     * @return a live, unmodifiable collection of the views
+     */
+    public Collection<V> findAll() {
+        return Collections.unmodifiableCollection(views.values());
+    }
+}
@@ -0,0 +1,100 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.TopicCursor;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.Projection;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.ProjectionSink;
+
+import java.util.List;
+
+/**
+ * Runs a {@link Projection} against an {@link EventLog}, keeping the views in a {@link ProjectionSink} up to date.
+ * <p>
+ * The projector reads the topic with a {@link TopicCursor} from the sink's checkpoint, in batches of
+ * <code>batchSize</code> events, and advances the checkpoint after each batch. A projector created over a sink
+ * that already holds views therefore only applies the events published since, and {@link #rebuild()} replays the
+ * whole topic into an emptied sink.
+ * <p>
+ * Once {@link #start()}ed, it applies each event as it is delivered and advances the checkpoint past it. A delivered
+ * event is first checked against the one event at the projector's offset, so an event already read while catching
+ * up is not applied twice; should the two differ, the projector catches up from its offset instead.
+ *
+ * @param <K> the type identifying a view
+ * @param <V> the type of the views
+ * @author Matt Stine
+ */
+public final class Projector<K, V> {
+    private final EventLog eventLog;
+    private final Projection<K, V> projection;
+    private final ProjectionSink<K, V> sink;
+    private final int batchSize;
+    private long offset;
+
+    public Projector(EventLog eventLog, Projection<K, V> projection, ProjectionSink<K, V> sink, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        this.eventLog = eventLog;
+        this.projection = projection;
+        this.sink = sink;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Catch up with the topic, then follow it.
+     */
+    public void start() {
+        eventLog.subscribe(projection.getTopic(), this::follow);
+        catchUp();
+    }
+
+    /**
+     * Apply every event published since the sink's checkpoint.
+     *
+     * @return the number of events read, including those no handler applies to
+     */
+    public synchronized long catchUp() {
+        return catchUpFrom(sink.getCheckpoint());
+    }
+
+    /**
+     * Discard every view and project the topic again from its first event.
+     *
+     * @return the number of events read
+     */
+    public synchronized long rebuild() {
+        sink.clear();
+        return catchUp();
+    }
+
+    private synchronized void follow(Event event) {
+        EventBatch next = eventLog.read(projection.getTopic(), offset, 1);
+        if (next.isEmpty()) {
+            return;
+        }
+        if (!next.getEvents().get(0).equals(event)) {
+            catchUpFrom(offset);
+            return;
+        }
+        projection.apply(event, sink);
+        offset = next.getNextOffset();
+        sink.checkpoint(offset);
+    }
+
+    private long catchUpFrom(long checkpoint) {
+        TopicCursor cursor = new TopicCursor(eventLog, projection.getTopic(), checkpoint);
+        long read = 0;
+        List<Event> events;
+        while (!(events = cursor.poll(batchSize)).isEmpty()) {
+            for (Event event : events) {
+                projection.apply(event, sink);
+            }
+            sink.checkpoint(cursor.getOffset());
+            read += events.size();
+        }
+        offset = cursor.getOffset();
+        return read;
+    }
+}
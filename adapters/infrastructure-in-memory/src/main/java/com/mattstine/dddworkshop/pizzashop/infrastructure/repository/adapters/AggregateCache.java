@@ -0,0 +1,51 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of hydrated aggregates that evicts the least recently used one.
+ * <p>
+ * Each {@link Entry} records how many of its aggregate's events have been applied to it; callers bring an entry
+ * up to date while holding its monitor.
+ *
+ * @author Matt Stine
+ */
+final class AggregateCache<T> {
+    private final Map<Ref, Entry<T>> entries;
+
+    AggregateCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.entries = new LinkedHashMap<Ref, Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Ref, Entry<T>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the entry for <code>ref</code>, now the most recently used, or <code>null</code> if not cached
+     */
+    synchronized Entry<T> get(Ref ref) {
+        return entries.get(ref);
+    }
+
+    synchronized void put(Ref ref, Entry<T> entry) {
+        entries.put(ref, entry);
+    }
+
+    static final class Entry<T> {
+        T aggregate;
+        int version;
+
+        Entry(T aggregate, int version) {
+            this.aggregate = aggregate;
+            this.version = version;
+        }
+    }
+}
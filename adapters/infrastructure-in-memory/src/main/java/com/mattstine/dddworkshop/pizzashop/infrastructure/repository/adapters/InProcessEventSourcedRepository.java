@@ -1,25 +1,72 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.*;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
+ * Rehydrates aggregates by replaying their events through the aggregate's accumulator function.
+ * <p>
+ * When constructed with a snapshot interval, and the aggregate is {@link Snapshottable}, the repository keeps the
+ * latest snapshot of each aggregate, refreshed whenever <code>snapshotInterval</code> events have been appended
+ * since the previous one. Appended events are counted as they are delivered, so the aggregate's stream is only read
+ * when a snapshot is due. {@link #findByRef(Ref)} then starts from that snapshot and replays only the events that
+ * followed it, so loading costs at most <code>snapshotInterval</code> event applications however long the
+ * aggregate's history grows.
+ * <p>
+ * When constructed with a cache size, and the aggregate is {@link Snapshottable}, the most recently used aggregates
+ * are also kept hydrated in an {@link AggregateCache}. Events published to the topic are applied to cached
+ * aggregates as they arrive, so a repeat {@link #findByRef(Ref)} is a map hit plus a copy. Each cached aggregate
+ * records how many events it has folded, so a find that overtakes a delivery still applies just the events appended
+ * since; callers always receive their own copy, restored from a snapshot of the cached aggregate, and may mutate it
+ * freely.
+ * <p>
+ * Subclasses look aggregates up by anything other than their ref through a {@link UniqueIndex} or {@link MultiIndex},
+ * declared once in their constructor and maintained from the topic's events, and list aggregates by state through a
+ * {@link StateIndex}.
+ * <p>
+ * A {@link Versioned} aggregate is handed out with its version set to the number of events it was hydrated from,
+ * so that the events it appends are rejected if any other writer has appended to its stream in the meantime.
+ * <p>
+ * Everything found by reflection is resolved once, at construction: the ref and add event constructors become
+ * {@link MethodHandle}s, and a prototype aggregate, built through its private no-args constructor, supplies the
+ * identity value and the accumulator function through the {@link Aggregate} interface.
+ *
  * @author Matt Stine
  */
-@SuppressWarnings({"unchecked", "unused"})
+@SuppressWarnings("unchecked")
 public abstract class InProcessEventSourcedRepository<K extends Ref, T extends Aggregate, S extends AggregateState, U extends AggregateEvent, V extends RepositoryAddEvent> implements Repository<K, T, S, U, V> {
     private final EventLog eventLog;
-    private final Class<K> refClass;
-    private final Class<T> aggregateClass;
-    private final Class<S> aggregateStateClass;
-    private final Class<V> addEventClass;
     private final Topic topic;
+    private final MethodHandle refConstructor;
+    private final MethodHandle addEventConstructor;
+    private final T prototype;
+    private final BiFunction<T, U, T> accumulatorFunction;
+    private final int snapshotInterval;
+    private final ConcurrentMap<Ref, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Ref, Integer> eventsSinceSnapshot = new ConcurrentHashMap<>();
+    private final AggregateCache<T> cache;
 
     protected InProcessEventSourcedRepository(EventLog eventLog,
                                               Class<K> refClass,
@@ -27,79 +74,420 @@ public abstract class InProcessEventSourcedRepository<K extends Ref, T extends A
                                               Class<S> aggregateStateClass,
                                               Class<V> addEventClass,
                                               Topic topic) {
+        this(eventLog, refClass, aggregateClass, aggregateStateClass, addEventClass, topic, 0);
+    }
+
+    /**
+     * @param snapshotInterval number of events after which a new snapshot is taken; <code>0</code> disables
+     *                         snapshots
+     */
+    protected InProcessEventSourcedRepository(EventLog eventLog,
+                                              Class<K> refClass,
+                                              Class<T> aggregateClass,
+                                              Class<S> aggregateStateClass,
+                                              Class<V> addEventClass,
+                                              Topic topic,
+                                              int snapshotInterval) {
+        this(eventLog, refClass, aggregateClass, aggregateStateClass, addEventClass, topic, snapshotInterval, 0);
+    }
+
+    /**
+     * @param snapshotInterval number of events after which a new snapshot is taken; <code>0</code> disables
+     *                         snapshots
+     * @param cacheSize        number of hydrated aggregates to keep; <code>0</code> disables the cache
+     */
+    protected InProcessEventSourcedRepository(EventLog eventLog,
+                                              Class<K> refClass,
+                                              Class<T> aggregateClass,
+                                              Class<S> aggregateStateClass,
+                                              Class<V> addEventClass,
+                                              Topic topic,
+                                              int snapshotInterval,
+                                              int cacheSize) {
+        if (snapshotInterval < 0) {
+            throw new IllegalArgumentException("snapshotInterval must be >= 0");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must be >= 0");
+        }
+        if ((snapshotInterval > 0 || cacheSize > 0) && !Snapshottable.class.isAssignableFrom(aggregateClass)) {
+            throw new IllegalArgumentException(aggregateClass.getName() + " does not support snapshots");
+        }
         this.eventLog = eventLog;
-        this.refClass = refClass;
-        this.aggregateClass = aggregateClass;
-        this.aggregateStateClass = aggregateStateClass;
-        this.addEventClass = addEventClass;
         this.topic = topic;
+        this.refConstructor = refConstructor(refClass);
+        this.addEventConstructor = addEventConstructor(addEventClass, refClass, aggregateStateClass);
+        this.prototype = prototype(aggregateClass);
+        this.accumulatorFunction = (BiFunction<T, U, T>) prototype.accumulatorFunction(eventLog);
+        this.snapshotInterval = snapshotInterval;
+        this.cache = cacheSize > 0 ? new AggregateCache<>(cacheSize) : null;
+
+        if (snapshotInterval > 0 || cache != null) {
+            eventLog.subscribe(topic, AggregateEvent.class, e -> {
+                Ref ref = ((AggregateEvent) e).getRef();
+                if (ref != null) {
+                    apply(ref);
+                }
+            });
+        }
     }
 
     @Override
     public final K nextIdentity() {
         try {
-            Constructor ctor = refClass.getConstructor();
-            return (K) ctor.newInstance();
-        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-            throw new IllegalStateException("Cannot instantiate nextIdentity of type: " + refClass.getName());
+            return (K) (Ref) refConstructor.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot instantiate nextIdentity of type: " + refConstructor.type().returnType().getName(), t);
         }
     }
 
     @Override
     public final void add(T aggregateInstance) {
-        V addEvent;
-
-        try {
-            Constructor<V> constructor = addEventClass.getDeclaredConstructor(refClass, aggregateStateClass);
-            constructor.setAccessible(true);
-            addEvent = constructor.newInstance(aggregateInstance.getRef(), aggregateInstance.state());
-        } catch (NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
-            throw new IllegalStateException("Cannot instantiate add event of type: " + addEventClass.getName());
-        }
+        eventLog.publish(topic, addEventFor(aggregateInstance));
+        added(aggregateInstance);
+    }
 
-        eventLog.publish(topic, addEvent);
+    @Override
+    public final void addAll(Collection<T> aggregateInstances) {
+        List<Event> addEvents = new ArrayList<>(aggregateInstances.size());
+        aggregateInstances.forEach(aggregateInstance -> addEvents.add(addEventFor(aggregateInstance)));
+        eventLog.publishAll(topic, addEvents);
+        aggregateInstances.forEach(this::added);
     }
 
     @Override
     public final T findByRef(K ref) {
-        return eventLog.eventsBy(topic)
+        return hydrate(ref, eventLog.eventsBy(topic, ref));
+    }
+
+    /**
+     * Each aggregate is folded from its own event stream, which the {@link EventLog} indexes by ref, so no
+     * aggregate's events are read more than once and no other aggregate's events are read at all.
+     */
+    @Override
+    public final Map<K, T> findAllByRefs(Collection<K> refs) {
+        Map<K, T> aggregates = new LinkedHashMap<>();
+        for (K ref : refs) {
+            List<Event> events = eventLog.eventsBy(topic, ref);
+            if (!events.isEmpty()) {
+                aggregates.put(ref, hydrate(ref, events));
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Fold every aggregate with events on the topic, so that no {@link #findByRef(Ref)} after a restart pays for a
+     * full replay. The topic is read once and partitioned by ref; the partitions are then folded in parallel on
+     * <code>pool</code>, each into the {@link AggregateCache} and, once long enough, into a snapshot. Secondary
+     * indexes need no warming, as they are populated when declared.
+     * <p>
+     * Only the most recently folded <code>cacheSize</code> aggregates stay cached; with neither cache nor
+     * snapshots enabled, warming up merely checks that the whole history folds.
+     *
+     * @return how many aggregates and events were folded, and how long it took
+     */
+    public final RehydrationReport rehydrateAll(ForkJoinPool pool) {
+        long began = System.nanoTime();
+        Map<Ref, List<Event>> partitions = new LinkedHashMap<>();
+        long events = 0;
+        for (Event event : eventLog.eventsBy(topic)) {
+            Ref ref = event instanceof AggregateEvent ? ((AggregateEvent) event).getRef() : null;
+            if (ref != null) {
+                partitions.computeIfAbsent(ref, k -> new ArrayList<>()).add(event);
+                events++;
+            }
+        }
+
+        List<Map.Entry<Ref, List<Event>>> work = new ArrayList<>(partitions.entrySet());
+        pool.invoke(new Rehydration(work, 0, work.size()));
+        return new RehydrationReport(work.size(), events, System.nanoTime() - began, pool.getParallelism());
+    }
+
+    /**
+     * Declare an index from a value carried by each event of <code>eventType</code> to the one aggregate that
+     * event belongs to. Events already in the log are indexed before this method returns, later ones as they are
+     * published.
+     *
+     * @param extractor the indexed value of an event, or <code>null</code> to leave the event out of the index
+     */
+    protected final <I, E extends AggregateEvent> UniqueIndex<I, K> uniqueIndex(Class<E> eventType,
+                                                                              Function<? super E, ? extends I> extractor) {
+        UniqueIndex<I, K> index = new UniqueIndex<>();
+        index(eventType, extractor, index::put);
+        return index;
+    }
+
+    /**
+     * Like {@link #uniqueIndex(Class, Function)}, but each value may be carried by events of many aggregates.
+     */
+    protected final <I, E extends AggregateEvent> MultiIndex<I, K> multiIndex(Class<E> eventType,
+                                                                            Function<? super E, ? extends I> extractor) {
+        MultiIndex<I, K> index = new MultiIndex<>();
+        index(eventType, extractor, index::put);
+        return index;
+    }
+
+    /**
+     * Declare a {@link StateIndex} over this repository's aggregates. Like the STATE column of a JDBC adapter, the
+     * index holds nothing but each aggregate's current state, moved by the events that change it.
+     *
+     * @param transition the state an event leaves its aggregate in, or <code>null</code> if the event does not change
+     *                   the aggregate's state
+     */
+    protected final <S> StateIndex<S, K> stateIndex(Function<? super U, ? extends S> transition) {
+        StateIndex<S, K> index = new StateIndex<>();
+        index(AggregateEvent.class, e -> transition.apply((U) e), index::move);
+        return index;
+    }
+
+    /**
+     * @return the aggregate indexed under <code>value</code>, or <code>null</code> if there is none
+     */
+    protected final <I> T findBy(UniqueIndex<I, K> index, I value) {
+        K ref = index.get(value);
+        return ref == null ? null : findByRef(ref);
+    }
+
+    /**
+     * @return every aggregate indexed under <code>value</code>, in no particular order
+     */
+    protected final <I> Collection<T> findAllBy(MultiIndex<I, K> index, I value) {
+        return findAllByRefs(index.get(value)).values();
+    }
+
+    /**
+     * Aggregates are only hydrated as the stream is consumed, so a caller that stops early, or pages with
+     * {@link Stream#skip(long)} and {@link Stream#limit(long)}, never pays for the rest. Aggregates that have left
+     * <code>state</code> by the time they are reached are skipped.
+     *
+     * @return the aggregates currently in <code>state</code>, in no particular order
+     */
+    protected final <S> Stream<T> findAllBy(StateIndex<S, K> index, S state) {
+        return index.get(state).stream()
+                .filter(ref -> state.equals(index.stateOf(ref)))
+                .map(this::findByRef)
+                .filter(Objects::nonNull);
+    }
+
+    /*
+     * Subscribing before replaying means no event is missed. Deliveries
+     * wait until the replay is done, so they are never interleaved with
+     * it: an event published in between may be indexed twice, but always
+     * again after every event the replay read. Once the deliveries have
+     * run, each ref was last indexed by its latest event, which leaves a
+     * state index right as well as the idempotent value indexes.
+     */
+    private <I, E extends AggregateEvent> void index(Class<E> eventType,
+                                                     Function<? super E, ? extends I> extractor,
+                                                     BiConsumer<I, K> index) {
+        Object replaying = new Object();
+        EventHandler handler = e -> {
+            E event = eventType.cast(e);
+            I value = extractor.apply(event);
+            if (value != null && event.getRef() != null) {
+                index.accept(value, (K) event.getRef());
+            }
+        };
+        synchronized (replaying) {
+            eventLog.subscribe(topic, eventType, e -> {
+                synchronized (replaying) {
+                    handler.handleEvent(e);
+                }
+            });
+            for (Event event : eventLog.eventsBy(topic)) {
+                if (eventType.isInstance(event)) {
+                    handler.handleEvent(event);
+                }
+            }
+        }
+    }
+
+    /*
+     * A ref with no events is never cached, so lookups of unknown refs
+     * cannot evict the aggregates that are actually in use.
+     */
+    private T hydrate(K ref, List<Event> events) {
+        if (cache == null || events.isEmpty()) {
+            return load(ref, events);
+        }
+
+        AggregateCache.Entry<T> entry = cache.get(ref);
+        if (entry == null) {
+            entry = new AggregateCache.Entry<>(load(ref, events), events.size());
+            cache.put(ref, entry);
+        }
+        synchronized (entry) {
+            catchUp(entry, events);
+            return versioned(copyOf(entry.aggregate), entry.version);
+        }
+    }
+
+    private void warm(Ref ref, List<Event> events) {
+        if (cache == null) {
+            load(ref, events);
+            return;
+        }
+
+        AggregateCache.Entry<T> entry = cache.get(ref);
+        if (entry == null) {
+            cache.put(ref, new AggregateCache.Entry<>(load(ref, events), events.size()));
+        } else {
+            synchronized (entry) {
+                catchUp(entry, events);
+            }
+        }
+    }
+
+    /*
+     * Only a cached aggregate's stream is read as its events are
+     * delivered; any other aggregate just counts the event towards its
+     * next snapshot.
+     */
+    private void apply(Ref ref) {
+        AggregateCache.Entry<T> entry = cache == null ? null : cache.get(ref);
+        List<Event> events = null;
+        if (entry != null) {
+            events = eventLog.eventsBy(topic, ref);
+            synchronized (entry) {
+                catchUp(entry, events);
+            }
+        }
+        if (snapshotInterval > 0 && eventsSinceSnapshot.merge(ref, 1, Integer::sum) >= snapshotInterval) {
+            eventsSinceSnapshot.remove(ref);
+            load(ref, events == null ? eventLog.eventsBy(topic, ref) : events);
+        }
+    }
+
+    private void catchUp(AggregateCache.Entry<T> entry, List<Event> events) {
+        for (int i = entry.version; i < events.size(); i++) {
+            entry.aggregate = accumulatorFunction.apply(entry.aggregate, (U) events.get(i));
+        }
+        entry.version = Math.max(entry.version, events.size());
+    }
+
+    private T copyOf(T aggregate) {
+        return restore(((Snapshottable<?>) aggregate).snapshot());
+    }
+
+    private T load(Ref ref, List<Event> events) {
+        Snapshot snapshot = snapshots.get(ref);
+        int version = snapshot == null || snapshot.version > events.size() ? 0 : snapshot.version;
+
+        T aggregate = events.subList(version, events.size())
                 .stream()
                 .map(e -> (U) e)
-                .filter(e -> ref.equals(e.getRef()))
-                .reduce(retrieveIdentityValue(),
-                        retrieveAccumulatorFunction(),
+                .reduce(version == 0 ? (T) prototype.identity() : restore(snapshot.state),
+                        accumulatorFunction,
                         (t, t2) -> null);
+
+        if (snapshotInterval > 0 && events.size() - version >= snapshotInterval) {
+            Snapshot taken = new Snapshot(((Snapshottable<?>) aggregate).snapshot(), events.size());
+            snapshots.merge(ref, taken, (previous, latest) -> latest.version > previous.version ? latest : previous);
+            eventsSinceSnapshot.remove(ref);
+        }
+        return versioned(aggregate, events.size());
+    }
+
+    /**
+     * A freshly added aggregate's stream holds exactly its add event.
+     */
+    private void added(T aggregateInstance) {
+        versioned(aggregateInstance, 1);
     }
 
-    private BiFunction<T, U, T> retrieveAccumulatorFunction() {
-        BiFunction<T, U, T> accumulatorFunction;
+    private T versioned(T aggregate, int version) {
+        if (aggregate instanceof Versioned) {
+            ((Versioned) aggregate).setVersion(version);
+        }
+        return aggregate;
+    }
+
+    private T restore(AggregateState snapshot) {
+        return (T) ((Snapshottable<AggregateState>) prototype).restore(snapshot, eventLog);
+    }
+
+    private V addEventFor(T aggregateInstance) {
         try {
-            Constructor ctor = aggregateClass.getDeclaredConstructor();
-            ctor.setAccessible(true);
-            T aggregateInstance = (T) ctor.newInstance();
-            Method accumulatorFunctionMethod = aggregateClass.getMethod("accumulatorFunction", EventLog.class);
-            accumulatorFunction = (BiFunction<T, U, T>) accumulatorFunctionMethod.invoke(aggregateInstance, eventLog);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            throw new IllegalStateException("Cannot execute method: " + aggregateClass.getName() + ".accumulatorFunction", e);
-        } catch (InstantiationException e) {
-            throw new IllegalStateException("Cannot instantiate class: " + aggregateClass.getName(), e);
+            return (V) (RepositoryAddEvent) addEventConstructor.invokeExact(aggregateInstance.getRef(), aggregateInstance.state());
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot instantiate add event of type: " + addEventConstructor.type().returnType().getName(), t);
         }
-        return accumulatorFunction;
     }
 
-    private T retrieveIdentityValue() {
-        T identity;
+    private static MethodHandle refConstructor(Class<? extends Ref> refClass) {
         try {
-            Constructor ctor = aggregateClass.getDeclaredConstructor();
+            return MethodHandles.publicLookup()
+                    .unreflectConstructor(refClass.getConstructor())
+                    .asType(MethodType.methodType(Ref.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot instantiate nextIdentity of type: " + refClass.getName(), e);
+        }
+    }
+
+    private static MethodHandle addEventConstructor(Class<? extends RepositoryAddEvent> addEventClass,
+                                                    Class<? extends Ref> refClass,
+                                                    Class<? extends AggregateState> aggregateStateClass) {
+        try {
+            Constructor<?> constructor = addEventClass.getDeclaredConstructor(refClass, aggregateStateClass);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup()
+                    .unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(RepositoryAddEvent.class, Ref.class, AggregateState.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot instantiate add event of type: " + addEventClass.getName(), e);
+        }
+    }
+
+    private static <T> T prototype(Class<T> aggregateClass) {
+        try {
+            Constructor<T> ctor = aggregateClass.getDeclaredConstructor();
             ctor.setAccessible(true);
-            T aggregateInstance = (T) ctor.newInstance();
-            Method identityMethod = aggregateClass.getMethod("identity");
-            identity = (T) identityMethod.invoke(aggregateInstance);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            throw new IllegalStateException("Cannot execute method: " + aggregateClass.getName() + ".identity", e);
-        } catch (InstantiationException e) {
+            return ctor.newInstance();
+        } catch (ReflectiveOperationException e) {
             throw new IllegalStateException("Cannot instantiate class: " + aggregateClass.getName(), e);
         }
-        return identity;
+    }
+
+    /**
+     * Splits its slice of the partitions in halves until each is small enough to fold on one worker.
+     */
+    private final class Rehydration extends RecursiveAction {
+        private static final int THRESHOLD = 64;
+
+        private final List<Map.Entry<Ref, List<Event>>> partitions;
+        private final int from;
+        private final int to;
+
+        Rehydration(List<Map.Entry<Ref, List<Event>>> partitions, int from, int to) {
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    warm(partitions.get(i).getKey(), partitions.get(i).getValue());
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Rehydration(partitions, from, middle), new Rehydration(partitions, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Complete state of an aggregate after its first <code>version</code> events.
+     */
+    private static final class Snapshot {
+        private final AggregateState state;
+        private final int version;
+
+        Snapshot(AggregateState state, int version) {
+            this.state = state;
+            this.version = version;
+        }
     }
 }
@@ -0,0 +1,38 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index mapping each value to every aggregate it was seen on, such as the pizzas of a kitchen order.
+ * Declared with {@link InProcessEventSourcedRepository#multiIndex(Class, java.util.function.Function)}, which keeps
+ * it up to date from the repository's topic.
+ *
+ * @author Matt Stine
+ */
+public final class MultiIndex<I, K extends Ref> {
+    private final ConcurrentMap<I, Set<K>> refs = new ConcurrentHashMap<>();
+
+    MultiIndex() {
+    }
+
+    /**
+     * @return an unmodifiable, live view of the refs indexed under <code>value</code>, empty if there are none
+     */
+    public Set<K> get(I value) {
+        Set<K> indexed = refs.get(value);
+        return indexed == null ? Collections.emptySet() : Collections.unmodifiableSet(indexed);
+    }
+
+    public int size() {
+        return refs.size();
+    }
+
+    void put(I value, K ref) {
+        refs.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet()).add(ref);
+    }
+}
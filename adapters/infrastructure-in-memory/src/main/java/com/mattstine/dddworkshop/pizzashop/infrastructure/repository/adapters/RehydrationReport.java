@@ -0,0 +1,26 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of {@link InProcessEventSourcedRepository#rehydrateAll(java.util.concurrent.ForkJoinPool)}.
+ *
+ * @author Matt Stine
+ */
+@Value
+public final class RehydrationReport {
+    int aggregates;
+    long events;
+    long elapsedNanos;
+    int parallelism;
+
+    public double getAggregatesPerSecond() {
+        return elapsedNanos == 0 ? 0 : aggregates * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+}
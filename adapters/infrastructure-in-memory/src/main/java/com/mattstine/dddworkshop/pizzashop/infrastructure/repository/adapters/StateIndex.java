@@ -0,0 +1,57 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Partitions a repository's aggregates by their current state, so that all aggregates in one state can be listed
+ * without touching any other. Declared with
+ * {@link InProcessEventSourcedRepository#stateIndex(java.util.function.Function)}, which moves an aggregate between
+ * partitions as events that change its state are published.
+ *
+ * @author Matt Stine
+ */
+public final class StateIndex<S, K extends Ref> {
+    private final ConcurrentMap<K, S> states = new ConcurrentHashMap<>();
+    private final ConcurrentMap<S, Set<K>> partitions = new ConcurrentHashMap<>();
+
+    StateIndex() {
+    }
+
+    /**
+     * @return an unmodifiable, live view of the refs of aggregates currently in <code>state</code>
+     */
+    public Set<K> get(S state) {
+        Set<K> partition = partitions.get(state);
+        return partition == null ? Collections.emptySet() : Collections.unmodifiableSet(partition);
+    }
+
+    /**
+     * @return the current state of the aggregate identified by <code>ref</code>, or <code>null</code> if unknown
+     */
+    public S stateOf(K ref) {
+        return states.get(ref);
+    }
+
+    /*
+     * Partitions are updated while the ref's entry is locked, so moves of
+     * one aggregate never interleave. It joins its new partition before
+     * leaving the old one: a reader may briefly see it in both, never in
+     * neither.
+     */
+    void move(S state, K ref) {
+        states.compute(ref, (k, previous) -> {
+            if (!state.equals(previous)) {
+                partitions.computeIfAbsent(state, s -> ConcurrentHashMap.newKeySet()).add(ref);
+                if (previous != null) {
+                    partitions.get(previous).remove(ref);
+                }
+            }
+            return state;
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index mapping each value to the one aggregate it identifies, such as the order a payment belongs to.
+ * Declared with {@link InProcessEventSourcedRepository#uniqueIndex(Class, java.util.function.Function)}, which keeps
+ * it up to date from the repository's topic.
+ * <p>
+ * If events of two aggregates carry the same value, the aggregate indexed last wins.
+ *
+ * @author Matt Stine
+ */
+public final class UniqueIndex<I, K extends Ref> {
+    private final ConcurrentMap<I, K> refs = new ConcurrentHashMap<>();
+
+    UniqueIndex() {
+    }
+
+    /**
+     * @return the ref of the aggregate indexed under <code>value</code>, or <code>null</code> if there is none
+     */
+    public K get(I value) {
+        return refs.get(value);
+    }
+
+    public int size() {
+        return refs.size();
+    }
+
+    void put(I value, K ref) {
+        refs.put(value, ref);
+    }
+}
@@ -0,0 +1,182 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import lombok.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+/**
+ * @author Matt Stine
+ */
+public class InProcessEventLogAsyncDispatchTests {
+    private InProcessEventLog eventLog;
+
+    @Before
+    public void setUp() {
+        eventLog = InProcessEventLog.asynchronous(4);
+    }
+
+    @After
+    public void tearDown() {
+        eventLog.shutdown();
+    }
+
+    @Test
+    public void publishReturnsBeforeSubscriberRuns() throws InterruptedException {
+        Topic topic = new Topic("async");
+        CountDownLatch release = new CountDownLatch(1);
+        List<Event> handled = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(topic, e -> {
+            await(release);
+            handled.add(e);
+        });
+
+        TestEvent event = new TestEvent(1);
+        eventLog.publish(topic, event);
+
+        assertThat(eventLog.eventsBy(topic)).containsExactly(event);
+        assertThat(handled).isEmpty();
+
+        release.countDown();
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).containsExactly(event);
+    }
+
+    @Test
+    public void eachSubscriberSeesEventsInPublicationOrder() throws InterruptedException {
+        Topic topic = new Topic("ordered");
+        List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(topic, e -> first.add(((TestEvent) e).getSequence()));
+        eventLog.subscribe(topic, e -> second.add(((TestEvent) e).getSequence()));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            eventLog.publish(topic, new TestEvent(i));
+            expected.add(i);
+        }
+
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(first).isEqualTo(expected);
+        assertThat(second).isEqualTo(expected);
+    }
+
+    @Test
+    public void publisherBlocksWhenDispatchQueueIsFull() throws InterruptedException {
+        Topic topic = new Topic("bounded");
+        CountDownLatch release = new CountDownLatch(1);
+        eventLog.subscribe(topic, e -> await(release));
+
+        CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 6; i++) {
+                eventLog.publish(topic, new TestEvent(i));
+            }
+            published.countDown();
+        });
+        publisher.start();
+
+        assertThat(published.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        release.countDown();
+        assertThat(published.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void cascadingPublishesFromHandlersAreAwaited() throws InterruptedException {
+        Topic orders = new Topic("orders");
+        Topic pizzas = new Topic("pizzas");
+        List<Event> pizzaEvents = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(orders, e -> {
+            for (int i = 0; i < 10; i++) {
+                eventLog.publish(pizzas, new TestEvent(i));
+            }
+        });
+        eventLog.subscribe(pizzas, e -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(5);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pizzaEvents.add(e);
+        });
+
+        eventLog.publish(orders, new TestEvent(0));
+
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(pizzaEvents).hasSize(10);
+    }
+
+    @Test
+    public void shutdownReleasesQueuedEventsAndBlockedPublishers() throws InterruptedException {
+        Topic topic = new Topic("shutdown");
+        CountDownLatch release = new CountDownLatch(1);
+        eventLog.subscribe(topic, e -> await(release));
+        for (int i = 0; i < 4; i++) {
+            eventLog.publish(topic, new TestEvent(i));
+        }
+
+        AtomicReference<Throwable> rejected = new AtomicReference<>();
+        Thread publisher = new Thread(() -> {
+            try {
+                eventLog.publish(topic, new TestEvent(4));
+            } catch (Throwable t) {
+                rejected.set(t);
+            }
+        });
+        publisher.start();
+        publisher.join(200);
+        assertThat(publisher.isAlive()).isTrue();
+
+        eventLog.shutdown();
+
+        publisher.join(5_000);
+        assertThat(publisher.isAlive()).isFalse();
+        assertThat(rejected.get()).isInstanceOf(IllegalStateException.class);
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(eventLog.eventsBy(topic)).hasSize(4);
+    }
+
+    @Test
+    public void publishAfterShutdownIsRejected() {
+        Topic existing = new Topic("existing");
+        eventLog.publish(existing, new TestEvent(0));
+
+        eventLog.shutdown();
+
+        assertThatIllegalStateException().isThrownBy(() -> eventLog.publish(existing, new TestEvent(1)));
+        assertThatIllegalStateException().isThrownBy(() -> eventLog.publish(new Topic("new"), new TestEvent(0)));
+        assertThat(eventLog.eventsBy(existing)).hasSize(1);
+    }
+
+    @Test
+    public void synchronousLogIsAlwaysQuiescent() throws InterruptedException {
+        assertThat(InProcessEventLog.instance().awaitQuiescence(0, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Value
+    private static class TestEvent implements Event {
+        int sequence;
+    }
+}
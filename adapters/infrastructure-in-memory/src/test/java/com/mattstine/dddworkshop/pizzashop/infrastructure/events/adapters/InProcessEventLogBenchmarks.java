@@ -0,0 +1,49 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.TestRef;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.EVENTS_PER_PUBLISHER;
+import static com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.runPublishers;
+import static com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.uniqueTopic;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class InProcessEventLogBenchmarks {
+
+    @Test
+    public void throughputWithPublishersOnDistinctTopics() throws Exception {
+        InProcessEventLog eventLog = InProcessEventLog.synchronous();
+        int cores = Runtime.getRuntime().availableProcessors();
+        TestRef ref = new TestRef(UUID.randomUUID().toString());
+
+        // warm up
+        runPublishers(eventLog, cores, i -> uniqueTopic(), i -> ref);
+
+        for (int publishers = 1; publishers <= cores; publishers <<= 1) {
+            List<Topic> topics = new ArrayList<>();
+            for (int i = 0; i < publishers; i++) {
+                topics.add(uniqueTopic());
+            }
+
+            long elapsed = runPublishers(eventLog, publishers, topics::get, i -> ref);
+
+            long total = (long) publishers * EVENTS_PER_PUBLISHER;
+            System.out.printf("InProcessEventLog: %2d publisher(s) -> %,12d events/s%n",
+                    publishers, total * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed));
+            for (Topic topic : topics) {
+                assertThat(eventLog.eventsBy(topic)).hasSize(EVENTS_PER_PUBLISHER);
+            }
+        }
+    }
+}
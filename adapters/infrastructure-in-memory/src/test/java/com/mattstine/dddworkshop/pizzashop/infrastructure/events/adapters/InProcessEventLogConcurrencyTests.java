@@ -0,0 +1,172 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import lombok.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Matt Stine
+ */
+public class InProcessEventLogConcurrencyTests {
+    static final int EVENTS_PER_PUBLISHER = 50_000;
+
+    private InProcessEventLog eventLog;
+
+    @Before
+    public void setUp() {
+        this.eventLog = InProcessEventLog.instance();
+    }
+
+    @After
+    public void tearDown() {
+        this.eventLog.purgeSubscribers();
+    }
+
+    @Test
+    public void concurrentPublishersToSameTopicLoseNoEvents() throws Exception {
+        Topic topic = uniqueTopic();
+        int publishers = Math.max(4, Runtime.getRuntime().availableProcessors());
+        AtomicLong delivered = new AtomicLong();
+        eventLog.subscribe(topic, e -> delivered.incrementAndGet());
+
+        List<TestRef> refs = new ArrayList<>();
+        for (int i = 0; i < publishers; i++) {
+            refs.add(new TestRef(UUID.randomUUID().toString()));
+        }
+
+        AtomicBoolean publishing = new AtomicBoolean(true);
+        AtomicReference<Throwable> readerFailure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (publishing.get()) {
+                    int seen = 0;
+                    for (Event ignored : eventLog.eventsBy(topic)) {
+                        seen++;
+                    }
+                    assertThat(seen).isLessThanOrEqualTo(publishers * EVENTS_PER_PUBLISHER);
+                }
+            } catch (Throwable t) {
+                readerFailure.set(t);
+            }
+        });
+        reader.start();
+
+        runPublishers(eventLog, publishers, i -> topic, refs::get);
+        publishing.set(false);
+        reader.join();
+
+        assertThat(readerFailure.get()).isNull();
+        assertThat(eventLog.eventsBy(topic)).hasSize(publishers * EVENTS_PER_PUBLISHER);
+        assertThat(delivered.get()).isEqualTo(publishers * EVENTS_PER_PUBLISHER);
+        for (TestRef ref : refs) {
+            List<Event> events = eventLog.eventsBy(topic, ref);
+            assertThat(events).hasSize(EVENTS_PER_PUBLISHER);
+            for (int i = 0; i < events.size(); i++) {
+                assertThat(((TestAggregateEvent) events.get(i)).getSequence()).isEqualTo(i);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentVersionedAppendsToSameRefNeverInterleave() throws Exception {
+        Topic topic = uniqueTopic();
+        TestRef ref = new TestRef(UUID.randomUUID().toString());
+        int writers = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int appendsPerWriter = 1_000;
+        AtomicLong attempts = new AtomicLong();
+        AtomicLong conflicts = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < appendsPerWriter; i++) {
+                    while (true) {
+                        List<Event> seen = eventLog.eventsBy(topic, ref);
+                        attempts.incrementAndGet();
+                        try {
+                            eventLog.append(topic, ref, seen.size(),
+                                    Collections.singletonList(new TestAggregateEvent(ref, seen.size())));
+                            break;
+                        } catch (VersionConflictException e) {
+                            assertThat(e.getActualVersion()).isGreaterThan(e.getExpectedVersion());
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        List<Event> events = eventLog.eventsBy(topic, ref);
+        assertThat(events).hasSize(writers * appendsPerWriter);
+        for (int i = 0; i < events.size(); i++) {
+            assertThat(((TestAggregateEvent) events.get(i)).getSequence()).isEqualTo(i);
+        }
+        assertThat(attempts.get()).isEqualTo(events.size() + conflicts.get());
+    }
+
+    static long runPublishers(EventLog eventLog, int publishers, IntFunction<Topic> topicFor, IntFunction<TestRef> refFor) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        CyclicBarrier start = new CyclicBarrier(publishers + 1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            Topic topic = topicFor.apply(p);
+            TestRef ref = refFor.apply(p);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < EVENTS_PER_PUBLISHER; i++) {
+                    eventLog.publish(topic, new TestAggregateEvent(ref, i));
+                }
+                return null;
+            }));
+        }
+
+        start.await();
+        long began = System.nanoTime();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - began;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    static Topic uniqueTopic() {
+        return new Topic("stress-" + UUID.randomUUID());
+    }
+
+    @Value
+    static class TestRef implements Ref {
+        String reference;
+    }
+
+    @Value
+    static class TestAggregateEvent implements AggregateEvent {
+        TestRef ref;
+        int sequence;
+    }
+}
@@ -1,13 +1,26 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.BatchEventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.TopicCursor;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
 import lombok.Value;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 
 /**
  * @author Matt Stine
@@ -55,7 +68,155 @@ public class InProcessEventLogTests {
         assertThat(eventLog.eventsBy(topic)).contains(testEvent);
     }
 
+    @Test
+    public void shouldIndexAggregateEventsByRef() {
+        Topic topic = new Topic("some-indexed-topic");
+        TestRef ref = new TestRef("ref-1");
+        TestRef otherRef = new TestRef("ref-2");
+        TestAggregateEvent first = new TestAggregateEvent(ref, 1);
+        TestAggregateEvent other = new TestAggregateEvent(otherRef, 1);
+        TestAggregateEvent second = new TestAggregateEvent(ref, 2);
+
+        eventLog.publish(topic, first);
+        eventLog.publish(topic, other);
+        eventLog.publish(topic, second);
+
+        assertThat(eventLog.eventsBy(topic, ref)).containsExactly(first, second);
+        assertThat(eventLog.eventsBy(topic, otherRef)).containsExactly(other);
+        assertThat(eventLog.eventsBy(topic, new TestRef("ref-3"))).isEmpty();
+        assertThat(eventLog.eventsBy(new Topic("unknown-topic"), ref)).isEmpty();
+    }
+
+    @Test
+    public void shouldDeliverPublishedBatchInOneCallbackToBatchHandlers() {
+        Topic topic = new Topic("some-batched-topic");
+        TestRef ref = new TestRef("ref-1");
+        List<Event> batch = Arrays.asList(new TestAggregateEvent(ref, 1), new TestAggregateEvent(ref, 2));
+        List<List<Event>> batches = new ArrayList<>();
+        List<Event> singles = new ArrayList<>();
+        eventLog.subscribe(topic, new BatchEventHandler() {
+            @Override
+            public void handleEvents(List<Event> events) {
+                batches.add(events);
+            }
+
+            @Override
+            public void handleEvent(Event e) {
+                throw new AssertionError("batch handler should receive the whole batch");
+            }
+        });
+        eventLog.subscribe(topic, singles::add);
+
+        eventLog.publishAll(topic, batch);
+
+        assertThat(batches).containsExactly(batch);
+        assertThat(singles).isEqualTo(batch);
+        assertThat(eventLog.eventsBy(topic)).isEqualTo(batch);
+        assertThat(eventLog.eventsBy(topic, ref)).isEqualTo(batch);
+    }
+
+    @Test
+    public void shouldOnlyInvokeHandlersSubscribedToTheEventsType() {
+        Topic topic = new Topic("some-typed-topic");
+        TestRef ref = new TestRef("ref-1");
+        List<Event> aggregateEvents = new ArrayList<>();
+        List<Event> testEvents = new ArrayList<>();
+        List<Event> allEvents = new ArrayList<>();
+        eventLog.subscribe(topic, TestAggregateEvent.class, aggregateEvents::add);
+        eventLog.subscribe(topic, TestEvent.class, testEvents::add);
+        eventLog.subscribe(topic, Event.class, allEvents::add);
+
+        TestAggregateEvent aggregateEvent = new TestAggregateEvent(ref, 1);
+        TestEvent testEvent = new TestEvent();
+        eventLog.publish(topic, aggregateEvent);
+        eventLog.publish(topic, testEvent);
+        eventLog.publishAll(topic, Arrays.asList(testEvent, aggregateEvent));
+
+        assertThat(aggregateEvents).containsExactly(aggregateEvent, aggregateEvent);
+        assertThat(testEvents).containsExactly(testEvent, testEvent);
+        assertThat(allEvents).containsExactly(aggregateEvent, testEvent, testEvent, aggregateEvent);
+        assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldAppendOnlyAtTheExpectedVersion() {
+        Topic topic = new Topic("some-versioned-topic");
+        TestRef ref = new TestRef("ref-1");
+        List<Event> handled = new ArrayList<>();
+        eventLog.subscribe(topic, handled::add);
+        eventLog.append(topic, ref, 0, Arrays.asList(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1)));
+        eventLog.publish(topic, new TestAggregateEvent(new TestRef("ref-2"), 0));
+
+        assertThatExceptionOfType(VersionConflictException.class)
+                .isThrownBy(() -> eventLog.append(topic, ref, 1, Collections.singletonList(new TestAggregateEvent(ref, 2))))
+                .satisfies(e -> assertThat(e.getActualVersion()).isEqualTo(2));
+
+        eventLog.append(topic, ref, 2, Collections.singletonList(new TestAggregateEvent(ref, 2)));
+        assertThat(eventLog.eventsBy(topic, ref)).containsExactly(
+                new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1), new TestAggregateEvent(ref, 2));
+        assertThat(handled).hasSize(4);
+    }
+
+    @Test
+    public void shouldOnlyAppendEventsOfTheVersionedAggregate() {
+        Topic topic = new Topic("some-versioned-topic");
+        TestRef ref = new TestRef("ref-3");
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> eventLog.append(topic, ref, 0, Collections.singletonList(new TestAggregateEvent(new TestRef("ref-4"), 0))));
+        assertThat(eventLog.eventsBy(topic, ref)).isEmpty();
+    }
+
+    @Test
+    public void shouldReadBoundedBatchesFromAnOffset() {
+        Topic topic = new Topic("some-read-topic");
+        TestRef ref = new TestRef("ref-1");
+        for (int i = 0; i < 5; i++) {
+            eventLog.publish(topic, new TestAggregateEvent(ref, i));
+        }
+
+        EventBatch first = eventLog.read(topic, 0, 2);
+        EventBatch last = eventLog.read(topic, 4, 2);
+        EventBatch end = eventLog.read(topic, 5, 2);
+
+        assertThat(first.getEvents()).containsExactly(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1));
+        assertThat(first.getNextOffset()).isEqualTo(2);
+        assertThat(last.getEvents()).containsExactly(new TestAggregateEvent(ref, 4));
+        assertThat(last.getNextOffset()).isEqualTo(5);
+        assertThat(end.isEmpty()).isTrue();
+        assertThat(end.getNextOffset()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldTailTopicIncrementallyWithCursor() {
+        Topic topic = new Topic("some-tailed-topic");
+        TestRef ref = new TestRef("ref-1");
+        eventLog.publish(topic, new TestAggregateEvent(ref, 0));
+        eventLog.publish(topic, new TestAggregateEvent(ref, 1));
+        TopicCursor cursor = new TopicCursor(eventLog, topic, 0);
+
+        assertThat(cursor.poll(10)).hasSize(2);
+        assertThat(cursor.poll(10)).isEmpty();
+
+        eventLog.publish(topic, new TestAggregateEvent(ref, 2));
+        assertThat(cursor.poll(10)).containsExactly(new TestAggregateEvent(ref, 2));
+        assertThat(cursor.getOffset()).isEqualTo(3);
+
+        TopicCursor resumed = new TopicCursor(eventLog, topic, 2);
+        assertThat(resumed.poll(10)).containsExactly(new TestAggregateEvent(ref, 2));
+    }
+
     @Value
     private static class TestEvent implements Event {
     }
+
+    @Value
+    private static class TestRef implements Ref {
+        String reference;
+    }
+
+    @Value
+    private static class TestAggregateEvent implements AggregateEvent {
+        TestRef ref;
+        int sequence;
+    }
 }
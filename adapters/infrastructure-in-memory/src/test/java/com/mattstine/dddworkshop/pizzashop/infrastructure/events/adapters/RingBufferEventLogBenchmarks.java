@@ -0,0 +1,65 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.TestAggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLogConcurrencyTests.TestRef;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class RingBufferEventLogBenchmarks {
+    private static final int EVENTS = 200_000;
+
+    @Test
+    public void throughputComparedToInProcessEventLog() {
+        Topic topic = new Topic("throughput");
+        TestRef ref = new TestRef("1");
+
+        InProcessEventLog inProcess = InProcessEventLog.asynchronous(1024);
+        long inProcessElapsed = timePublishing(i -> inProcess.publish(topic, new TestAggregateEvent(ref, i)),
+                () -> awaitQuietly(inProcess), inProcess::subscribe, topic);
+        inProcess.shutdown();
+
+        RingBufferEventLog ring = RingBufferEventLog.create(1024, WaitStrategy.YIELD);
+        long ringElapsed = timePublishing(i -> ring.publish(topic, new TestAggregateEvent(ref, i)),
+                () -> ring.awaitQuiescence(30, TimeUnit.SECONDS), ring::subscribe, topic);
+        ring.shutdown();
+
+        System.out.printf("InProcessEventLog (async): %,12d events/s%n", EVENTS * TimeUnit.SECONDS.toNanos(1) / inProcessElapsed);
+        System.out.printf("RingBufferEventLog:        %,12d events/s%n", EVENTS * TimeUnit.SECONDS.toNanos(1) / ringElapsed);
+    }
+
+    private static long timePublishing(IntConsumer publish, Runnable await,
+                                       BiConsumer<Topic, EventHandler> subscribe,
+                                       Topic topic) {
+        AtomicLong handled = new AtomicLong();
+        subscribe.accept(topic, e -> handled.incrementAndGet());
+        long began = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            publish.accept(i);
+        }
+        await.run();
+        long elapsed = Math.max(1, System.nanoTime() - began);
+        assertThat(handled.get()).isEqualTo(EVENTS);
+        return elapsed;
+    }
+
+    private static void awaitQuietly(InProcessEventLog eventLog) {
+        try {
+            eventLog.awaitQuiescence(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.BatchEventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import lombok.Value;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Matt Stine
+ */
+public class RingBufferEventLogTests {
+    private static final int EVENTS_PER_PUBLISHER = 50_000;
+
+    private RingBufferEventLog eventLog;
+
+    @After
+    public void tearDown() {
+        if (eventLog != null) {
+            eventLog.shutdown();
+        }
+    }
+
+    @Test
+    public void bufferSizeMustBeAPowerOfTwo() {
+        assertThatThrownBy(() -> RingBufferEventLog.create(12, WaitStrategy.PARK))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void subscribersSeeEveryEventInOrderAcrossWraps() {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            eventLog = RingBufferEventLog.create(8, waitStrategy);
+            Topic topic = new Topic("kitchen_orders");
+            List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+            List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+            eventLog.subscribe(topic, e -> first.add(((TestAggregateEvent) e).getSequence()));
+            eventLog.subscribe(topic, e -> second.add(((TestAggregateEvent) e).getSequence()));
+
+            List<Integer> expected = new ArrayList<>();
+            TestRef ref = new TestRef("1");
+            for (int i = 0; i < 1_000; i++) {
+                eventLog.publish(topic, new TestAggregateEvent(ref, i));
+                expected.add(i);
+            }
+
+            assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(first).as(waitStrategy.name()).isEqualTo(expected);
+            assertThat(second).as(waitStrategy.name()).isEqualTo(expected);
+            assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(2);
+            eventLog.shutdown();
+        }
+    }
+
+    @Test
+    public void readsSeeEveryEventPublishedBeforeThem() {
+        eventLog = RingBufferEventLog.create(16, WaitStrategy.PARK);
+        Topic topic = new Topic("pizzas");
+        TestRef first = new TestRef("1");
+        TestRef second = new TestRef("2");
+
+        eventLog.publish(topic, new TestAggregateEvent(first, 0));
+        eventLog.publish(topic, new TestAggregateEvent(second, 0));
+        eventLog.publish(topic, new TestAggregateEvent(first, 1));
+
+        assertThat(eventLog.eventsBy(topic)).hasSize(3);
+        assertThat(eventLog.eventsBy(topic, first)).containsExactly(
+                new TestAggregateEvent(first, 0),
+                new TestAggregateEvent(first, 1));
+        assertThat(eventLog.eventsBy(new Topic("unknown"), first)).isEmpty();
+    }
+
+    @Test
+    public void concurrentPublishersLoseNoEvents() throws Exception {
+        eventLog = RingBufferEventLog.create(64, WaitStrategy.PARK);
+        Topic topic = new Topic("ordering");
+        int publishers = 4;
+        ConcurrentMap<Ref, List<Integer>> received = new ConcurrentHashMap<>();
+        eventLog.subscribe(topic, e -> {
+            TestAggregateEvent event = (TestAggregateEvent) e;
+            received.computeIfAbsent(event.getRef(), k -> new ArrayList<>()).add(event.getSequence());
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            TestRef ref = new TestRef(String.valueOf(p));
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < EVENTS_PER_PUBLISHER; i++) {
+                    eventLog.publish(topic, new TestAggregateEvent(ref, i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(eventLog.awaitQuiescence(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(eventLog.eventsBy(topic)).hasSize(publishers * EVENTS_PER_PUBLISHER);
+        assertThat(received).hasSize(publishers);
+        for (List<Integer> sequences : received.values()) {
+            assertThat(sequences).hasSize(EVENTS_PER_PUBLISHER);
+            for (int i = 0; i < sequences.size(); i++) {
+                assertThat(sequences.get(i)).isEqualTo(i);
+            }
+        }
+    }
+
+    @Test
+    public void cascadingPublishesFromHandlersAreAwaited() {
+        eventLog = RingBufferEventLog.create(16, WaitStrategy.YIELD);
+        Topic orders = new Topic("orders");
+        Topic pizzas = new Topic("pizzas");
+        List<Event> pizzaEvents = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(orders, e -> {
+            for (int i = 0; i < 10; i++) {
+                eventLog.publish(pizzas, new TestAggregateEvent(new TestRef("p"), i));
+            }
+        });
+        eventLog.subscribe(pizzas, pizzaEvents::add);
+
+        eventLog.publish(orders, new TestAggregateEvent(new TestRef("o"), 0));
+
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(pizzaEvents).hasSize(10);
+    }
+
+    @Test
+    public void subscriberOnlySeesEventsPublishedAfterSubscribing() {
+        eventLog = RingBufferEventLog.create(16, WaitStrategy.PARK);
+        Topic topic = new Topic("delivery_orders");
+        TestRef ref = new TestRef("1");
+        eventLog.publish(topic, new TestAggregateEvent(ref, 0));
+
+        List<Event> received = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(topic, received::add);
+        eventLog.publish(topic, new TestAggregateEvent(ref, 1));
+
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(received).containsExactly(new TestAggregateEvent(ref, 1));
+    }
+
+    @Test
+    public void batchHandlersReceivePublishedBatchesWhole() {
+        eventLog = RingBufferEventLog.create(16, WaitStrategy.PARK);
+        Topic topic = new Topic("pizzas");
+        TestRef ref = new TestRef("1");
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        eventLog.subscribe(topic, new BatchEventHandler() {
+            @Override
+            public void handleEvents(List<Event> events) {
+                batchSizes.add(events.size());
+            }
+
+            @Override
+            public void handleEvent(Event e) {
+                throw new AssertionError("batch handler should receive batches");
+            }
+        });
+
+        List<Event> batch = Arrays.asList(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1),
+                new TestAggregateEvent(ref, 2));
+        eventLog.publishAll(topic, batch);
+
+        assertThat(eventLog.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(batchSizes).containsExactly(3);
+        assertThat(eventLog.eventsBy(topic, ref)).isEqualTo(batch);
+        assertThatThrownBy(() -> eventLog.publishAll(topic, Collections.nCopies(17, new TestAggregateEvent(ref, 3))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Value
+    private static class TestRef implements Ref {
+        String reference;
+    }
+
+    @Value
+    private static class TestAggregateEvent implements AggregateEvent {
+        TestRef ref;
+        int sequence;
+    }
+}
@@ -0,0 +1,174 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.Projection;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.ProjectionSink;
+import lombok.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Matt Stine
+ */
+public class ProjectorTests {
+    private InProcessEventLog eventLog;
+    private Topic topic;
+    private Projection<String, String> projection;
+    private InMemoryProjectionSink<String, String> sink;
+
+    @Before
+    public void setUp() {
+        eventLog = InProcessEventLog.instance();
+        topic = new Topic("projection-" + RefStringGenerator.generateRefString());
+        projection = Projection.<String, String>builder("labels", topic)
+                .on(Labelled.class, (e, sink) -> sink.save(e.getKey(), e.getLabel()))
+                .on(Removed.class, (e, sink) -> sink.delete(e.getKey()))
+                .build();
+        sink = new InMemoryProjectionSink<>();
+    }
+
+    @After
+    public void tearDown() {
+        eventLog.purgeSubscribers();
+    }
+
+    @Test
+    public void catchUpAppliesHandlersByEventTypeAndSkipsOthers() {
+        eventLog.publish(topic, new Labelled("a", "first"));
+        eventLog.publish(topic, new Ignored());
+        eventLog.publish(topic, new Labelled("b", "second"));
+        eventLog.publish(topic, new Removed("a"));
+
+        assertThat(new Projector<>(eventLog, projection, sink, 3).catchUp()).isEqualTo(4);
+        assertThat(sink.find("a")).isNull();
+        assertThat(sink.find("b")).isEqualTo("second");
+        assertThat(sink.getCheckpoint()).isEqualTo(4);
+    }
+
+    @Test
+    public void catchUpOnlyReadsEventsAfterTheCheckpoint() {
+        Projector<String, String> projector = new Projector<>(eventLog, projection, sink, 10);
+        eventLog.publish(topic, new Labelled("a", "first"));
+        projector.catchUp();
+
+        eventLog.publish(topic, new Labelled("a", "second"));
+
+        assertThat(projector.catchUp()).isEqualTo(1);
+        assertThat(projector.catchUp()).isEqualTo(0);
+        assertThat(sink.find("a")).isEqualTo("second");
+    }
+
+    @Test
+    public void startedProjectorFollowsTheTopic() {
+        eventLog.publish(topic, new Labelled("a", "first"));
+        new Projector<>(eventLog, projection, sink, 10).start();
+
+        assertThat(sink.find("a")).isEqualTo("first");
+
+        eventLog.publish(topic, new Labelled("b", "second"));
+
+        assertThat(sink.find("b")).isEqualTo("second");
+        assertThat(sink.getCheckpoint()).isEqualTo(2);
+    }
+
+    @Test
+    public void startedProjectorAppliesDeliveredEventsWithoutCatchingUp() {
+        eventLog.publish(topic, new Labelled("a", "first"));
+        CheckpointCountingSink counting = new CheckpointCountingSink();
+        new Projector<>(eventLog, projection, counting, 10).start();
+        assertThat(counting.checkpointReads).isEqualTo(1);
+
+        eventLog.publish(topic, new Labelled("b", "second"));
+        eventLog.publish(topic, new Ignored());
+        eventLog.publish(topic, new Removed("a"));
+
+        assertThat(counting.checkpointReads).isEqualTo(1);
+        assertThat(counting.getCheckpoint()).isEqualTo(4);
+        assertThat(counting.findAll()).containsExactly("second");
+    }
+
+    @Test
+    public void rebuildDiscardsViewsAndReplaysTopic() {
+        Projector<String, String> projector = new Projector<>(eventLog, projection, sink, 10);
+        eventLog.publish(topic, new Labelled("a", "first"));
+        projector.catchUp();
+        sink.save("stale", "view");
+
+        assertThat(projector.rebuild()).isEqualTo(1);
+        assertThat(sink.findAll()).containsExactly("first");
+    }
+
+    @Test
+    public void rejectsSecondHandlerForSameEventType() {
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> Projection.<String, String>builder("labels", topic)
+                        .on(Labelled.class, (e, sink) -> {
+                        })
+                        .on(Labelled.class, (e, sink) -> {
+                        }));
+    }
+
+    private static class CheckpointCountingSink implements ProjectionSink<String, String> {
+        private final InMemoryProjectionSink<String, String> delegate = new InMemoryProjectionSink<>();
+        private int checkpointReads;
+
+        @Override
+        public String find(String key) {
+            return delegate.find(key);
+        }
+
+        @Override
+        public void save(String key, String view) {
+            delegate.save(key, view);
+        }
+
+        @Override
+        public void delete(String key) {
+            delegate.delete(key);
+        }
+
+        @Override
+        public long getCheckpoint() {
+            checkpointReads++;
+            return delegate.getCheckpoint();
+        }
+
+        @Override
+        public void checkpoint(long offset) {
+            delegate.checkpoint(offset);
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+
+        Collection<String> findAll() {
+            return delegate.findAll();
+        }
+    }
+
+    @Value
+    private static class Labelled implements Event {
+        String key;
+        String label;
+    }
+
+    @Value
+    private static class Removed implements Event {
+        String key;
+    }
+
+    @Value
+    private static class Ignored implements Event {
+    }
+}
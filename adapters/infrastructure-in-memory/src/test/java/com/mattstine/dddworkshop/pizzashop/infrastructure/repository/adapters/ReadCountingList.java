@@ -0,0 +1,35 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An aggregate's event stream that counts how many events a repository reads from it.
+ *
+ * @author Matt Stine
+ */
+public class ReadCountingList extends AbstractList<Event> {
+    private final List<Event> events;
+    private int reads;
+
+    public ReadCountingList(List<Event> events) {
+        this.events = events;
+    }
+
+    public int getReads() {
+        return reads;
+    }
+
+    @Override
+    public Event get(int index) {
+        reads++;
+        return events.get(index);
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+}
@@ -0,0 +1,300 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Durable {@link EventLog} that stores serialized events in an EVENTS table of an embedded H2 database.
+ * <p>
+ * Every event is a row keyed by its topic and its offset within the topic. Events of an aggregate also record
+ * their aggregate's ref and their sequence number within the aggregate's stream, and a unique index on
+ * (TOPIC, REF, SEQ) serves {@link #eventsBy(Topic, Ref)}. An event-sourced repository that rehydrates through
+ * this log therefore reads only the rows of the aggregate it loads.
+ * <p>
+ * Each publish inserts its events as one JDBC batch in one transaction, and subscribers run on the publisher's
+ * thread after that transaction commits. Appends to a topic are serialized by a lock in this process, so only
+ * one log may write to a database at a time.
+ *
+ * @author Matt Stine
+ */
+public final class EmbeddedJdbcEventLog implements EventLog {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("EVENTS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS EVENTS (TOPIC VARCHAR(255) NOT NULL, TOPIC_OFFSET BIGINT NOT NULL, REF VARCHAR(255), SEQ BIGINT, TYPE VARCHAR(255) NOT NULL, PAYLOAD VARBINARY NOT NULL, PRIMARY KEY (TOPIC, TOPIC_OFFSET))",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS EVENTS_TOPIC_REF_SEQ ON EVENTS (TOPIC, REF, SEQ)")
+            .build();
+
+    private final JdbcConnectionPool pool;
+    private final EventSerializer serializer;
+    private final ConcurrentMap<Topic, TopicLog> topics = new ConcurrentHashMap<>();
+
+    private EmbeddedJdbcEventLog(JdbcConnectionPool pool, EventSerializer serializer) {
+        this.pool = pool;
+        this.serializer = serializer;
+
+        SCHEMA.migrate(pool);
+    }
+
+    public static EmbeddedJdbcEventLog open(JdbcConnectionPool pool) {
+        return open(pool, JavaEventSerializer.instance());
+    }
+
+    /**
+     * Open the log stored in <code>pool</code>'s database, creating or migrating the EVENTS table if necessary.
+     * Events already in the table are read back on demand; nothing is replayed up front.
+     */
+    public static EmbeddedJdbcEventLog open(JdbcConnectionPool pool, EventSerializer serializer) {
+        return new EmbeddedJdbcEventLog(pool, serializer);
+    }
+
+    @Override
+    public void publish(Topic topic, Event event) {
+        publishAll(topic, Collections.singletonList(event));
+    }
+
+    @Override
+    public void publishAll(Topic topic, List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        TopicLog topicLog = topicLog(topic);
+        topicLog.appendAll(batch, serialize(batch));
+        topicLog.deliver(batch);
+    }
+
+    /**
+     * Checks the aggregate's version and inserts the batch in the same transaction, under the topic's lock.
+     */
+    @Override
+    public void append(Topic topic, Ref ref, long expectedVersion, List<Event> events) {
+        EventLogArguments.checkAppend(ref, expectedVersion, events);
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        TopicLog topicLog = topicLog(topic);
+        topicLog.appendAll(ref, expectedVersion, batch, serialize(batch));
+        if (!batch.isEmpty()) {
+            topicLog.deliver(batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Topic topic, EventHandler handler) {
+        topicLog(topic).subscriptions.add(Event.class, handler);
+    }
+
+    @Override
+    public void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+        topicLog(topic).subscriptions.add(eventType, handler);
+    }
+
+    @Override
+    public int getNumberOfSubscribers(Topic topic) {
+        return topicLog(topic).subscriptions.size();
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT PAYLOAD FROM EVENTS WHERE TOPIC = ? ORDER BY TOPIC_OFFSET")) {
+            statement.setString(1, topic.getName());
+            return deserialize(statement.executeQuery());
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Events from EVENTS table: ", e);
+        }
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic, Ref ref) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT PAYLOAD FROM EVENTS WHERE TOPIC = ? AND REF = ? ORDER BY SEQ")) {
+            statement.setString(1, topic.getName());
+            statement.setString(2, ref.getReference());
+            return deserialize(statement.executeQuery());
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Events from EVENTS table: ", e);
+        }
+    }
+
+    /**
+     * Reads the range by primary key, so a cursor over a long topic never scans the rows before its offset.
+     */
+    @Override
+    public EventBatch read(Topic topic, long offset, int maxEvents) {
+        EventLogArguments.checkRead(offset, maxEvents);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT PAYLOAD FROM EVENTS WHERE TOPIC = ? AND TOPIC_OFFSET >= ? ORDER BY TOPIC_OFFSET LIMIT ?")) {
+            statement.setString(1, topic.getName());
+            statement.setLong(2, offset);
+            statement.setInt(3, maxEvents);
+            List<Event> events = deserialize(statement.executeQuery());
+            return new EventBatch(events, offset + events.size());
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Events from EVENTS table: ", e);
+        }
+    }
+
+    private List<byte[]> serialize(List<Event> batch) {
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        batch.forEach(event -> payloads.add(serializer.serialize(event)));
+        return payloads;
+    }
+
+    private List<Event> deserialize(ResultSet resultSet) throws SQLException {
+        List<Event> events = new ArrayList<>();
+        while (resultSet.next()) {
+            events.add(serializer.deserialize(resultSet.getBytes(1)));
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    private TopicLog topicLog(Topic topic) {
+        TopicLog topicLog = this.topics.get(topic);
+        if (topicLog == null) {
+            topicLog = this.topics.computeIfAbsent(topic, TopicLog::new);
+        }
+        return topicLog;
+    }
+
+    private static String refOf(Event event) {
+        if (event instanceof AggregateEvent) {
+            Ref ref = ((AggregateEvent) event).getRef();
+            if (ref != null) {
+                return ref.getReference();
+            }
+        }
+        return null;
+    }
+
+    private final class TopicLog {
+        private final Topic topic;
+        private final Subscriptions subscriptions = new Subscriptions();
+        private long nextOffset = -1;
+
+        TopicLog(Topic topic) {
+            this.topic = topic;
+        }
+
+        synchronized void appendAll(List<Event> batch, List<byte[]> payloads) {
+            try (Connection connection = pool.getConnection()) {
+                insert(connection, batch, payloads);
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to insert Events into EVENTS table: ", e);
+            }
+        }
+
+        synchronized void appendAll(Ref ref, long expectedVersion, List<Event> batch, List<byte[]> payloads) {
+            try (Connection connection = pool.getConnection()) {
+                long actualVersion = version(connection, ref.getReference());
+                if (actualVersion != expectedVersion) {
+                    throw new VersionConflictException(topic, ref, expectedVersion, actualVersion);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                insert(connection, batch, payloads);
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to insert Events into EVENTS table: ", e);
+            }
+        }
+
+        void deliver(List<Event> batch) {
+            if (batch.size() == 1) {
+                subscriptions.deliver(batch.get(0));
+            } else {
+                subscriptions.deliver(batch);
+            }
+        }
+
+        /*
+         * The offset only advances in memory once the transaction has
+         * committed.
+         */
+        private void insert(Connection connection, List<Event> batch, List<byte[]> payloads) throws SQLException {
+            connection.setAutoCommit(false);
+            try {
+                insertBatch(connection, batch, payloads);
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        private void insertBatch(Connection connection, List<Event> batch, List<byte[]> payloads) throws SQLException {
+            long offset = nextOffset(connection);
+            Map<String, Long> batchVersions = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO EVENTS (TOPIC, TOPIC_OFFSET, REF, SEQ, TYPE, PAYLOAD) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Event event = batch.get(i);
+                    String ref = refOf(event);
+                    statement.setString(1, topic.getName());
+                    statement.setLong(2, offset++);
+                    if (ref == null) {
+                        statement.setNull(3, Types.VARCHAR);
+                        statement.setNull(4, Types.BIGINT);
+                    } else {
+                        Long seq = batchVersions.get(ref);
+                        if (seq == null) {
+                            seq = version(connection, ref);
+                        }
+                        statement.setString(3, ref);
+                        statement.setLong(4, seq);
+                        batchVersions.put(ref, seq + 1);
+                    }
+                    statement.setString(5, event.getClass().getName());
+                    statement.setBytes(6, payloads.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+
+            this.nextOffset = offset;
+        }
+
+        private long nextOffset(Connection connection) throws SQLException {
+            if (nextOffset < 0) {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(TOPIC_OFFSET) + 1, 0) FROM EVENTS WHERE TOPIC = ?")) {
+                    statement.setString(1, topic.getName());
+                    ResultSet resultSet = statement.executeQuery();
+                    resultSet.next();
+                    nextOffset = resultSet.getLong(1);
+                }
+            }
+            return nextOffset;
+        }
+
+        /*
+         * The number of events stored for the aggregate, which is also
+         * the SEQ of its next event. The (TOPIC, REF, SEQ) index answers
+         * this from the ref's own entries, so nothing is cached.
+         */
+        private long version(Connection connection, String ref) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(SEQ) + 1, 0) FROM EVENTS WHERE TOPIC = ? AND REF = ?")) {
+                statement.setString(1, topic.getName());
+                statement.setString(2, ref);
+                ResultSet resultSet = statement.executeQuery();
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binds and reads {@link Ref}s stored in H2 <code>UUID</code> columns.
+ * <p>
+ * H2 stores a UUID in 16 bytes and compares it as two longs, so keys, foreign keys and their indexes take less
+ * than half the space of the 36 character upper case strings they replace, and refs move between the
+ * database and a {@link RefId} without being formatted or parsed.
+ *
+ * @author Matt Stine
+ */
+public final class RefColumns {
+    private RefColumns() {
+    }
+
+    /**
+     * Bind <code>ref</code>, which may be <code>null</code>, to a <code>UUID</code> parameter.
+     *
+     * @throws IllegalArgumentException if <code>ref</code>'s reference is not a UUID
+     */
+    public static void setRef(PreparedStatement statement, int index, Ref ref) throws SQLException {
+        RefId id = ref == null ? null : ref.getId();
+        if (id == null) {
+            statement.setNull(index, Types.OTHER);
+            return;
+        }
+        if (!id.isUuid()) {
+            throw new IllegalArgumentException("Reference \"" + id + "\" cannot be stored in a UUID column");
+        }
+        statement.setObject(index, id.toUuid());
+    }
+
+    /**
+     * @return the id stored in <code>column</code>, or <code>null</code> if the column is NULL
+     */
+    public static RefId getRefId(ResultSet resultSet, int column) throws SQLException {
+        return RefId.of((UUID) resultSet.getObject(column));
+    }
+
+    /**
+     * @return a parenthesized list of <code>size</code> parameters, for a <code>REF IN</code> clause
+     */
+    public static String inClause(int size) {
+        return "(" + String.join(", ", Collections.nCopies(size, "?")) + ")";
+    }
+
+    /**
+     * Bind <code>refs</code>, in iteration order, to the parameters of an {@link #inClause(int)} starting at the
+     * first.
+     */
+    public static void setRefs(PreparedStatement statement, Collection<? extends Ref> refs) throws SQLException {
+        int index = 1;
+        for (Ref ref : refs) {
+            setRef(statement, index++, ref);
+        }
+    }
+
+    /**
+     * @return the values <code>found</code> for <code>refs</code>, in the order the refs were requested, leaving
+     * out refs that were not found
+     */
+    public static <K extends Ref, T> Map<K, T> inRequestedOrder(Collection<K> refs, Map<K, T> found) {
+        Map<K, T> ordered = new LinkedHashMap<>();
+        for (K ref : refs) {
+            T value = found.get(ref);
+            if (value != null) {
+                ordered.put(ref, value);
+            }
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import lombok.Getter;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Versioned DDL for the tables owned by one JDBC adapter.
+ * <p>
+ * Each version is a list of statements that takes the tables from the previous version to this one. The version
+ * a database has reached is recorded per schema <code>name</code> in a SCHEMA_VERSIONS table, so {@link #migrate}
+ * applies only the versions the database has not seen yet, and adapters sharing a database each evolve their own
+ * tables. Version 1 should create its tables with <code>IF NOT EXISTS</code>, so a database bootstrapped before it
+ * recorded versions is adopted rather than rejected.
+ * <p>
+ * H2 commits DDL as it runs it, so a version that fails part way is left partially applied; its number is only
+ * recorded once every one of its statements has succeeded.
+ *
+ * @author Matt Stine
+ */
+public final class SchemaMigrations {
+    @Getter
+    private final String name;
+    private final List<List<String>> versions;
+
+    private SchemaMigrations(String name, List<List<String>> versions) {
+        this.name = name;
+        this.versions = versions;
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public int getLatestVersion() {
+        return versions.size();
+    }
+
+    /**
+     * Bring <code>name</code>'s tables in <code>pool</code>'s database up to the latest version.
+     *
+     * @return the version the database was at before migrating, 0 if it had none
+     */
+    public synchronized int migrate(JdbcConnectionPool pool) {
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement("CREATE TABLE IF NOT EXISTS SCHEMA_VERSIONS (NAME VARCHAR(255) PRIMARY KEY, VERSION INT NOT NULL)")) {
+                statement.execute();
+            }
+
+            int current = currentVersion(connection);
+            for (int version = current + 1; version <= getLatestVersion(); version++) {
+                apply(connection, version);
+            }
+            return current;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to migrate " + name + " schema: ", e);
+        }
+    }
+
+    private int currentVersion(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT VERSION FROM SCHEMA_VERSIONS WHERE NAME = ?")) {
+            statement.setString(1, name);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private void apply(Connection connection, int version) throws SQLException {
+        for (String sql : versions.get(version - 1)) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.execute();
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("MERGE INTO SCHEMA_VERSIONS (NAME, VERSION) KEY (NAME) VALUES (?, ?)")) {
+            statement.setString(1, name);
+            statement.setInt(2, version);
+            statement.execute();
+        }
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final List<List<String>> versions = new ArrayList<>();
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Declare the next version; versions are numbered from 1 and must be declared in order.
+         */
+        public Builder version(int version, String... statements) {
+            if (version != versions.size() + 1) {
+                throw new IllegalArgumentException(name + " schema expected version " + (versions.size() + 1) + " but was given " + version);
+            }
+            versions.add(Collections.unmodifiableList(Arrays.asList(statements)));
+            return this;
+        }
+
+        public SchemaMigrations build() {
+            return new SchemaMigrations(name, Collections.unmodifiableList(new ArrayList<>(versions)));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes aggregate states to the STATE column of one table, keyed by its REF column, as directed by a
+ * {@link StateWritePolicy}.
+ * <p>
+ * States wait in memory, coalesced so only the latest state of each ref is kept, and are written as one JDBC
+ * batch in one transaction. With {@link StateWritePolicy#immediate()} that happens before {@link #put} returns;
+ * with {@link StateWritePolicy#writeBehind} a background thread does it. Until a state is committed it is
+ * returned by {@link #pendingState} and {@link #pendingStates}, so a repository that overlays them on the rows
+ * it reads never returns an older state than it was given. A batch that fails stays buffered, behind any state
+ * given since, and is retried by the next flush.
+ * <p>
+ * The buffer holds at most <code>maxBuffered</code> refs waiting for a flush, plus those of the batch being
+ * written. A {@link #putAll} that would add refs to a full buffer waits until a flush has taken its refs, so
+ * callers that outpace the database, or keep writing while it is down, are held back to its pace.
+ *
+ * @author Matt Stine
+ */
+public final class StateWriteBuffer implements AutoCloseable {
+    private final JdbcConnectionPool pool;
+    private final String table;
+    private final String updateSql;
+    private final StateWritePolicy policy;
+    private final Object flushLock = new Object();
+    private final FlusherThread flusher;
+    private Map<Ref, Integer> pending = new LinkedHashMap<>();
+    private Map<Ref, Integer> flushing = Collections.emptyMap();
+    private boolean closed;
+
+    public StateWriteBuffer(JdbcConnectionPool pool, String table, StateWritePolicy policy) {
+        this.pool = pool;
+        this.table = table;
+        this.updateSql = "UPDATE " + table + " SET STATE = ? WHERE REF = ?";
+        this.policy = policy;
+
+        if (policy.isWriteBehind()) {
+            this.flusher = new FlusherThread(this::run, "state-write-behind-" + table);
+            this.flusher.start();
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public void put(Ref ref, int state) {
+        putAll(Collections.singletonList(ref), state);
+    }
+
+    /**
+     * Blocks while the buffer is full, unless every one of <code>refs</code> is already waiting.
+     *
+     * @throws IllegalArgumentException if a ref's reference is not a UUID, and so could never be written
+     * @throws IllegalStateException    if the buffer is closed, or the caller is interrupted, while it waits
+     */
+    public void putAll(Collection<? extends Ref> refs, int state) {
+        for (Ref ref : refs) {
+            RefId id = ref.getId();
+            if (id == null || !id.isUuid()) {
+                throw new IllegalArgumentException("Reference \"" + id + "\" cannot be stored in " + table);
+            }
+        }
+
+        synchronized (this) {
+            while (!closed && flusher != null
+                    && pending.size() >= policy.getMaxBuffered()
+                    && !pending.keySet().containsAll(refs)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for room in " + table + " state buffer", e);
+                }
+            }
+            if (closed) {
+                throw new IllegalStateException(table + " state buffer is closed");
+            }
+            for (Ref ref : refs) {
+                pending.put(ref, state);
+            }
+            if (flusher != null) {
+                if (pending.size() >= policy.getMaxPending()) {
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * @return the state of <code>ref</code> not yet committed, or <code>null</code> if its row is up to date
+     */
+    public synchronized Integer pendingState(Ref ref) {
+        Integer state = pending.get(ref);
+        return state != null ? state : flushing.get(ref);
+    }
+
+    /**
+     * Take this copy before querying the table: a row read afterwards is never newer than the copy's state for
+     * its ref, so the copy always wins.
+     *
+     * @return every state not yet committed, by ref
+     */
+    public synchronized Map<Ref, Integer> pendingStates() {
+        if (pending.isEmpty() && flushing.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Ref, Integer> states = new HashMap<>(flushing);
+        states.putAll(pending);
+        return states;
+    }
+
+    /**
+     * Correct the refs a query found in <code>state</code> by a {@link #pendingStates()} copy taken before the
+     * query: refs with a different pending state are dropped, and refs of <code>type</code> pending in
+     * <code>state</code> are added after the ones found.
+     */
+    public static <R extends Ref> List<R> refsInState(List<R> found, Class<R> type, int state, Map<Ref, Integer> pendingStates) {
+        if (pendingStates.isEmpty()) {
+            return found;
+        }
+
+        List<R> refs = new ArrayList<>(found.size());
+        for (R ref : found) {
+            Integer pending = pendingStates.get(ref);
+            if (pending == null || pending == state) {
+                refs.add(ref);
+            }
+        }
+        Set<R> seen = new HashSet<>(found);
+        pendingStates.forEach((ref, pending) -> {
+            if (pending == state && type.isInstance(ref) && !seen.contains(ref)) {
+                refs.add(type.cast(ref));
+            }
+        });
+        return refs;
+    }
+
+    /**
+     * Write every buffered state now, on the caller's thread.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Ref, Integer> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                flushing = batch;
+                pending = new LinkedHashMap<>();
+                notifyAll();
+            }
+
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    batch.forEach(pending::putIfAbsent);
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    flushing = Collections.emptyMap();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the background flusher and write whatever is still buffered.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void write(Map<Ref, Integer> batch) {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
+                for (Map.Entry<Ref, Integer> entry : batch.entrySet()) {
+                    statement.setInt(1, entry.getValue());
+                    RefColumns.setRef(statement, 2, entry.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to update STATE in " + table + " table: ", e);
+        }
+    }
+
+    /*
+     * Flushes once maxPending refs are waiting or the interval has
+     * passed. After a failed flush it waits out a whole interval, so a
+     * database that is down is not retried in a tight loop; close() cuts
+     * that wait short.
+     */
+    private void run() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(policy.getFlushIntervalMillis());
+        while (true) {
+            synchronized (this) {
+                long deadline = System.nanoTime() + intervalNanos;
+                long remaining;
+                while (!closed
+                        && pending.size() < policy.getMaxPending()
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                flusher.getUncaughtExceptionHandler().uncaughtException(flusher, e);
+                synchronized (this) {
+                    long deadline = System.nanoTime() + intervalNanos;
+                    long remaining;
+                    while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class FlusherThread extends Thread {
+        FlusherThread(Runnable target, String name) {
+            super(target, name);
+            setDaemon(true);
+        }
+    }
+}
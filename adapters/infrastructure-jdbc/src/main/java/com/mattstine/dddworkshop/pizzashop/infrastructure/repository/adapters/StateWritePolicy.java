@@ -0,0 +1,51 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a {@link StateWriteBuffer} writes the states it is given to the database.
+ *
+ * @author Matt Stine
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class StateWritePolicy {
+    int maxPending;
+    int maxBuffered;
+    long flushIntervalMillis;
+
+    /**
+     * Write every state on the caller's thread before returning, as one UPDATE per call.
+     */
+    public static StateWritePolicy immediate() {
+        return new StateWritePolicy(1, 1, 0);
+    }
+
+    /**
+     * Buffer states in memory and write them from a background thread once <code>maxPending</code> refs are
+     * waiting or <code>interval</code> has passed, whichever comes first. Once <code>maxBuffered</code> refs are
+     * waiting, because writes are slower than the states arrive or are failing, giving the state of another ref
+     * blocks until a flush makes room. At most that much state is at risk if the process dies.
+     */
+    public static StateWritePolicy writeBehind(int maxPending, int maxBuffered, long interval, TimeUnit unit) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be > 0");
+        }
+        if (maxBuffered < maxPending) {
+            throw new IllegalArgumentException("maxBuffered must be >= maxPending");
+        }
+        long flushIntervalMillis = unit.toMillis(interval);
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be at least one millisecond");
+        }
+        return new StateWritePolicy(maxPending, maxBuffered, flushIntervalMillis);
+    }
+
+    public boolean isWriteBehind() {
+        return flushIntervalMillis > 0;
+    }
+}
@@ -0,0 +1,164 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import lombok.Value;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Matt Stine
+ */
+public class EmbeddedJdbcEventLogTests {
+    private JdbcConnectionPool pool;
+    private EmbeddedJdbcEventLog eventLog;
+    private Topic topic;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test", "", "");
+        eventLog = EmbeddedJdbcEventLog.open(pool);
+        topic = new Topic("kitchen_orders");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS");
+        statement.execute();
+        connection.close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void shouldReadBackPublishedEvents() {
+        TestRef first = new TestRef("1");
+        TestRef second = new TestRef("2");
+
+        eventLog.publish(topic, new TestAggregateEvent(first, 0));
+        eventLog.publish(topic, new TestAggregateEvent(second, 0));
+        eventLog.publish(topic, new TestAggregateEvent(first, 1));
+        eventLog.publish(new Topic("pizzas"), new TestAggregateEvent(first, 0));
+
+        assertThat(eventLog.eventsBy(topic)).containsExactly(
+                new TestAggregateEvent(first, 0),
+                new TestAggregateEvent(second, 0),
+                new TestAggregateEvent(first, 1));
+        assertThat(eventLog.eventsBy(topic, first)).containsExactly(
+                new TestAggregateEvent(first, 0),
+                new TestAggregateEvent(first, 1));
+        assertThat(eventLog.eventsBy(topic, new TestRef("unknown"))).isEmpty();
+    }
+
+    @Test
+    public void shouldReadBoundedBatchesFromAnOffset() {
+        TestRef ref = new TestRef("1");
+        for (int i = 0; i < 5; i++) {
+            eventLog.publish(topic, new TestAggregateEvent(ref, i));
+        }
+
+        EventBatch batch = eventLog.read(topic, 3, 10);
+
+        assertThat(batch.getEvents()).containsExactly(new TestAggregateEvent(ref, 3), new TestAggregateEvent(ref, 4));
+        assertThat(batch.getNextOffset()).isEqualTo(5);
+        assertThat(eventLog.read(topic, 5, 10).isEmpty()).isTrue();
+        assertThat(eventLog.read(new Topic("unknown"), 0, 10).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldNotifySubscribersOfBatches() {
+        List<Event> received = new ArrayList<>();
+        eventLog.subscribe(topic, received::add);
+        TestRef ref = new TestRef("1");
+        List<Event> batch = Arrays.asList(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1), new TestEvent());
+
+        eventLog.publishAll(topic, batch);
+
+        assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(1);
+        assertThat(received).isEqualTo(batch);
+        assertThat(eventLog.eventsBy(topic)).isEqualTo(batch);
+    }
+
+    @Test
+    public void shouldStoreRefSequenceAndType() throws SQLException {
+        TestRef ref = new TestRef("1");
+        eventLog.publishAll(topic, Arrays.asList(new TestAggregateEvent(ref, 0), new TestEvent(), new TestAggregateEvent(ref, 1)));
+
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = pool.getConnection()) {
+            ResultSet resultSet = connection.prepareStatement("SELECT TOPIC_OFFSET, REF, SEQ, TYPE FROM EVENTS ORDER BY TOPIC_OFFSET").executeQuery();
+            while (resultSet.next()) {
+                rows.add(resultSet.getLong(1) + " " + resultSet.getString(2) + " " + resultSet.getObject(3) + " " + resultSet.getString(4));
+            }
+        }
+
+        assertThat(rows).containsExactly(
+                "0 1 0 " + TestAggregateEvent.class.getName(),
+                "1 null null " + TestEvent.class.getName(),
+                "2 1 1 " + TestAggregateEvent.class.getName());
+    }
+
+    @Test
+    public void shouldContinueStreamsAfterReopening() {
+        TestRef ref = new TestRef("1");
+        eventLog.publish(topic, new TestAggregateEvent(ref, 0));
+        eventLog.publish(topic, new TestAggregateEvent(ref, 1));
+
+        eventLog = EmbeddedJdbcEventLog.open(pool);
+        eventLog.publish(topic, new TestAggregateEvent(ref, 2));
+
+        assertThat(eventLog.eventsBy(topic, ref)).containsExactly(
+                new TestAggregateEvent(ref, 0),
+                new TestAggregateEvent(ref, 1),
+                new TestAggregateEvent(ref, 2));
+        assertThat(eventLog.read(topic, 2, 10).getEvents()).containsExactly(new TestAggregateEvent(ref, 2));
+        assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRejectStaleVersionedAppendsAfterReopening() {
+        TestRef ref = new TestRef("1");
+        eventLog.append(topic, ref, 0, Arrays.asList(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1)));
+        eventLog = EmbeddedJdbcEventLog.open(pool);
+
+        assertThatThrownBy(() -> eventLog.append(topic, ref, 1, Collections.singletonList(new TestAggregateEvent(ref, 2))))
+                .isInstanceOf(VersionConflictException.class);
+
+        eventLog.append(topic, ref, 2, Collections.singletonList(new TestAggregateEvent(ref, 2)));
+        assertThat(eventLog.eventsBy(topic, ref)).hasSize(3);
+    }
+
+    @Value
+    private static class TestRef implements Ref {
+        String reference;
+    }
+
+    @Value
+    private static class TestAggregateEvent implements AggregateEvent {
+        TestRef ref;
+        int sequence;
+    }
+
+    @Value
+    private static class TestEvent implements Event {
+    }
+}
@@ -0,0 +1,140 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Matt Stine
+ */
+public class SchemaMigrationsTests {
+    private static final String V1 = "CREATE TABLE IF NOT EXISTS WIDGETS (REF VARCHAR(255), NAME VARCHAR(255))";
+    private static final String[] V2 = {
+            "ALTER TABLE WIDGETS ALTER COLUMN REF SET NOT NULL",
+            "ALTER TABLE WIDGETS ADD CONSTRAINT WIDGETS_PK PRIMARY KEY (REF)"};
+
+    private JdbcConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test", "", "");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute("DROP ALL OBJECTS");
+        pool.dispose();
+    }
+
+    @Test
+    public void shouldMigrateEmptyDatabaseToLatestVersion() throws SQLException {
+        SchemaMigrations schema = SchemaMigrations.builder("WIDGETS")
+                .version(1, V1)
+                .version(2, V2)
+                .build();
+
+        assertThat(schema.migrate(pool)).isZero();
+
+        assertThat(recordedVersion("WIDGETS")).isEqualTo(2);
+        execute("INSERT INTO WIDGETS (REF, NAME) VALUES ('1', 'one')");
+        assertThatThrownBy(() -> execute("INSERT INTO WIDGETS (REF, NAME) VALUES ('1', 'again')"))
+                .isInstanceOf(SQLException.class);
+    }
+
+    @Test
+    public void shouldApplyOnlyVersionsNotYetRecorded() throws SQLException {
+        SchemaMigrations.builder("WIDGETS").version(1, V1).build().migrate(pool);
+        execute("INSERT INTO WIDGETS (REF, NAME) VALUES ('1', 'one')");
+
+        SchemaMigrations schema = SchemaMigrations.builder("WIDGETS")
+                .version(1, "CREATE TABLE WIDGETS (REF VARCHAR(255), NAME VARCHAR(255))")
+                .version(2, V2)
+                .build();
+
+        assertThat(schema.migrate(pool)).isEqualTo(1);
+        assertThat(schema.migrate(pool)).isEqualTo(2);
+        assertThat(count("WIDGETS")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAdoptTablesCreatedBeforeVersionsWereRecorded() throws SQLException {
+        execute("CREATE TABLE WIDGETS (REF VARCHAR(255), NAME VARCHAR(255))");
+        execute("INSERT INTO WIDGETS (REF, NAME) VALUES ('1', 'one')");
+
+        SchemaMigrations.builder("WIDGETS")
+                .version(1, V1)
+                .version(2, V2)
+                .build()
+                .migrate(pool);
+
+        assertThat(recordedVersion("WIDGETS")).isEqualTo(2);
+        assertThat(count("WIDGETS")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldVersionSchemasSharingADatabaseIndependently() throws SQLException {
+        SchemaMigrations.builder("WIDGETS").version(1, V1).version(2, V2).build().migrate(pool);
+        SchemaMigrations.builder("GADGETS")
+                .version(1, "CREATE TABLE IF NOT EXISTS GADGETS (REF VARCHAR(255))")
+                .build()
+                .migrate(pool);
+
+        assertThat(recordedVersion("WIDGETS")).isEqualTo(2);
+        assertThat(recordedVersion("GADGETS")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotRecordAFailedVersion() throws SQLException {
+        SchemaMigrations schema = SchemaMigrations.builder("WIDGETS")
+                .version(1, V1)
+                .version(2, "ALTER TABLE NO_SUCH_TABLE ADD COLUMN X INT")
+                .build();
+
+        assertThatThrownBy(() -> schema.migrate(pool))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("WIDGETS");
+        assertThat(recordedVersion("WIDGETS")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRequireVersionsInOrder() {
+        assertThatThrownBy(() -> SchemaMigrations.builder("WIDGETS").version(2, V2))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SchemaMigrations.builder("WIDGETS").version(1, V1).version(1, V1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.execute();
+        }
+    }
+
+    private int count(String table) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + table)) {
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private int recordedVersion(String name) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT VERSION FROM SCHEMA_VERSIONS WHERE NAME = ?")) {
+            statement.setString(1, name);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+}
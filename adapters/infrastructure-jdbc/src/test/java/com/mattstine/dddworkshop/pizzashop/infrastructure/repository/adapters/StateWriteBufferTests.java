@@ -0,0 +1,245 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Matt Stine
+ */
+public class StateWriteBufferTests {
+    private JdbcConnectionPool pool;
+    private StateWriteBuffer buffer;
+    private WidgetRef first;
+    private WidgetRef second;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test", "", "");
+        execute("CREATE TABLE WIDGETS (REF UUID PRIMARY KEY, STATE INT CHECK (STATE < 5))");
+        first = insertWidget();
+        second = insertWidget();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (buffer != null) {
+            buffer.close();
+        }
+        execute("DROP ALL OBJECTS");
+        pool.dispose();
+    }
+
+    @Test
+    public void shouldWriteImmediatelyByDefault() throws SQLException {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.immediate());
+
+        buffer.put(first, 1);
+
+        assertThat(storedState(first)).isEqualTo(1);
+        assertThat(buffer.pendingState(first)).isNull();
+    }
+
+    @Test
+    public void shouldCoalesceBufferedStatesUntilFlushed() throws SQLException {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(100, 100, 1, TimeUnit.HOURS));
+
+        buffer.put(first, 1);
+        buffer.put(first, 2);
+        buffer.put(second, 3);
+
+        assertThat(storedState(first)).isZero();
+        assertThat(buffer.pendingState(first)).isEqualTo(2);
+        assertThat(buffer.pendingStates()).containsOnly(entry(first, 2), entry(second, 3));
+
+        buffer.flush();
+
+        assertThat(storedState(first)).isEqualTo(2);
+        assertThat(storedState(second)).isEqualTo(3);
+        assertThat(buffer.pendingStates()).isEmpty();
+    }
+
+    @Test
+    public void shouldFlushInBackgroundOnceMaxPendingRefsAreWaiting() throws Exception {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(2, 2, 1, TimeUnit.HOURS));
+
+        buffer.put(first, 1);
+        buffer.put(first, 2);
+        assertThat(buffer.pendingState(first)).isEqualTo(2);
+        buffer.put(second, 3);
+
+        awaitStoredState(second, 3);
+        assertThat(storedState(first)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldFlushInBackgroundOnceIntervalHasPassed() throws Exception {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(100, 100, 10, TimeUnit.MILLISECONDS));
+
+        buffer.put(first, 4);
+
+        awaitStoredState(first, 4);
+    }
+
+    @Test
+    public void shouldHoldBackNewRefsWhileMaxBufferedRefsAreWaiting() throws Exception {
+        CountDownLatch failedFlush = new CountDownLatch(1);
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> failedFlush.countDown());
+        try {
+            buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(1, 1, 1, TimeUnit.HOURS));
+            buffer.put(first, 7);
+            assertThat(failedFlush.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+
+        Thread putter = new Thread(() -> buffer.put(second, 2));
+        putter.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (putter.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(putter.getState()).isEqualTo(Thread.State.WAITING);
+        assertThat(buffer.pendingState(second)).isNull();
+
+        buffer.put(first, 3);
+        buffer.flush();
+        putter.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertThat(putter.isAlive()).isFalse();
+        assertThat(storedState(first)).isEqualTo(3);
+        assertThat(buffer.pendingState(second)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepStatesOfAFailedFlushBehindNewerStates() throws SQLException {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(100, 100, 1, TimeUnit.HOURS));
+        buffer.put(first, 1);
+        buffer.put(second, 7);
+
+        assertThatThrownBy(buffer::flush).isInstanceOf(RuntimeException.class);
+        assertThat(storedState(first)).isZero();
+        assertThat(buffer.pendingState(first)).isEqualTo(1);
+
+        buffer.put(second, 2);
+        buffer.flush();
+
+        assertThat(storedState(first)).isEqualTo(1);
+        assertThat(storedState(second)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldWriteBufferedStatesOnClose() throws SQLException {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(100, 100, 1, TimeUnit.HOURS));
+        buffer.put(first, 3);
+
+        buffer.close();
+
+        assertThat(storedState(first)).isEqualTo(3);
+        assertThatIllegalStateException().isThrownBy(() -> buffer.put(first, 4));
+    }
+
+    @Test
+    public void shouldRejectRefsThatAreNotUuids() {
+        buffer = new StateWriteBuffer(pool, "WIDGETS", StateWritePolicy.writeBehind(100, 100, 1, TimeUnit.HOURS));
+
+        assertThatIllegalArgumentException().isThrownBy(() -> buffer.put(new WidgetRef(RefId.of("")), 1));
+        assertThat(buffer.pendingStates()).isEmpty();
+    }
+
+    @Test
+    public void shouldCorrectRefsFoundInStateByPendingStates() {
+        WidgetRef third = new WidgetRef(RefId.generate());
+        Map<Ref, Integer> pendingStates = new HashMap<>();
+        pendingStates.put(first, 1);
+        pendingStates.put(third, 2);
+
+        List<WidgetRef> refs = StateWriteBuffer.refsInState(Arrays.asList(first, second), WidgetRef.class, 2, pendingStates);
+
+        assertThat(refs).containsExactly(second, third);
+    }
+
+    private static Map.Entry<Ref, Integer> entry(Ref ref, int state) {
+        return new AbstractMap.SimpleEntry<>(ref, state);
+    }
+
+    private WidgetRef insertWidget() throws SQLException {
+        WidgetRef ref = new WidgetRef(RefId.generate());
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO WIDGETS (REF, STATE) VALUES (?, 0)")) {
+            RefColumns.setRef(statement, 1, ref);
+            statement.execute();
+        }
+        return ref;
+    }
+
+    private void awaitStoredState(Ref ref, int state) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (storedState(ref) != state && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(storedState(ref)).isEqualTo(state);
+    }
+
+    private int storedState(Ref ref) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT STATE FROM WIDGETS WHERE REF = ?")) {
+            RefColumns.setRef(statement, 1, ref);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.execute();
+        }
+    }
+
+    private static final class WidgetRef implements Ref {
+        private final RefId id;
+
+        WidgetRef(RefId id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getReference() {
+            return id.toString();
+        }
+
+        @Override
+        public RefId getId() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WidgetRef && id.equals(((WidgetRef) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+}
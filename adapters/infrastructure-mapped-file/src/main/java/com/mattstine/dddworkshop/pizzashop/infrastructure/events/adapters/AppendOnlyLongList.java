@@ -0,0 +1,65 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of longs with a single writer and any number of lock-free readers.
+ * <p>
+ * Same publication scheme as the in-memory log's <code>AppendOnlyEventList</code>: an element is stored before
+ * the size that covers it, so {@link #copy()} always sees fully written elements.
+ *
+ * @author Matt Stine
+ */
+final class AppendOnlyLongList {
+    private volatile long[] elements = new long[16];
+    private volatile int size;
+
+    /*
+     * Callers must serialize appends.
+     */
+    void append(long value) {
+        long[] current = this.elements;
+        int index = this.size;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, index << 1);
+            this.elements = current;
+        }
+        current[index] = value;
+        this.size = index + 1;
+    }
+
+    /*
+     * Callers must serialize appends; the size is published once for all values.
+     */
+    void appendAll(long[] values) {
+        long[] current = this.elements;
+        int index = this.size;
+        int required = index + values.length;
+        if (required > current.length) {
+            current = Arrays.copyOf(current, Math.max(index << 1, required));
+            this.elements = current;
+        }
+        System.arraycopy(values, 0, current, index, values.length);
+        this.size = required;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the elements in <code>[from, to)</code>, clamped to those visible at the time of the call
+     */
+    long[] copy(int from, int to) {
+        int size = this.size;
+        return Arrays.copyOfRange(this.elements, Math.min(from, size), Math.min(to, size));
+    }
+
+    /**
+     * @return the elements visible at the time of the call
+     */
+    long[] copy() {
+        int size = this.size;
+        return Arrays.copyOf(this.elements, size);
+    }
+}
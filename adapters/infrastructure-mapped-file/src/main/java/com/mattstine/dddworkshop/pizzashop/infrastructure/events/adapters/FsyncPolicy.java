@@ -0,0 +1,48 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a {@link MappedFileEventLog} forces appended events from the page cache to disk.
+ *
+ * @author Matt Stine
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class FsyncPolicy {
+    Mode mode;
+    long intervalMillis;
+
+    /**
+     * Force after every append; nothing acknowledged is lost on power failure.
+     */
+    public static FsyncPolicy everyEvent() {
+        return new FsyncPolicy(Mode.EVERY_EVENT, 0);
+    }
+
+    /**
+     * Force dirty segments from a background thread; at most one interval of events is at risk.
+     */
+    public static FsyncPolicy every(long interval, TimeUnit unit) {
+        long intervalMillis = unit.toMillis(interval);
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be at least one millisecond");
+        }
+        return new FsyncPolicy(Mode.INTERVAL, intervalMillis);
+    }
+
+    /**
+     * Never force explicitly before close; the operating system writes pages back when it sees fit.
+     */
+    public static FsyncPolicy osManaged() {
+        return new FsyncPolicy(Mode.OS_MANAGED, 0);
+    }
+
+    public enum Mode {
+        EVERY_EVENT, INTERVAL, OS_MANAGED
+    }
+}
@@ -0,0 +1,407 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Durable {@link EventLog} that appends each topic's events to memory-mapped segment files.
+ * <p>
+ * Every topic gets its own directory of fixed-size segments under the log's root directory. Opening a log
+ * replays the existing segments once to rebuild an index of record positions, per topic and per aggregate
+ * {@link Ref}; the events themselves stay in the mapped files and are deserialized on each read, so the heap
+ * only ever holds the index.
+ * <p>
+ * Subscribers are invoked on the publisher's thread once the event has been appended. Replay does not
+ * redeliver events to subscribers.
+ *
+ * @author Matt Stine
+ */
+public final class MappedFileEventLog implements EventLog, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final String ENCODING = "UTF-8";
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final int segmentSize;
+    private final EventSerializer serializer;
+    private final ConcurrentMap<Topic, TopicLog> topics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private MappedFileEventLog(Path directory, FsyncPolicy fsyncPolicy, int segmentSize, EventSerializer serializer) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+        this.serializer = serializer;
+        replay();
+        if (fsyncPolicy.getMode() == FsyncPolicy.Mode.INTERVAL) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-log-fsync-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::force,
+                    fsyncPolicy.getIntervalMillis(), fsyncPolicy.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public static MappedFileEventLog open(Path directory, FsyncPolicy fsyncPolicy) {
+        return open(directory, fsyncPolicy, DEFAULT_SEGMENT_SIZE, JavaEventSerializer.instance());
+    }
+
+    /**
+     * Open the log stored in <code>directory</code>, creating it if necessary, and replay its segments.
+     *
+     * @param segmentSize size in bytes of newly created segment files; bounds the size of a single event
+     */
+    public static MappedFileEventLog open(Path directory, FsyncPolicy fsyncPolicy, int segmentSize, EventSerializer serializer) {
+        if (Segment.capacityFor(segmentSize) < 1) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new MappedFileEventLog(directory, fsyncPolicy, segmentSize, serializer);
+    }
+
+    @Override
+    public void publish(Topic topic, Event event) {
+        TopicLog topicLog = topicLog(topic);
+        topicLog.append(event, serializer.serialize(event));
+        topicLog.subscriptions.deliver(event);
+    }
+
+    /**
+     * Appends the batch under one acquisition of the topic's lock and, with {@link FsyncPolicy#everyEvent()},
+     * forces once for the whole batch.
+     */
+    @Override
+    public void publishAll(Topic topic, List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        batch.forEach(event -> payloads.add(serializer.serialize(event)));
+        TopicLog topicLog = topicLog(topic);
+        topicLog.appendAll(batch, payloads);
+        topicLog.subscriptions.deliver(batch);
+    }
+
+    /**
+     * Checks the aggregate's version and writes the batch under one acquisition of the topic's lock.
+     */
+    @Override
+    public void append(Topic topic, Ref ref, long expectedVersion, List<Event> events) {
+        EventLogArguments.checkAppend(ref, expectedVersion, events);
+        List<Event> batch = Collections.unmodifiableList(new ArrayList<>(events));
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        batch.forEach(event -> payloads.add(serializer.serialize(event)));
+        TopicLog topicLog = topicLog(topic);
+        topicLog.appendAll(topic, ref, expectedVersion, batch, payloads);
+        if (!batch.isEmpty()) {
+            topicLog.subscriptions.deliver(batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Topic topic, EventHandler handler) {
+        topicLog(topic).subscriptions.add(Event.class, handler);
+    }
+
+    @Override
+    public void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+        topicLog(topic).subscriptions.add(eventType, handler);
+    }
+
+    @Override
+    public int getNumberOfSubscribers(Topic topic) {
+        return topicLog(topic).subscriptions.size();
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic) {
+        TopicLog topicLog = topicLog(topic);
+        return new EventView(topicLog, topicLog.positions.copy());
+    }
+
+    @Override
+    public List<Event> eventsBy(Topic topic, Ref ref) {
+        TopicLog topicLog = this.topics.get(topic);
+        if (topicLog == null) {
+            return Collections.emptyList();
+        }
+        AppendOnlyLongList positions = topicLog.positionsByRef.get(ref);
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        return new EventView(topicLog, positions.copy());
+    }
+
+    /**
+     * Copies only the positions of the requested range, so reading a long topic in batches never touches
+     * the rest of its index.
+     */
+    @Override
+    public EventBatch read(Topic topic, long offset, int maxEvents) {
+        EventLogArguments.checkRead(offset, maxEvents);
+        TopicLog topicLog = this.topics.get(topic);
+        if (topicLog == null || offset >= topicLog.positions.size()) {
+            return new EventBatch(Collections.emptyList(), offset);
+        }
+        long[] positions = topicLog.positions.copy((int) offset, (int) Math.min(Integer.MAX_VALUE, offset + maxEvents));
+        return new EventBatch(new EventView(topicLog, positions), offset + positions.length);
+    }
+
+    /**
+     * Force every segment with unsynchronized appends to disk, regardless of the {@link FsyncPolicy}.
+     */
+    public void force() {
+        this.topics.values().forEach(TopicLog::force);
+    }
+
+    /**
+     * @return whether every event appended so far has been forced to disk
+     */
+    boolean isForced() {
+        return this.topics.values().stream().noneMatch(TopicLog::isDirty);
+    }
+
+    /**
+     * Stop the background flusher, force all segments and release their files.
+     */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        this.topics.values().forEach(TopicLog::close);
+    }
+
+    private TopicLog topicLog(Topic topic) {
+        TopicLog topicLog = this.topics.get(topic);
+        if (topicLog == null) {
+            topicLog = this.topics.computeIfAbsent(topic,
+                    t -> new TopicLog(directory.resolve(encode(t.getName()))));
+        }
+        return topicLog;
+    }
+
+    private void replay() {
+        try (DirectoryStream<Path> topicDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path topicDirectory : topicDirectories) {
+                Topic topic = Topic.of(decode(topicDirectory.getFileName().toString()));
+                TopicLog topicLog = new TopicLog(topicDirectory);
+                topicLog.replay();
+                this.topics.put(topic, topicLog);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String encode(String topicName) {
+        try {
+            return URLEncoder.encode(topicName, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String directoryName) {
+        try {
+            return URLDecoder.decode(directoryName, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * A record's position packs the segment's index into the high and
+     * the offset within the segment into the low 32 bits.
+     */
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private final class TopicLog {
+        private final Path directory;
+        private final Subscriptions subscriptions = new Subscriptions();
+        private final List<Segment> segments = new CopyOnWriteArrayList<>();
+        private final AppendOnlyLongList positions = new AppendOnlyLongList();
+        private final ConcurrentMap<Ref, AppendOnlyLongList> positionsByRef = new ConcurrentHashMap<>();
+        private long records;
+
+        TopicLog(Path directory) {
+            this.directory = directory;
+        }
+
+        void replay() throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + Segment.SUFFIX)) {
+                stream.forEach(files::add);
+            }
+            Collections.sort(files);
+            for (Path file : files) {
+                Segment segment = Segment.open(file);
+                int segmentIndex = segments.size();
+                segments.add(segment);
+                segment.recover(offset -> {
+                    records++;
+                    index(serializer.deserialize(segment.read(offset)), position(segmentIndex, offset));
+                });
+            }
+        }
+
+        synchronized void append(Event event, byte[] payload) {
+            checkFits(payload);
+            long position = write(payload);
+            if (fsyncPolicy.getMode() == FsyncPolicy.Mode.EVERY_EVENT) {
+                force();
+            }
+            index(event, position);
+        }
+
+        /*
+         * Positions are only indexed once every record has been written,
+         * so readers see either none or all of the batch.
+         */
+        synchronized void appendAll(List<Event> batch, List<byte[]> payloads) {
+            payloads.forEach(this::checkFits);
+            long[] batchPositions = new long[batch.size()];
+            Map<Ref, List<Long>> batchPositionsByRef = new LinkedHashMap<>();
+            for (int i = 0; i < batchPositions.length; i++) {
+                batchPositions[i] = write(payloads.get(i));
+                Event event = batch.get(i);
+                if (event instanceof AggregateEvent && ((AggregateEvent) event).getRef() != null) {
+                    batchPositionsByRef.computeIfAbsent(((AggregateEvent) event).getRef(), k -> new ArrayList<>())
+                            .add(batchPositions[i]);
+                }
+            }
+            if (fsyncPolicy.getMode() == FsyncPolicy.Mode.EVERY_EVENT) {
+                force();
+            }
+            positions.appendAll(batchPositions);
+            batchPositionsByRef.forEach((ref, refPositions) -> positionsByRef
+                    .computeIfAbsent(ref, k -> new AppendOnlyLongList())
+                    .appendAll(refPositions.stream().mapToLong(Long::longValue).toArray()));
+        }
+
+        synchronized void appendAll(Topic topic, Ref ref, long expectedVersion, List<Event> batch, List<byte[]> payloads) {
+            AppendOnlyLongList refPositions = positionsByRef.get(ref);
+            long actualVersion = refPositions == null ? 0 : refPositions.size();
+            if (actualVersion != expectedVersion) {
+                throw new VersionConflictException(topic, ref, expectedVersion, actualVersion);
+            }
+            if (!batch.isEmpty()) {
+                appendAll(batch, payloads);
+            }
+        }
+
+        private void checkFits(byte[] payload) {
+            if (payload.length > Segment.capacityFor(segmentSize)) {
+                throw new IllegalArgumentException("Event of " + payload.length
+                        + " bytes exceeds segment size of " + segmentSize + " bytes");
+            }
+        }
+
+        private long write(byte[] payload) {
+            int segmentIndex = segments.size() - 1;
+            int offset = segmentIndex < 0 ? -1 : segments.get(segmentIndex).append(payload);
+            if (offset < 0) {
+                segmentIndex = segments.size();
+                segments.add(newSegment());
+                offset = segments.get(segmentIndex).append(payload);
+            }
+            records++;
+            return position(segmentIndex, offset);
+        }
+
+        private Segment newSegment() {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Segment.create(directory, records, segmentSize);
+        }
+
+        private void index(Event event, long position) {
+            positions.append(position);
+            if (event instanceof AggregateEvent) {
+                Ref ref = ((AggregateEvent) event).getRef();
+                if (ref != null) {
+                    positionsByRef.computeIfAbsent(ref, k -> new AppendOnlyLongList()).append(position);
+                }
+            }
+        }
+
+        Event read(long position) {
+            Segment segment = segments.get((int) (position >>> 32));
+            return serializer.deserialize(segment.read((int) position));
+        }
+
+        void force() {
+            segments.forEach(Segment::force);
+        }
+
+        boolean isDirty() {
+            return segments.stream().anyMatch(Segment::isDirty);
+        }
+
+        void close() {
+            for (Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Immutable view over the positions visible when it was created;
+     * each access reads the event back from its segment.
+     */
+    private static final class EventView extends AbstractList<Event> implements RandomAccess {
+        private final TopicLog topicLog;
+        private final long[] positions;
+
+        EventView(TopicLog topicLog, long[] positions) {
+            this.topicLog = topicLog;
+            this.positions = positions;
+        }
+
+        @Override
+        public Event get(int index) {
+            return topicLog.read(positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return positions.length;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, memory-mapped file holding consecutive records of one topic.
+ * <p>
+ * Each record is a four byte length and a four byte CRC-32 of the payload, followed by the serialized event. The
+ * length is written last, so a record cut short by a crash of the JVM still reads as length zero, which marks the
+ * end of the segment. The operating system may write the mapped pages out in any order, though, so after a power
+ * loss the length can reach the disk without its payload; recovery therefore also stops at the first record whose
+ * payload does not match its checksum.
+ *
+ * @author Matt Stine
+ */
+final class Segment implements Closeable {
+    static final String SUFFIX = ".segment";
+    private static final int CHECKSUM_OFFSET = Integer.BYTES;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer writeView;
+    private int writePosition;
+    private volatile boolean dirty;
+
+    private Segment(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.writeView = buffer.duplicate();
+    }
+
+    static Segment create(Path directory, long baseOffset, int size) {
+        return map(directory.resolve(fileName(baseOffset)), size);
+    }
+
+    static Segment open(Path file) {
+        try {
+            return map(file, (int) Files.size(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SUFFIX);
+    }
+
+    static int capacityFor(int segmentSize) {
+        return segmentSize - HEADER_SIZE;
+    }
+
+    private static Segment map(Path file, int size) {
+        try {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Walk the records written so far and position the segment for appending after the last one.
+     *
+     * @param recordPositions receives the position of each complete record, in order
+     */
+    void recover(IntConsumer recordPositions) {
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()
+                    || buffer.getInt(position + CHECKSUM_OFFSET) != checksum(position + HEADER_SIZE, length)) {
+                break;
+            }
+            recordPositions.accept(position);
+            position += HEADER_SIZE + length;
+        }
+        this.writePosition = position;
+    }
+
+    /*
+     * Callers must serialize appends.
+     *
+     * @return the record's position, or -1 if it does not fit
+     */
+    int append(byte[] payload) {
+        int position = this.writePosition;
+        if (position + HEADER_SIZE + payload.length > buffer.capacity()) {
+            return -1;
+        }
+        writeView.position(position + HEADER_SIZE);
+        writeView.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(position + CHECKSUM_OFFSET, (int) crc.getValue());
+        buffer.putInt(position, payload.length);
+        this.writePosition = position + HEADER_SIZE + payload.length;
+        this.dirty = true;
+        return position;
+    }
+
+    byte[] read(int position) {
+        ByteBuffer view = buffer.duplicate();
+        byte[] payload = new byte[view.getInt(position)];
+        view.position(position + HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+    private int checksum(int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position + length);
+        CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void force() {
+        if (dirty) {
+            dirty = false;
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,251 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventBatch;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import lombok.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Matt Stine
+ */
+public class MappedFileEventLogTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private MappedFileEventLog eventLog;
+    private Topic topic;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("events").toPath();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.everyEvent());
+        topic = new Topic("kitchen_orders");
+    }
+
+    @After
+    public void tearDown() {
+        eventLog.close();
+    }
+
+    @Test
+    public void shouldReadBackPublishedEvents() {
+        TestRef ref = new TestRef("1");
+        TestAggregateEvent first = new TestAggregateEvent(ref, 0);
+        TestAggregateEvent second = new TestAggregateEvent(ref, 1);
+
+        eventLog.publish(topic, first);
+        eventLog.publish(topic, second);
+
+        assertThat(eventLog.eventsBy(topic)).containsExactly(first, second);
+        assertThat(eventLog.eventsBy(topic, ref)).containsExactly(first, second);
+    }
+
+    @Test
+    public void shouldReadBoundedBatchesFromAnOffset() {
+        TestRef ref = new TestRef("1");
+        for (int i = 0; i < 5; i++) {
+            eventLog.publish(topic, new TestAggregateEvent(ref, i));
+        }
+
+        EventBatch batch = eventLog.read(topic, 3, 10);
+
+        assertThat(batch.getEvents()).containsExactly(new TestAggregateEvent(ref, 3), new TestAggregateEvent(ref, 4));
+        assertThat(batch.getNextOffset()).isEqualTo(5);
+        assertThat(eventLog.read(topic, 5, 10).isEmpty()).isTrue();
+        assertThat(eventLog.read(new Topic("unknown"), 0, 10).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldNotifySubscribers() {
+        List<Event> received = new ArrayList<>();
+        eventLog.subscribe(topic, received::add);
+
+        TestAggregateEvent event = new TestAggregateEvent(new TestRef("1"), 0);
+        eventLog.publish(topic, event);
+
+        assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(1);
+        assertThat(received).containsExactly(event);
+    }
+
+    @Test
+    public void shouldReplayEventsAfterReopening() {
+        TestRef first = new TestRef("1");
+        TestRef second = new TestRef("2");
+        Topic otherTopic = new Topic("pizzas/with spaces");
+        eventLog.publish(topic, new TestAggregateEvent(first, 0));
+        eventLog.publish(topic, new TestAggregateEvent(second, 0));
+        eventLog.publish(topic, new TestAggregateEvent(first, 1));
+        eventLog.publish(otherTopic, new TestAggregateEvent(second, 0));
+        eventLog.close();
+
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.everyEvent());
+        eventLog.publish(topic, new TestAggregateEvent(first, 2));
+
+        assertThat(eventLog.eventsBy(topic)).containsExactly(
+                new TestAggregateEvent(first, 0),
+                new TestAggregateEvent(second, 0),
+                new TestAggregateEvent(first, 1),
+                new TestAggregateEvent(first, 2));
+        assertThat(eventLog.eventsBy(topic, first)).containsExactly(
+                new TestAggregateEvent(first, 0),
+                new TestAggregateEvent(first, 1),
+                new TestAggregateEvent(first, 2));
+        assertThat(eventLog.eventsBy(otherTopic, second)).containsExactly(new TestAggregateEvent(second, 0));
+        assertThat(eventLog.getNumberOfSubscribers(topic)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReplayPublishedBatchesAfterReopening() {
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.everyEvent(), 1024, JavaEventSerializer.instance());
+        TestRef ref = new TestRef("1");
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new TestAggregateEvent(ref, i));
+        }
+        List<Event> received = new ArrayList<>();
+        eventLog.subscribe(topic, received::add);
+
+        eventLog.publishAll(topic, batch);
+        eventLog.publishAll(topic, Arrays.asList(new TestAggregateEvent(ref, 20), new TestAggregateEvent(ref, 21)));
+        eventLog.close();
+
+        assertThat(received).hasSize(22);
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.osManaged(), 1024, JavaEventSerializer.instance());
+        List<Event> events = eventLog.eventsBy(topic, ref);
+        assertThat(events).hasSize(22);
+        assertThat(events.subList(0, 20)).isEqualTo(batch);
+    }
+
+    @Test
+    public void shouldRejectStaleVersionedAppendsAfterReopening() {
+        TestRef ref = new TestRef("1");
+        eventLog.append(topic, ref, 0, Arrays.asList(new TestAggregateEvent(ref, 0), new TestAggregateEvent(ref, 1)));
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.everyEvent());
+
+        assertThatThrownBy(() -> eventLog.append(topic, ref, 1, Collections.singletonList(new TestAggregateEvent(ref, 2))))
+                .isInstanceOf(VersionConflictException.class);
+
+        eventLog.append(topic, ref, 2, Collections.singletonList(new TestAggregateEvent(ref, 2)));
+        assertThat(eventLog.eventsBy(topic, ref)).hasSize(3);
+    }
+
+    @Test
+    public void shouldStopReplayingAtARecordThatFailsItsChecksum() throws IOException {
+        TestRef ref = new TestRef("1");
+        eventLog.publish(topic, new TestAggregateEvent(ref, 0));
+        eventLog.publish(topic, new TestAggregateEvent(ref, 1));
+        eventLog.close();
+
+        File[] segments = directory.resolve(topic.getName()).toFile().listFiles((dir, name) -> name.endsWith(Segment.SUFFIX));
+        try (RandomAccessFile segment = new RandomAccessFile(segments[0], "rw")) {
+            // each record starts with a four byte length and a four byte checksum
+            long secondPayload = 8 + segment.readInt() + 8;
+            segment.seek(secondPayload);
+            int b = segment.read();
+            segment.seek(secondPayload);
+            segment.write(b ^ 0xFF);
+        }
+
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.everyEvent());
+        eventLog.publish(topic, new TestAggregateEvent(ref, 2));
+
+        assertThat(eventLog.eventsBy(topic)).containsExactly(
+                new TestAggregateEvent(ref, 0),
+                new TestAggregateEvent(ref, 2));
+    }
+
+    @Test
+    public void shouldRollOverToNewSegmentsWhenFull() {
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.osManaged(), 1024, JavaEventSerializer.instance());
+        TestRef ref = new TestRef("1");
+        for (int i = 0; i < 100; i++) {
+            eventLog.publish(topic, new TestAggregateEvent(ref, i));
+        }
+        eventLog.close();
+
+        File[] segments = directory.resolve(topic.getName()).toFile().listFiles();
+        assertThat(segments.length).isGreaterThan(1);
+
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.osManaged(), 1024, JavaEventSerializer.instance());
+        List<Event> events = eventLog.eventsBy(topic, ref);
+        assertThat(events).hasSize(100);
+        for (int i = 0; i < events.size(); i++) {
+            assertThat(((TestAggregateEvent) events.get(i)).getSequence()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void shouldFlushOnInterval() throws InterruptedException {
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.every(200, TimeUnit.MILLISECONDS));
+        TestAggregateEvent event = new TestAggregateEvent(new TestRef("1"), 0);
+
+        eventLog.publish(topic, event);
+        assertThat(eventLog.isForced()).isFalse();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!eventLog.isForced() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(eventLog.isForced()).isTrue();
+    }
+
+    @Test
+    public void shouldLeaveFlushingToTheOperatingSystem() throws InterruptedException {
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.osManaged());
+
+        eventLog.publish(topic, new TestAggregateEvent(new TestRef("1"), 0));
+        TimeUnit.MILLISECONDS.sleep(50);
+
+        assertThat(eventLog.isForced()).isFalse();
+        eventLog.close();
+        assertThat(eventLog.isForced()).isTrue();
+    }
+
+    @Test
+    public void shouldRejectEventsLargerThanASegment() {
+        eventLog.close();
+        eventLog = MappedFileEventLog.open(directory, FsyncPolicy.osManaged(), 64, JavaEventSerializer.instance());
+
+        assertThatThrownBy(() -> eventLog.publish(topic, new TestAggregateEvent(new TestRef("1"), 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(eventLog.eventsBy(topic)).isEmpty();
+    }
+
+    @Value
+    private static class TestRef implements Ref {
+        String reference;
+    }
+
+    @Value
+    private static class TestAggregateEvent implements AggregateEvent {
+        TestRef ref;
+        int sequence;
+    }
+}
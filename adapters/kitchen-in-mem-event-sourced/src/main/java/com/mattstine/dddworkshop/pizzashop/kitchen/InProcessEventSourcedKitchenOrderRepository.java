@@ -3,40 +3,58 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.InProcessEventSourcedRepository;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateIndex;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.UniqueIndex;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.stream.Stream;
 
 final class InProcessEventSourcedKitchenOrderRepository extends InProcessEventSourcedRepository<KitchenOrderRef, KitchenOrder, KitchenOrder.OrderState, KitchenOrderEvent, KitchenOrderAddedEvent> implements KitchenOrderRepository {
+    static final int DEFAULT_CACHE_SIZE = 1024;
 
-    private final Map<OnlineOrderRef, KitchenOrderRef> onlineOrderRefToKitchenOrderRef;
+    private final UniqueIndex<OnlineOrderRef, KitchenOrderRef> onlineOrderRefToKitchenOrderRef;
+    private final StateIndex<KitchenOrder.State, KitchenOrderRef> kitchenOrdersByState;
 
     InProcessEventSourcedKitchenOrderRepository(EventLog eventLog, Topic topic) {
+        this(eventLog, topic, DEFAULT_CACHE_SIZE);
+    }
+
+    InProcessEventSourcedKitchenOrderRepository(EventLog eventLog, Topic topic, int cacheSize) {
         super(eventLog,
                 KitchenOrderRef.class,
                 KitchenOrder.class,
                 KitchenOrder.OrderState.class,
                 KitchenOrderAddedEvent.class,
-                topic);
-
-        onlineOrderRefToKitchenOrderRef = new HashMap<>();
-
-        eventLog.subscribe(topic, (e) -> {
-            if (e instanceof KitchenOrderAddedEvent) {
-                onlineOrderRefToKitchenOrderRef.put(((KitchenOrderAddedEvent) e)
-                                .getState()
-                                .getOnlineOrderRef(),
-                        ((KitchenOrderAddedEvent) e).getRef());
-            }
-        });
+                topic,
+                0,
+                cacheSize);
+
+        onlineOrderRefToKitchenOrderRef = uniqueIndex(KitchenOrderAddedEvent.class,
+                koae -> koae.getState().getOnlineOrderRef());
+        kitchenOrdersByState = stateIndex(InProcessEventSourcedKitchenOrderRepository::stateAfter);
     }
 
     @Override
     public KitchenOrder findByOnlineOrderRef(OnlineOrderRef onlineOrderRef) {
-        KitchenOrderRef ref = onlineOrderRefToKitchenOrderRef.get(onlineOrderRef);
-        if (ref != null) {
-            return this.findByRef(ref);
+        return findBy(onlineOrderRefToKitchenOrderRef, onlineOrderRef);
+    }
+
+    @Override
+    public Stream<KitchenOrder> findByState(KitchenOrder.State state) {
+        return findAllBy(kitchenOrdersByState, state);
+    }
+
+    private static KitchenOrder.State stateAfter(KitchenOrderEvent event) {
+        if (event instanceof KitchenOrderAddedEvent) {
+            return KitchenOrder.State.NEW;
+        } else if (event instanceof KitchenOrderPrepStartedEvent) {
+            return KitchenOrder.State.PREPPING;
+        } else if (event instanceof KitchenOrderBakeStartedEvent) {
+            return KitchenOrder.State.BAKING;
+        } else if (event instanceof KitchenOrderAssemblyStartedEvent) {
+            return KitchenOrder.State.ASSEMBLING;
+        } else if (event instanceof KitchenOrderAssemblyFinishedEvent) {
+            return KitchenOrder.State.ASSEMBLED;
         }
         return null;
     }
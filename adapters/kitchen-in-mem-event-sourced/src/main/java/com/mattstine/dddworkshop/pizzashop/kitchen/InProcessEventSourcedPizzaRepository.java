@@ -3,35 +3,52 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.InProcessEventSourcedRepository;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.MultiIndex;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateIndex;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 final class InProcessEventSourcedPizzaRepository extends InProcessEventSourcedRepository<PizzaRef, Pizza, Pizza.PizzaState, PizzaEvent, PizzaAddedEvent> implements PizzaRepository {
+    static final int DEFAULT_CACHE_SIZE = 1024;
 
-    private final Map<KitchenOrderRef, Set<PizzaRef>> kitchenOrderRefToPizzaRefSet;
+    private final MultiIndex<KitchenOrderRef, PizzaRef> kitchenOrderRefToPizzaRefSet;
+    private final StateIndex<Pizza.State, PizzaRef> pizzasByState;
 
     InProcessEventSourcedPizzaRepository(EventLog eventLog, Topic pizzas) {
-        super(eventLog, PizzaRef.class, Pizza.class, Pizza.PizzaState.class, PizzaAddedEvent.class, pizzas);
+        this(eventLog, pizzas, DEFAULT_CACHE_SIZE);
+    }
 
-        kitchenOrderRefToPizzaRefSet = new HashMap<>();
+    InProcessEventSourcedPizzaRepository(EventLog eventLog, Topic pizzas, int cacheSize) {
+        super(eventLog, PizzaRef.class, Pizza.class, Pizza.PizzaState.class, PizzaAddedEvent.class, pizzas, 0, cacheSize);
 
-        eventLog.subscribe(new Topic("pizzas"), e -> {
-            if (e instanceof PizzaAddedEvent) {
-                PizzaAddedEvent pae = (PizzaAddedEvent) e;
-                Set<PizzaRef> pizzaRefs = kitchenOrderRefToPizzaRefSet.computeIfAbsent(pae.getState().getKitchenOrderRef(), k -> new HashSet<>());
-                pizzaRefs.add(pae.getRef());
-            }
-        });
+        kitchenOrderRefToPizzaRefSet = multiIndex(PizzaAddedEvent.class, pae -> pae.getState().getKitchenOrderRef());
+        pizzasByState = stateIndex(InProcessEventSourcedPizzaRepository::stateAfter);
     }
 
     @Override
     public Set<Pizza> findPizzasByKitchenOrderRef(KitchenOrderRef kitchenOrderRef) {
-        return kitchenOrderRefToPizzaRefSet.get(kitchenOrderRef).stream()
-                .map(this::findByRef)
-                .collect(Collectors.toSet());
+        return new HashSet<>(findAllBy(kitchenOrderRefToPizzaRefSet, kitchenOrderRef));
+    }
+
+    @Override
+    public Stream<Pizza> findByState(Pizza.State state) {
+        return findAllBy(pizzasByState, state);
+    }
+
+    private static Pizza.State stateAfter(PizzaEvent event) {
+        if (event instanceof PizzaAddedEvent) {
+            return Pizza.State.NEW;
+        } else if (event instanceof PizzaPrepStartedEvent) {
+            return Pizza.State.PREPPING;
+        } else if (event instanceof PizzaPrepFinishedEvent) {
+            return Pizza.State.PREPPED;
+        } else if (event instanceof PizzaBakeStartedEvent) {
+            return Pizza.State.BAKING;
+        } else if (event instanceof PizzaBakeFinishedEvent) {
+            return Pizza.State.BAKED;
+        }
+        return null;
     }
 }
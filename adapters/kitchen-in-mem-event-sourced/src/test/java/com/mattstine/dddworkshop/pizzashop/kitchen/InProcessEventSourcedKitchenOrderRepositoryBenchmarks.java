@@ -0,0 +1,61 @@
+package com.mattstine.dddworkshop.pizzashop.kitchen;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RehydrationReport;
+import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class InProcessEventSourcedKitchenOrderRepositoryBenchmarks {
+
+    @Test
+    public void rehydrate_all_throughput() {
+        InProcessEventLog eventLog = InProcessEventLog.synchronous();
+        Topic topic = new Topic("kitchen_orders");
+        InProcessEventSourcedKitchenOrderRepository source = new InProcessEventSourcedKitchenOrderRepository(eventLog, topic, 0);
+        int orders = 20_000;
+        List<KitchenOrder> added = new ArrayList<>();
+        for (int i = 0; i < orders; i++) {
+            KitchenOrder order = KitchenOrder.builder()
+                    .ref(source.nextIdentity())
+                    .onlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))
+                    .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.MEDIUM).build())
+                    .eventLog(eventLog)
+                    .build();
+            source.add(order);
+            added.add(order);
+        }
+
+        for (int parallelism = 1; parallelism <= Runtime.getRuntime().availableProcessors(); parallelism <<= 1) {
+            InProcessEventSourcedKitchenOrderRepository restarted =
+                    new InProcessEventSourcedKitchenOrderRepository(eventLog, topic, orders);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            RehydrationReport report;
+            try {
+                report = restarted.rehydrateAll(pool);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            System.out.printf("rehydrateAll: %2d worker(s) -> %,d aggregates (%,d events) in %,d ms, %,.0f aggregates/s%n",
+                    report.getParallelism(), report.getAggregates(), report.getEvents(),
+                    report.getElapsedMillis(), report.getAggregatesPerSecond());
+            assertThat(report.getAggregates()).isEqualTo(orders);
+            assertThat(report.getEvents()).isEqualTo(orders);
+            KitchenOrder last = added.get(orders - 1);
+            assertThat(restarted.findByOnlineOrderRef(last.getOnlineOrderRef())).isEqualTo(last);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
@@ -43,4 +44,30 @@ public class InProcessEventSourcedKitchenOrderRepositoryIntegrationTests {
         assertThat(repository.findByOnlineOrderRef(onlineOrderRef)).isEqualTo(kitchenOrder);
     }
 
+    @Test
+    public void find_by_onlineOrderRef_finds_kitchenOrder_added_before_repository_was_created() {
+        repository.add(kitchenOrder);
+
+        KitchenOrderRepository late = new InProcessEventSourcedKitchenOrderRepository(eventLog,
+                new Topic("kitchen_orders"));
+
+        assertThat(late.findByOnlineOrderRef(onlineOrderRef)).isEqualTo(kitchenOrder);
+    }
+
+    @Test
+    public void find_by_unknown_onlineOrderRef_returns_null() {
+        assertThat(repository.findByOnlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))).isNull();
+    }
+
+    @Test
+    public void find_by_state_follows_kitchenOrder_through_its_lifecycle() {
+        repository.add(kitchenOrder);
+
+        assertThat(repository.findByState(KitchenOrder.State.NEW)).contains(kitchenOrder);
+
+        kitchenOrder.startPrep();
+
+        assertThat(repository.findByState(KitchenOrder.State.PREPPING)).contains(kitchenOrder);
+        assertThat(repository.findByState(KitchenOrder.State.NEW)).doesNotContain(kitchenOrder);
+    }
 }
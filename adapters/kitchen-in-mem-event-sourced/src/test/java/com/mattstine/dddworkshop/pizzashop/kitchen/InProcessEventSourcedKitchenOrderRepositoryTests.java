@@ -50,7 +50,7 @@ public class InProcessEventSourcedKitchenOrderRepositoryTests {
     public void find_by_ref_hydrates_added_order() {
         repository.add(kitchenOrder);
 
-        when(eventLog.eventsBy(new Topic("kitchen_orders")))
+        when(eventLog.eventsBy(new Topic("kitchen_orders"), ref))
                 .thenReturn(Collections.singletonList(new KitchenOrderAddedEvent(ref, kitchenOrder.state())));
 
         assertThat(repository.findByRef(ref)).isEqualTo(kitchenOrder);
@@ -61,7 +61,7 @@ public class InProcessEventSourcedKitchenOrderRepositoryTests {
         repository.add(kitchenOrder);
         kitchenOrder.startPrep();
 
-        when(eventLog.eventsBy(new Topic("kitchen_orders")))
+        when(eventLog.eventsBy(new Topic("kitchen_orders"), ref))
                 .thenReturn(Arrays.asList(new KitchenOrderAddedEvent(ref, kitchenOrder.state()),
                         new KitchenOrderPrepStartedEvent(ref)));
 
@@ -74,7 +74,7 @@ public class InProcessEventSourcedKitchenOrderRepositoryTests {
         kitchenOrder.startPrep();
         kitchenOrder.startBake();
 
-        when(eventLog.eventsBy(new Topic("kitchen_orders")))
+        when(eventLog.eventsBy(new Topic("kitchen_orders"), ref))
                 .thenReturn(Arrays.asList(new KitchenOrderAddedEvent(ref, kitchenOrder.state()),
                         new KitchenOrderPrepStartedEvent(ref),
                         new KitchenOrderBakeStartedEvent(ref)));
@@ -89,7 +89,7 @@ public class InProcessEventSourcedKitchenOrderRepositoryTests {
         kitchenOrder.startBake();
         kitchenOrder.startAssembly();
 
-        when(eventLog.eventsBy(new Topic("kitchen_orders")))
+        when(eventLog.eventsBy(new Topic("kitchen_orders"), ref))
                 .thenReturn(Arrays.asList(new KitchenOrderAddedEvent(ref, kitchenOrder.state()),
                         new KitchenOrderPrepStartedEvent(ref),
                         new KitchenOrderBakeStartedEvent(ref),
@@ -106,7 +106,7 @@ public class InProcessEventSourcedKitchenOrderRepositoryTests {
         kitchenOrder.startAssembly();
         kitchenOrder.finishAssembly();
 
-        when(eventLog.eventsBy(new Topic("kitchen_orders")))
+        when(eventLog.eventsBy(new Topic("kitchen_orders"), ref))
                 .thenReturn(Arrays.asList(new KitchenOrderAddedEvent(ref, kitchenOrder.state()),
                         new KitchenOrderPrepStartedEvent(ref),
                         new KitchenOrderBakeStartedEvent(ref),
@@ -1,13 +1,19 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RehydrationReport;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.ReadCountingList;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -45,11 +51,27 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         verify(eventLog).publish(eq(new Topic("pizzas")), eq(event));
     }
 
+    @Test
+    public void add_all_fires_events_as_one_batch() {
+        Pizza other = Pizza.builder()
+                .ref(repository.nextIdentity())
+                .size(Pizza.Size.LARGE)
+                .kitchenOrderRef(pizza.getKitchenOrderRef())
+                .eventLog(eventLog)
+                .build();
+
+        repository.addAll(Arrays.asList(pizza, other));
+
+        verify(eventLog).publishAll(eq(new Topic("pizzas")), eq(Arrays.asList(
+                new PizzaAddedEvent(ref, pizza.state()),
+                new PizzaAddedEvent(other.getRef(), other.state()))));
+    }
+
     @Test
     public void find_by_ref_hydrates_added_pizza() {
         repository.add(pizza);
 
-        when(eventLog.eventsBy(new Topic("pizzas")))
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
                 .thenReturn(Collections.singletonList(new PizzaAddedEvent(ref, pizza.state())));
 
         assertThat(repository.findByRef(ref)).isEqualTo(pizza);
@@ -60,7 +82,7 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         repository.add(pizza);
         pizza.startPrep();
 
-        when(eventLog.eventsBy(new Topic("pizzas")))
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
                 .thenReturn(Arrays.asList(new PizzaAddedEvent(ref, pizza.state()),
                         new PizzaPrepStartedEvent(ref)));
 
@@ -73,7 +95,7 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         pizza.startPrep();
         pizza.finishPrep();
 
-        when(eventLog.eventsBy(new Topic("pizzas")))
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
                 .thenReturn(Arrays.asList(new PizzaAddedEvent(ref, pizza.state()),
                         new PizzaPrepStartedEvent(ref),
                         new PizzaPrepFinishedEvent(ref)));
@@ -88,7 +110,7 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         pizza.finishPrep();
         pizza.startBake();
 
-        when(eventLog.eventsBy(new Topic("pizzas")))
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
                 .thenReturn(Arrays.asList(new PizzaAddedEvent(ref, pizza.state()),
                         new PizzaPrepStartedEvent(ref),
                         new PizzaPrepFinishedEvent(ref),
@@ -105,7 +127,7 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         pizza.startBake();
         pizza.finishBake();
 
-        when(eventLog.eventsBy(new Topic("pizzas")))
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
                 .thenReturn(Arrays.asList(new PizzaAddedEvent(ref, pizza.state()),
                         new PizzaPrepStartedEvent(ref),
                         new PizzaPrepFinishedEvent(ref),
@@ -115,8 +137,169 @@ public class InProcessEventSourcedPizzaRepositoryTests {
         assertThat(repository.findByRef(ref)).isEqualTo(pizza);
     }
 
+    @Test
+    public void find_by_ref_applies_only_new_events_to_cached_pizza() {
+        List<Event> history = new ArrayList<>();
+        history.add(new PizzaAddedEvent(ref, pizza.state()));
+        ReadCountingList events = new ReadCountingList(history);
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(events);
+
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+        assertThat(events.getReads()).isEqualTo(1);
+
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+        assertThat(events.getReads()).isEqualTo(1);
+
+        pizza.startPrep();
+        history.add(new PizzaPrepStartedEvent(ref));
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+        assertThat(events.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void published_events_are_applied_to_cached_pizza() {
+        List<Event> history = new ArrayList<>();
+        history.add(new PizzaAddedEvent(ref, pizza.state()));
+        ReadCountingList events = new ReadCountingList(history);
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(events);
+        ArgumentCaptor<EventHandler> handler = ArgumentCaptor.forClass(EventHandler.class);
+        verify(eventLog, atLeastOnce()).subscribe(eq(new Topic("pizzas")), eq(AggregateEvent.class), handler.capture());
+        repository.findByRef(ref);
+
+        pizza.startPrep();
+        PizzaPrepStartedEvent prepStarted = new PizzaPrepStartedEvent(ref);
+        history.add(prepStarted);
+        handler.getAllValues().forEach(h -> h.handleEvent(prepStarted));
+        assertThat(events.getReads()).isEqualTo(2);
+
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+        assertThat(events.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void find_by_ref_returns_a_copy_of_the_cached_pizza() {
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
+                .thenReturn(Collections.singletonList(new PizzaAddedEvent(ref, pizza.state())));
+
+        repository.findByRef(ref).startPrep();
+
+        assertThat(repository.findByRef(ref).isNew()).isTrue();
+    }
+
+    @Test
+    public void find_by_ref_evicts_least_recently_used_pizza() {
+        repository = new InProcessEventSourcedPizzaRepository(eventLog, new Topic("pizzas"), 1);
+        PizzaRef otherRef = repository.nextIdentity();
+        ReadCountingList events = new ReadCountingList(Collections.singletonList(new PizzaAddedEvent(ref, pizza.state())));
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(events);
+        when(eventLog.eventsBy(new Topic("pizzas"), otherRef))
+                .thenReturn(Collections.singletonList(new PizzaAddedEvent(otherRef, new Pizza.PizzaState(otherRef, pizza.getKitchenOrderRef(), Pizza.Size.LARGE))));
+
+        repository.findByRef(ref);
+        repository.findByRef(otherRef);
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+
+        assertThat(events.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void find_by_ref_does_not_cache_unknown_refs() {
+        repository = new InProcessEventSourcedPizzaRepository(eventLog, new Topic("pizzas"), 1);
+        PizzaRef unknown = repository.nextIdentity();
+        ReadCountingList events = new ReadCountingList(Collections.singletonList(new PizzaAddedEvent(ref, pizza.state())));
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(events);
+        when(eventLog.eventsBy(new Topic("pizzas"), unknown)).thenReturn(Collections.emptyList());
+
+        repository.findByRef(ref);
+        repository.findByRef(unknown);
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+
+        assertThat(events.getReads()).isEqualTo(1);
+    }
+
+    @Test
+    public void find_all_by_refs_hydrates_each_pizza_from_its_own_events() {
+        PizzaRef otherRef = repository.nextIdentity();
+        PizzaRef unknown = repository.nextIdentity();
+        Pizza.PizzaState otherState = new Pizza.PizzaState(otherRef, pizza.getKitchenOrderRef(), Pizza.Size.LARGE);
+        when(eventLog.eventsBy(new Topic("pizzas"), ref))
+                .thenReturn(Collections.singletonList(new PizzaAddedEvent(ref, pizza.state())));
+        when(eventLog.eventsBy(new Topic("pizzas"), otherRef))
+                .thenReturn(Arrays.asList(new PizzaAddedEvent(otherRef, otherState), new PizzaPrepStartedEvent(otherRef)));
+        when(eventLog.eventsBy(new Topic("pizzas"), unknown)).thenReturn(Collections.emptyList());
+
+        Map<PizzaRef, Pizza> found = repository.findAllByRefs(Arrays.asList(otherRef, unknown, ref));
+
+        assertThat(found.keySet()).containsExactly(otherRef, ref);
+        assertThat(found.get(ref)).isEqualTo(pizza);
+        assertThat(found.get(otherRef).getState()).isEqualTo(Pizza.State.PREPPING);
+    }
+
+    @Test
+    public void rehydrate_all_folds_every_pizza_into_the_cache() {
+        PizzaRef otherRef = repository.nextIdentity();
+        PizzaAddedEvent added = new PizzaAddedEvent(ref, pizza.state());
+        PizzaAddedEvent otherAdded = new PizzaAddedEvent(otherRef, new Pizza.PizzaState(otherRef, pizza.getKitchenOrderRef(), Pizza.Size.LARGE));
+        PizzaPrepStartedEvent otherPrepStarted = new PizzaPrepStartedEvent(otherRef);
+        when(eventLog.eventsBy(new Topic("pizzas"))).thenReturn(Arrays.asList(added, otherAdded, otherPrepStarted));
+        ReadCountingList events = new ReadCountingList(Collections.singletonList(added));
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(events);
+        when(eventLog.eventsBy(new Topic("pizzas"), otherRef)).thenReturn(Arrays.asList(otherAdded, otherPrepStarted));
+        InProcessEventSourcedPizzaRepository repository = new InProcessEventSourcedPizzaRepository(eventLog, new Topic("pizzas"));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        RehydrationReport report;
+        try {
+            report = repository.rehydrateAll(pool);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(report.getAggregates()).isEqualTo(2);
+        assertThat(report.getEvents()).isEqualTo(3);
+        assertThat(repository.findByRef(ref)).isEqualTo(pizza);
+        assertThat(events.getReads()).isEqualTo(0);
+        assertThat(repository.findByRef(otherRef).getState()).isEqualTo(Pizza.State.PREPPING);
+    }
+
+    @Test
+    public void find_pizzas_by_kitchenOrderRef_indexes_pizzas_already_in_log() {
+        PizzaAddedEvent event = new PizzaAddedEvent(ref, pizza.state());
+        when(eventLog.eventsBy(new Topic("pizzas"))).thenReturn(Collections.singletonList(event));
+        when(eventLog.eventsBy(new Topic("pizzas"), ref)).thenReturn(Collections.singletonList(event));
+
+        PizzaRepository late = new InProcessEventSourcedPizzaRepository(eventLog, new Topic("pizzas"));
+
+        assertThat(late.findPizzasByKitchenOrderRef(pizza.getKitchenOrderRef())).containsExactly(pizza);
+    }
+
+    @Test
+    public void find_pizzas_by_unknown_kitchenOrderRef_returns_no_pizzas() {
+        assertThat(repository.findPizzasByKitchenOrderRef(new KitchenOrderRef())).isEmpty();
+    }
+
     @Test
     public void subscribes_to_pizzas_topic() {
-        verify(eventLog).subscribe(eq(new Topic("pizzas")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaAddedEvent.class), isA(EventHandler.class));
+    }
+
+    @Test
+    public void find_by_state_follows_pizza_through_its_lifecycle() {
+        InProcessEventLog eventLog = InProcessEventLog.synchronous();
+        PizzaRepository repository = new InProcessEventSourcedPizzaRepository(eventLog, new Topic("pizzas"));
+        Pizza pizza = Pizza.builder()
+                .ref(repository.nextIdentity())
+                .size(Pizza.Size.MEDIUM)
+                .kitchenOrderRef(new KitchenOrderRef())
+                .eventLog(eventLog)
+                .build();
+        repository.add(pizza);
+
+        assertThat(repository.findByState(Pizza.State.NEW)).containsExactly(pizza);
+
+        pizza.startPrep();
+
+        assertThat(repository.findByState(Pizza.State.PREPPING)).containsExactly(pizza);
+        assertThat(repository.findByState(Pizza.State.NEW)).isEmpty();
     }
 }
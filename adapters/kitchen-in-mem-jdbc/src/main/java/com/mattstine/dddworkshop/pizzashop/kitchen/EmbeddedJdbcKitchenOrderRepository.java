@@ -2,7 +2,13 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWriteBuffer;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWritePolicy;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import org.h2.jdbcx.JdbcConnectionPool;
 
@@ -10,88 +16,95 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 final class EmbeddedJdbcKitchenOrderRepository implements KitchenOrderRepository {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("KITCHEN_ORDERS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS KITCHEN_ORDERS (REF VARCHAR(255), ONLINE_ORDER_REF VARCHAR(255), STATE INT)",
+                    "CREATE INDEX IF NOT EXISTS KITCHEN_ORDERS_STATE ON KITCHEN_ORDERS (STATE)",
+                    "CREATE TABLE IF NOT EXISTS KITCHEN_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)")
+            .version(2,
+                    "ALTER TABLE KITCHEN_ORDERS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE KITCHEN_ORDERS ADD CONSTRAINT KITCHEN_ORDERS_PK PRIMARY KEY (REF)",
+                    "CREATE INDEX KITCHEN_ORDERS_ONLINE_ORDER_REF ON KITCHEN_ORDERS (ONLINE_ORDER_REF)",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ALTER COLUMN INDEX SET NOT NULL",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ADD CONSTRAINT KITCHEN_ORDER_PIZZAS_PK PRIMARY KEY (REF, INDEX)",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ADD CONSTRAINT KITCHEN_ORDER_PIZZAS_KITCHEN_ORDERS_FK FOREIGN KEY (REF) REFERENCES KITCHEN_ORDERS (REF)")
+            .version(3,
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS DROP CONSTRAINT KITCHEN_ORDER_PIZZAS_KITCHEN_ORDERS_FK",
+                    "ALTER TABLE KITCHEN_ORDERS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE KITCHEN_ORDERS ALTER COLUMN ONLINE_ORDER_REF UUID",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE KITCHEN_ORDER_PIZZAS ADD CONSTRAINT KITCHEN_ORDER_PIZZAS_KITCHEN_ORDERS_FK FOREIGN KEY (REF) REFERENCES KITCHEN_ORDERS (REF)")
+            .build();
+    private static final String SELECT_WITH_PIZZAS = "SELECT o.REF, o.ONLINE_ORDER_REF, o.STATE, p.SIZE FROM KITCHEN_ORDERS o LEFT JOIN KITCHEN_ORDER_PIZZAS p ON p.REF = o.REF";
+
     private final EventLog eventLog;
     private final Topic topic;
     private final JdbcConnectionPool pool;
+    private final StateWriteBuffer states;
 
     EmbeddedJdbcKitchenOrderRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool) {
+        this(eventLog, topic, pool, StateWritePolicy.immediate());
+    }
+
+    /**
+     * With a {@link StateWritePolicy#writeBehind} policy, state events only update an in-memory buffer, which a
+     * background thread flushes to KITCHEN_ORDERS; every find overlays the buffered states on the rows it reads.
+     */
+    EmbeddedJdbcKitchenOrderRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool, StateWritePolicy statePolicy) {
         this.eventLog = eventLog;
         this.topic = topic;
         this.pool = pool;
 
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("CREATE TABLE KITCHEN_ORDERS (REF VARCHAR(255), ONLINE_ORDER_REF VARCHAR(255), STATE INT)");
-            statement.execute();
+        SCHEMA.migrate(pool);
+        this.states = new StateWriteBuffer(pool, "KITCHEN_ORDERS", statePolicy);
 
-            statement = connection.prepareStatement("CREATE TABLE KITCHEN_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)");
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to initialize KITCHEN_ORDERS table: ", e);
-        }
+        eventLog.subscribe(topic, KitchenOrderPrepStartedEvent.class,
+                e -> updateState(((KitchenOrderPrepStartedEvent) e).getRef(), KitchenOrder.State.PREPPING));
+        eventLog.subscribe(topic, KitchenOrderBakeStartedEvent.class,
+                e -> updateState(((KitchenOrderBakeStartedEvent) e).getRef(), KitchenOrder.State.BAKING));
+        eventLog.subscribe(topic, KitchenOrderAssemblyStartedEvent.class,
+                e -> updateState(((KitchenOrderAssemblyStartedEvent) e).getRef(), KitchenOrder.State.ASSEMBLING));
+        eventLog.subscribe(topic, KitchenOrderAssemblyFinishedEvent.class,
+                e -> updateState(((KitchenOrderAssemblyFinishedEvent) e).getRef(), KitchenOrder.State.ASSEMBLED));
+    }
 
-        eventLog.subscribe(topic, e -> {
-            if (e instanceof KitchenOrderPrepStartedEvent) {
-                KitchenOrderPrepStartedEvent kopse = (KitchenOrderPrepStartedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE KITCHEN_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, KitchenOrder.State.PREPPING.ordinal());
-                    statement.setString(2, kopse.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in KITCHEN_ORDERS table: ", ex);
-                }
-            } else if (e instanceof KitchenOrderBakeStartedEvent) {
-                KitchenOrderBakeStartedEvent kobse = (KitchenOrderBakeStartedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE KITCHEN_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, KitchenOrder.State.BAKING.ordinal());
-                    statement.setString(2, kobse.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in KITCHEN_ORDERS table: ", ex);
-                }
-            } else if (e instanceof KitchenOrderAssemblyStartedEvent) {
-                KitchenOrderAssemblyStartedEvent koase = (KitchenOrderAssemblyStartedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE KITCHEN_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, KitchenOrder.State.ASSEMBLING.ordinal());
-                    statement.setString(2, koase.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in KITCHEN_ORDERS table: ", ex);
-                }
-            } else if (e instanceof KitchenOrderAssemblyFinishedEvent) {
-                KitchenOrderAssemblyFinishedEvent koafe = (KitchenOrderAssemblyFinishedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE KITCHEN_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, KitchenOrder.State.ASSEMBLED.ordinal());
-                    statement.setString(2, koafe.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in KITCHEN_ORDERS table: ", ex);
-                }
-            }
-        });
+    private void updateState(KitchenOrderRef ref, KitchenOrder.State state) {
+        states.put(ref, state.ordinal());
     }
 
     @Override
     public KitchenOrder findByRef(KitchenOrderRef ref) {
-        KitchenOrder kitchenOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, ONLINE_ORDER_REF, STATE FROM KITCHEN_ORDERS WHERE REF = ?");
-            kitchenOrder = rehydrateKitchenOrder(connection, statement, ref);
+        return findByRef(ref, FetchPlan.EAGER);
+    }
+
+    /**
+     * With {@link FetchPlan#EAGER}, the order and its pizzas are read by one join of KITCHEN_ORDERS and
+     * KITCHEN_ORDER_PIZZAS. With {@link FetchPlan#LAZY}, only KITCHEN_ORDERS is queried; KITCHEN_ORDER_PIZZAS is
+     * queried when the order's pizzas are first accessed.
+     */
+    @Override
+    public KitchenOrder findByRef(KitchenOrderRef ref, FetchPlan fetchPlan) {
+        if (fetchPlan == FetchPlan.EAGER) {
+            return findOneWithPizzas("REF", ref);
+        }
+
+        KitchenOrder kitchenOrder = null;
+        Integer pendingState = states.pendingState(ref);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT REF, ONLINE_ORDER_REF, STATE FROM KITCHEN_ORDERS WHERE REF = ?")) {
+            RefColumns.setRef(statement, 1, ref);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.first()) {
+                KitchenOrderRef kitchenOrderRef = new KitchenOrderRef(RefColumns.getRefId(resultSet, 1));
+                kitchenOrder = KitchenOrder.withLazyPizzas(kitchenOrderRef, new OnlineOrderRef(RefColumns.getRefId(resultSet, 2)), () -> findPizzas(kitchenOrderRef), eventLog);
+                kitchenOrder.setState(KitchenOrder.State.values()[pendingState != null ? pendingState : resultSet.getInt(3)]);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to retrieve KitchenOrder from KITCHEN_ORDERS table: ", e);
         }
@@ -100,45 +113,130 @@ final class EmbeddedJdbcKitchenOrderRepository implements KitchenOrderRepository
 
     @Override
     public KitchenOrder findByOnlineOrderRef(OnlineOrderRef ref) {
-        KitchenOrder kitchenOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, ONLINE_ORDER_REF, STATE FROM KITCHEN_ORDERS WHERE ONLINE_ORDER_REF = ?");
-            kitchenOrder = rehydrateKitchenOrder(connection, statement, ref);
+        return findOneWithPizzas("ONLINE_ORDER_REF", ref);
+    }
+
+    @Override
+    public Stream<KitchenOrder> findByState(KitchenOrder.State state) {
+        Map<Ref, Integer> pendingStates = states.pendingStates();
+        List<KitchenOrder> kitchenOrders;
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.STATE = ? ORDER BY o.REF, p.INDEX")) {
+            statement.setInt(1, state.ordinal());
+            kitchenOrders = rehydrateKitchenOrders(statement.executeQuery(), Collections.emptyMap());
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve KitchenOrders from KITCHEN_ORDERS table: ", e);
+        }
+        if (pendingStates.isEmpty()) {
+            return kitchenOrders.stream();
+        }
+
+        Map<KitchenOrderRef, KitchenOrder> found = new HashMap<>();
+        kitchenOrders.forEach(kitchenOrder -> found.put(kitchenOrder.getRef(), kitchenOrder));
+        List<KitchenOrderRef> refs = StateWriteBuffer.refsInState(new ArrayList<>(found.keySet()), KitchenOrderRef.class, state.ordinal(), pendingStates);
+        found.putAll(findAllByRefs(refs.stream()
+                .filter(ref -> !found.containsKey(ref))
+                .collect(Collectors.toList())));
+        return refs.stream()
+                .map(found::get)
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * Loads every requested order, with its pizzas, from one join of KITCHEN_ORDERS and KITCHEN_ORDER_PIZZAS.
+     */
+    @Override
+    public Map<KitchenOrderRef, KitchenOrder> findAllByRefs(Collection<KitchenOrderRef> refs) {
+        Map<KitchenOrderRef, KitchenOrder> found = new HashMap<>();
+        if (!refs.isEmpty()) {
+            Map<Ref, Integer> pendingStates = states.pendingStates();
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.REF IN " + RefColumns.inClause(refs.size()) + " ORDER BY o.REF, p.INDEX")) {
+                RefColumns.setRefs(statement, refs);
+                rehydrateKitchenOrders(statement.executeQuery(), pendingStates)
+                        .forEach(kitchenOrder -> found.put(kitchenOrder.getRef(), kitchenOrder));
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to retrieve KitchenOrders from KITCHEN_ORDERS table: ", e);
+            }
+        }
+
+        return RefColumns.inRequestedOrder(refs, found);
+    }
+
+    private KitchenOrder findOneWithPizzas(String column, Ref ref) {
+        Map<Ref, Integer> pendingStates = states.pendingStates();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o." + column + " = ? ORDER BY o.REF, p.INDEX")) {
+            RefColumns.setRef(statement, 1, ref);
+            List<KitchenOrder> kitchenOrders = rehydrateKitchenOrders(statement.executeQuery(), pendingStates);
+            return kitchenOrders.isEmpty() ? null : kitchenOrders.get(0);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to retrieve KitchenOrder from KITCHEN_ORDERS table: ", e);
         }
-        return kitchenOrder;
     }
 
-    private KitchenOrder rehydrateKitchenOrder(Connection connection, PreparedStatement statement, Ref reference) throws SQLException {
-        KitchenOrder kitchenOrder = null;
-        statement.setString(1, reference.getReference());
-        ResultSet resultSet = statement.executeQuery();
-        if (resultSet.first()) {
-            KitchenOrderRef kitchenOrderRef = new KitchenOrderRef(resultSet.getString(1));
-            OnlineOrderRef onlineOrderRef = new OnlineOrderRef(resultSet.getString(2));
-            int state = resultSet.getInt(3);
+    /*
+     * Expects the rows of SELECT_WITH_PIZZAS ordered by REF and then
+     * INDEX, so each order's rows are adjacent. An order without pizzas
+     * has a single row with a NULL SIZE. A state still buffered for an
+     * order is newer than its row.
+     */
+    private List<KitchenOrder> rehydrateKitchenOrders(ResultSet resultSet, Map<Ref, Integer> pendingStates) throws SQLException {
+        List<KitchenOrder> kitchenOrders = new ArrayList<>();
+        boolean more = resultSet.next();
+        while (more) {
+            RefId ref = RefColumns.getRefId(resultSet, 1);
+            KitchenOrderRef kitchenOrderRef = new KitchenOrderRef(ref);
+            KitchenOrder.KitchenOrderBuilder builder = KitchenOrder.builder()
+                    .ref(kitchenOrderRef)
+                    .onlineOrderRef(new OnlineOrderRef(RefColumns.getRefId(resultSet, 2)))
+                    .eventLog(eventLog);
+            Integer pendingState = pendingStates.get(kitchenOrderRef);
+            KitchenOrder.State state = KitchenOrder.State.values()[pendingState != null ? pendingState : resultSet.getInt(3)];
+            do {
+                int size = resultSet.getInt(4);
+                if (!resultSet.wasNull()) {
+                    builder.pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.values()[size]).build());
+                }
+                more = resultSet.next();
+            } while (more && ref.equals(RefColumns.getRefId(resultSet, 1)));
 
-            statement = connection.prepareStatement("SELECT REF, INDEX, SIZE FROM KITCHEN_ORDER_PIZZAS WHERE REF = ? ORDER BY INDEX");
-            statement.setString(1, kitchenOrderRef.getReference());
-            resultSet = statement.executeQuery();
+            KitchenOrder kitchenOrder = builder.build();
+            kitchenOrder.setState(state);
+            kitchenOrders.add(kitchenOrder);
+        }
+        return kitchenOrders;
+    }
+
+    private List<KitchenOrder.Pizza> findPizzas(KitchenOrderRef ref) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT REF, INDEX, SIZE FROM KITCHEN_ORDER_PIZZAS WHERE REF = ? ORDER BY INDEX")) {
+            RefColumns.setRef(statement, 1, ref);
+            ResultSet resultSet = statement.executeQuery();
 
             List<KitchenOrder.Pizza> pizzas = new ArrayList<>();
             while (resultSet.next()) {
                 int size = resultSet.getInt(3);
                 pizzas.add(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.values()[size]).build());
             }
+            return pizzas;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Pizzas from KITCHEN_ORDER_PIZZAS table: ", e);
+        }
+    }
 
-            kitchenOrder = KitchenOrder.builder()
-                    .ref(kitchenOrderRef)
-                    .onlineOrderRef(onlineOrderRef)
-                    .eventLog(eventLog)
-                    .pizzas(pizzas)
-                    .build();
-            kitchenOrder.setState(KitchenOrder.State.values()[state]);
+    /**
+     * Write every buffered state to KITCHEN_ORDERS now.
+     */
+    void flush() {
+        states.flush();
+    }
 
-        }
-        return kitchenOrder;
+    /**
+     * Stop the write-behind thread, if any, after flushing every buffered state.
+     */
+    void close() {
+        states.close();
     }
 
     @Override
@@ -146,24 +244,36 @@ final class EmbeddedJdbcKitchenOrderRepository implements KitchenOrderRepository
         return new KitchenOrderRef();
     }
 
+    /**
+     * Inserts the order and all of its pizzas, as one batch, in a single transaction.
+     */
     @Override
     public void add(KitchenOrder kitchenOrder) {
         try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO KITCHEN_ORDERS (REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?)");
-            statement.setString(1, kitchenOrder.getRef().getReference());
-            statement.setString(2, kitchenOrder.getOnlineOrderRef().getReference());
-            statement.setInt(3, kitchenOrder.getState().ordinal());
-            statement.execute();
-
-            statement = connection.prepareStatement("INSERT INTO KITCHEN_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)");
-            for (int i = 0; i < kitchenOrder.getPizzas().size(); i++) {
-                KitchenOrder.Pizza pizza = kitchenOrder.getPizzas().get(i);
-                statement.setString(1, kitchenOrder.getRef().getReference());
-                statement.setInt(2, i);
-                statement.setInt(3, pizza.getSize().ordinal());
-                statement.execute();
-            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement orderStatement = connection.prepareStatement("INSERT INTO KITCHEN_ORDERS (REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?)");
+                 PreparedStatement pizzaStatement = connection.prepareStatement("INSERT INTO KITCHEN_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)")) {
+                RefColumns.setRef(orderStatement, 1, kitchenOrder.getRef());
+                RefColumns.setRef(orderStatement, 2, kitchenOrder.getOnlineOrderRef());
+                orderStatement.setInt(3, kitchenOrder.getState().ordinal());
+                orderStatement.execute();
 
+                for (int i = 0; i < kitchenOrder.getPizzas().size(); i++) {
+                    KitchenOrder.Pizza pizza = kitchenOrder.getPizzas().get(i);
+                    RefColumns.setRef(pizzaStatement, 1, kitchenOrder.getRef());
+                    pizzaStatement.setInt(2, i);
+                    pizzaStatement.setInt(3, pizza.getSize().ordinal());
+                    pizzaStatement.addBatch();
+                }
+                pizzaStatement.executeBatch();
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to insert KitchenOrder into KITCHEN_ORDERS table: ", e);
         }
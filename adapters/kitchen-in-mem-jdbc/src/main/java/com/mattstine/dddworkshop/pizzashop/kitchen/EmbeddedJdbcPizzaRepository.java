@@ -1,7 +1,13 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.BatchEventHandler;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWriteBuffer;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWritePolicy;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
 import org.h2.jdbcx.JdbcConnectionPool;
 
@@ -9,86 +15,63 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 final class EmbeddedJdbcPizzaRepository implements PizzaRepository {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("PIZZAS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS PIZZAS (REF VARCHAR(255), SIZE INT, KITCHEN_ORDER_REF VARCHAR(255), STATE INT)",
+                    "CREATE INDEX IF NOT EXISTS PIZZAS_STATE ON PIZZAS (STATE)")
+            .version(2,
+                    "ALTER TABLE PIZZAS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE PIZZAS ADD CONSTRAINT PIZZAS_PK PRIMARY KEY (REF)",
+                    "CREATE INDEX PIZZAS_KITCHEN_ORDER_REF ON PIZZAS (KITCHEN_ORDER_REF)",
+                    "DROP INDEX PIZZAS_STATE",
+                    "CREATE INDEX PIZZAS_STATE_REF ON PIZZAS (STATE, REF)")
+            .version(3,
+                    "ALTER TABLE PIZZAS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE PIZZAS ALTER COLUMN KITCHEN_ORDER_REF UUID")
+            .build();
 
     private final EventLog eventLog;
     private final Topic topic;
     private final JdbcConnectionPool pool;
+    private final StateWriteBuffer states;
 
     EmbeddedJdbcPizzaRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool) {
+        this(eventLog, topic, pool, StateWritePolicy.immediate());
+    }
+
+    /**
+     * With a {@link StateWritePolicy#writeBehind} policy, state events only update an in-memory buffer, which a
+     * background thread flushes to PIZZAS; every find overlays the buffered states on the rows it reads.
+     */
+    EmbeddedJdbcPizzaRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool, StateWritePolicy statePolicy) {
         this.eventLog = eventLog;
         this.topic = topic;
         this.pool = pool;
 
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection
-                    .prepareStatement("CREATE TABLE PIZZAS (REF VARCHAR(255), SIZE INT, KITCHEN_ORDER_REF VARCHAR(255), STATE INT)");
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to initialize PIZZAS table: ", e);
-        }
+        SCHEMA.migrate(pool);
+        this.states = new StateWriteBuffer(pool, "PIZZAS", statePolicy);
 
-        eventLog.subscribe(topic, e -> {
-            if (e instanceof PizzaPrepStartedEvent) {
-                PizzaPrepStartedEvent ppse = (PizzaPrepStartedEvent) e;
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE PIZZAS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, Pizza.State.PREPPING.ordinal());
-                    statement.setString(2, ppse.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in PIZZAS table: ", ex);
-                }
-            } else if (e instanceof PizzaPrepFinishedEvent) {
-                PizzaPrepFinishedEvent ppfe = (PizzaPrepFinishedEvent) e;
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE PIZZAS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, Pizza.State.PREPPED.ordinal());
-                    statement.setString(2, ppfe.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in PIZZAS table: ", ex);
-                }
-            } else if (e instanceof PizzaBakeStartedEvent) {
-                PizzaBakeStartedEvent pbse = (PizzaBakeStartedEvent) e;
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE PIZZAS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, Pizza.State.BAKING.ordinal());
-                    statement.setString(2, pbse.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in PIZZAS table: ", ex);
-                }
-            } else if (e instanceof PizzaBakeFinishedEvent) {
-                PizzaBakeFinishedEvent pbfe = (PizzaBakeFinishedEvent) e;
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE PIZZAS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, Pizza.State.BAKED.ordinal());
-                    statement.setString(2, pbfe.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in PIZZAS table: ", ex);
-                }
-            }
-        });
+        eventLog.subscribe(topic, PizzaPrepStartedEvent.class, new StateProjection(Pizza.State.PREPPING));
+        eventLog.subscribe(topic, PizzaPrepFinishedEvent.class, new StateProjection(Pizza.State.PREPPED));
+        eventLog.subscribe(topic, PizzaBakeStartedEvent.class, new StateProjection(Pizza.State.BAKING));
+        eventLog.subscribe(topic, PizzaBakeFinishedEvent.class, new StateProjection(Pizza.State.BAKED));
     }
 
     @Override
     public Set<Pizza> findPizzasByKitchenOrderRef(KitchenOrderRef kitchenOrderRef) {
         Set<Pizza> pizzas = new HashSet<>();
+        Map<Ref, Integer> pendingStates = states.pendingStates();
         try (Connection connection = pool.getConnection()) {
             PreparedStatement statement = connection.prepareStatement("SELECT REF, SIZE, KITCHEN_ORDER_REF, STATE FROM PIZZAS WHERE KITCHEN_ORDER_REF = ?");
-            statement.setString(1, kitchenOrderRef.getReference());
+            RefColumns.setRef(statement, 1, kitchenOrderRef);
             ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                pizzas.add(buildPizza(resultSet));
+                pizzas.add(buildPizza(resultSet, pendingStates));
             }
 
         } catch (SQLException e) {
@@ -104,11 +87,11 @@ final class EmbeddedJdbcPizzaRepository implements PizzaRepository {
 
     @Override
     public void add(Pizza pizza) {
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO PIZZAS (REF, SIZE, KITCHEN_ORDER_REF, STATE) VALUES (?, ?, ?, ?)");
-            statement.setString(1, pizza.getRef().getReference());
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO PIZZAS (REF, SIZE, KITCHEN_ORDER_REF, STATE) VALUES (?, ?, ?, ?)")) {
+            RefColumns.setRef(statement, 1, pizza.getRef());
             statement.setInt(2, pizza.getSize().ordinal());
-            statement.setString(3, pizza.getKitchenOrderRef().getReference());
+            RefColumns.setRef(statement, 3, pizza.getKitchenOrderRef());
             statement.setInt(4, pizza.getState().ordinal());
             statement.execute();
         } catch (SQLException e) {
@@ -118,34 +101,120 @@ final class EmbeddedJdbcPizzaRepository implements PizzaRepository {
         eventLog.publish(topic, new PizzaAddedEvent(pizza.getRef(), pizza.state()));
     }
 
+    @Override
+    public void addAll(Collection<Pizza> pizzas) {
+        List<Event> addEvents = new ArrayList<>(pizzas.size());
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO PIZZAS (REF, SIZE, KITCHEN_ORDER_REF, STATE) VALUES (?, ?, ?, ?)")) {
+                for (Pizza pizza : pizzas) {
+                    RefColumns.setRef(statement, 1, pizza.getRef());
+                    statement.setInt(2, pizza.getSize().ordinal());
+                    RefColumns.setRef(statement, 3, pizza.getKitchenOrderRef());
+                    statement.setInt(4, pizza.getState().ordinal());
+                    statement.addBatch();
+                    addEvents.add(new PizzaAddedEvent(pizza.getRef(), pizza.state()));
+                }
+                statement.executeBatch();
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to insert Pizzas into PIZZAS table: ", e);
+        }
+
+        eventLog.publishAll(topic, addEvents);
+    }
+
     @Override
     public Pizza findByRef(PizzaRef ref) {
         Pizza pizza;
+        Map<Ref, Integer> pendingStates = states.pendingStates();
         try (Connection connection = pool.getConnection()) {
             PreparedStatement statement = connection.prepareStatement("SELECT REF, SIZE, KITCHEN_ORDER_REF, STATE FROM PIZZAS WHERE REF = ?");
-            pizza = rehydratePizza(statement, ref);
+            pizza = rehydratePizza(statement, ref, pendingStates);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to retrieve Pizza from PIZZAS table: ", e);
         }
         return pizza;
     }
 
-    private Pizza rehydratePizza(PreparedStatement statement, Ref reference) throws SQLException {
+    @Override
+    public Stream<Pizza> findByState(Pizza.State state) {
+        Map<Ref, Integer> pendingStates = states.pendingStates();
+        Map<PizzaRef, Pizza> found = new LinkedHashMap<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT REF, SIZE, KITCHEN_ORDER_REF, STATE FROM PIZZAS WHERE STATE = ? ORDER BY REF")) {
+            statement.setInt(1, state.ordinal());
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Pizza pizza = buildPizza(resultSet, Collections.emptyMap());
+                found.put(pizza.getRef(), pizza);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Pizzas from PIZZAS table: ", e);
+        }
+        if (pendingStates.isEmpty()) {
+            return found.values().stream();
+        }
+
+        List<PizzaRef> refs = StateWriteBuffer.refsInState(new ArrayList<>(found.keySet()), PizzaRef.class, state.ordinal(), pendingStates);
+        found.putAll(findAllByRefs(refs.stream()
+                .filter(ref -> !found.containsKey(ref))
+                .collect(Collectors.toList())));
+        return refs.stream()
+                .map(found::get)
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public Map<PizzaRef, Pizza> findAllByRefs(Collection<PizzaRef> refs) {
+        Map<PizzaRef, Pizza> found = new HashMap<>();
+        if (!refs.isEmpty()) {
+            Map<Ref, Integer> pendingStates = states.pendingStates();
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement("SELECT REF, SIZE, KITCHEN_ORDER_REF, STATE FROM PIZZAS WHERE REF IN " + RefColumns.inClause(refs.size()))) {
+                RefColumns.setRefs(statement, refs);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    Pizza pizza = buildPizza(resultSet, pendingStates);
+                    found.put(pizza.getRef(), pizza);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to retrieve Pizzas from PIZZAS table: ", e);
+            }
+        }
+
+        return RefColumns.inRequestedOrder(refs, found);
+    }
+
+    private Pizza rehydratePizza(PreparedStatement statement, Ref reference, Map<Ref, Integer> pendingStates) throws SQLException {
         Pizza pizza = null;
-        statement.setString(1, reference.getReference());
+        RefColumns.setRef(statement, 1, reference);
         ResultSet resultSet = statement.executeQuery();
         if (resultSet.first()) {
-            pizza = buildPizza(resultSet);
+            pizza = buildPizza(resultSet, pendingStates);
         }
         return pizza;
     }
 
-    private Pizza buildPizza(ResultSet resultSet) throws SQLException {
+    /*
+     * A state still buffered for the pizza is newer than its row.
+     */
+    private Pizza buildPizza(ResultSet resultSet, Map<Ref, Integer> pendingStates) throws SQLException {
         Pizza pizza;
-        PizzaRef pizzaRef = new PizzaRef(resultSet.getString(1));
+        PizzaRef pizzaRef = new PizzaRef(RefColumns.getRefId(resultSet, 1));
         int size = resultSet.getInt(2);
-        KitchenOrderRef kitchenOrderRef = new KitchenOrderRef(resultSet.getString(3));
-        int state = resultSet.getInt(4);
+        KitchenOrderRef kitchenOrderRef = new KitchenOrderRef(RefColumns.getRefId(resultSet, 3));
+        Integer state = pendingStates.get(pizzaRef);
+        if (state == null) {
+            state = resultSet.getInt(4);
+        }
 
         pizza = Pizza.builder()
                 .ref(pizzaRef)
@@ -156,4 +225,45 @@ final class EmbeddedJdbcPizzaRepository implements PizzaRepository {
         pizza.setState(Pizza.State.values()[state]);
         return pizza;
     }
+
+    /**
+     * Write every buffered state to PIZZAS now.
+     */
+    void flush() {
+        states.flush();
+    }
+
+    /**
+     * Stop the write-behind thread, if any, after flushing every buffered state.
+     */
+    void close() {
+        states.close();
+    }
+
+    /*
+     * Projects the state reached by one type of event onto the PIZZAS
+     * table; a batch of events is handed to the buffer at once, so it
+     * is written as one JDBC batch.
+     */
+    private final class StateProjection implements BatchEventHandler {
+        private final Pizza.State state;
+
+        StateProjection(Pizza.State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void handleEvent(Event e) {
+            states.put(((PizzaEvent) e).getRef(), state.ordinal());
+        }
+
+        @Override
+        public void handleEvents(List<Event> events) {
+            List<Ref> refs = new ArrayList<>(events.size());
+            for (Event e : events) {
+                refs.add(((PizzaEvent) e).getRef());
+            }
+            states.putAll(refs, state.ordinal());
+        }
+    }
 }
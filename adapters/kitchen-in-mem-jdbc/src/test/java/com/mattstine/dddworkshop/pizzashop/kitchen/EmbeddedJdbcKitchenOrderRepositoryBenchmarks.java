@@ -0,0 +1,172 @@
+package com.mattstine.dddworkshop.pizzashop.kitchen;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class EmbeddedJdbcKitchenOrderRepositoryBenchmarks {
+
+    private KitchenOrderRepository repository;
+    private InProcessEventLog eventLog;
+    private JdbcConnectionPool pool;
+    private Topic topic;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test;MVCC=FALSE", "", "");
+
+        eventLog = InProcessEventLog.synchronous();
+        topic = new Topic("kitchen_orders");
+        repository = new EmbeddedJdbcKitchenOrderRepository(eventLog,
+                topic,
+                pool);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS")) {
+            statement.execute();
+        }
+
+        pool.dispose();
+    }
+
+    @Test
+    public void add_throughput_for_large_orders() throws SQLException {
+        int pizzasPerOrder = 50;
+        int ordersPerRound = 500;
+        long batched = 0;
+        long rowAtATime = 0;
+
+        // alternate so that neither write path runs only cold, or only against the larger table
+        for (int round = 0; round < 3; round++) {
+            batched = ordersPerSecond(largeOrders(ordersPerRound, pizzasPerOrder), repository::add);
+            rowAtATime = ordersPerSecond(largeOrders(ordersPerRound, pizzasPerOrder), this::rowAtATimeAdd);
+        }
+
+        System.out.printf("KitchenOrder add (%d pizzas): one batched transaction -> %,7d orders/s (%,9d rows/s), row at a time -> %,7d orders/s (%,9d rows/s)%n",
+                pizzasPerOrder, batched, batched * (pizzasPerOrder + 1), rowAtATime, rowAtATime * (pizzasPerOrder + 1));
+        assertThat(count("SELECT COUNT(*) FROM KITCHEN_ORDER_PIZZAS")).isEqualTo(6L * ordersPerRound * pizzasPerOrder);
+    }
+
+    /*
+     * Each lookup is timed with its index in place and again after the
+     * index is dropped, to show the table scan the index replaces.
+     */
+    @Test
+    public void lookup_latency_as_table_grows() throws SQLException {
+        List<KitchenOrder> kitchenOrders = new ArrayList<>();
+        for (int size : new int[]{1_000, 4_000, 16_000}) {
+            List<KitchenOrder> more = largeOrders(size - kitchenOrders.size(), 1);
+            more.forEach(repository::add);
+            kitchenOrders.addAll(more);
+
+            long byRef = microsPerLookup(kitchenOrders, kitchenOrder -> repository.findByRef(kitchenOrder.getRef()));
+            long byOnlineOrderRef = microsPerLookup(kitchenOrders, kitchenOrder -> repository.findByOnlineOrderRef(kitchenOrder.getOnlineOrderRef()));
+            execute("DROP INDEX KITCHEN_ORDERS_ONLINE_ORDER_REF");
+            long byOnlineOrderRefScan = microsPerLookup(kitchenOrders, kitchenOrder -> repository.findByOnlineOrderRef(kitchenOrder.getOnlineOrderRef()));
+            execute("CREATE INDEX KITCHEN_ORDERS_ONLINE_ORDER_REF ON KITCHEN_ORDERS (ONLINE_ORDER_REF)");
+
+            System.out.printf("KitchenOrder lookups, %,6d orders: findByRef -> %,6d us, findByOnlineOrderRef -> %,6d us (%,6d us without index)%n",
+                    size, byRef, byOnlineOrderRef, byOnlineOrderRefScan);
+        }
+        assertThat(repository.findByOnlineOrderRef(kitchenOrders.get(0).getOnlineOrderRef())).isEqualTo(kitchenOrders.get(0));
+    }
+
+    private static long microsPerLookup(List<KitchenOrder> kitchenOrders, Function<KitchenOrder, KitchenOrder> lookup) {
+        int lookups = 100;
+        Random random = new Random(42);
+        long began = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            assertThat(lookup.apply(kitchenOrders.get(random.nextInt(kitchenOrders.size())))).isNotNull();
+        }
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - began) / lookups;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.execute();
+        }
+    }
+
+    private List<KitchenOrder> largeOrders(int orders, int pizzasPerOrder) {
+        List<KitchenOrder> kitchenOrders = new ArrayList<>(orders);
+        for (int i = 0; i < orders; i++) {
+            KitchenOrder.KitchenOrderBuilder builder = KitchenOrder.builder()
+                    .ref(repository.nextIdentity())
+                    .onlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))
+                    .eventLog(eventLog);
+            for (int j = 0; j < pizzasPerOrder; j++) {
+                builder.pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.values()[j % 3]).build());
+            }
+            kitchenOrders.add(builder.build());
+        }
+        return kitchenOrders;
+    }
+
+    private static long ordersPerSecond(List<KitchenOrder> kitchenOrders, Consumer<KitchenOrder> add) {
+        long began = System.nanoTime();
+        kitchenOrders.forEach(add);
+        return kitchenOrders.size() * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - began);
+    }
+
+    /*
+     * The write path as it was before add batched the pizzas into one
+     * transaction: one auto-committed statement per row.
+     */
+    private void rowAtATimeAdd(KitchenOrder kitchenOrder) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement insertOrder = connection.prepareStatement("INSERT INTO KITCHEN_ORDERS (REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?)");
+             PreparedStatement insertPizza = connection.prepareStatement("INSERT INTO KITCHEN_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)")) {
+            insertOrder.setString(1, kitchenOrder.getRef().getReference());
+            insertOrder.setString(2, kitchenOrder.getOnlineOrderRef().getReference());
+            insertOrder.setInt(3, kitchenOrder.getState().ordinal());
+            insertOrder.execute();
+
+            for (int i = 0; i < kitchenOrder.getPizzas().size(); i++) {
+                insertPizza.setString(1, kitchenOrder.getRef().getReference());
+                insertPizza.setInt(2, i);
+                insertPizza.setInt(3, kitchenOrder.getPizzas().get(i).getSize().ordinal());
+                insertPizza.execute();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        eventLog.publish(topic, new KitchenOrderAddedEvent(kitchenOrder.getRef(), kitchenOrder.state()));
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.LazyList;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
@@ -11,9 +13,11 @@ import org.junit.Test;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class EmbeddedJdbcKitchenOrderRepositoryIntegrationTests {
 
@@ -22,14 +26,16 @@ public class EmbeddedJdbcKitchenOrderRepositoryIntegrationTests {
     private KitchenOrderRef ref;
     private KitchenOrder kitchenOrder;
     private JdbcConnectionPool pool;
+    private Topic topic;
 
     @Before
     public void setUp() {
         pool = JdbcConnectionPool.create("jdbc:h2:mem:test;MVCC=FALSE", "", "");
 
         eventLog = InProcessEventLog.instance();
+        topic = new Topic("kitchen_orders");
         repository = new EmbeddedJdbcKitchenOrderRepository(eventLog,
-                new Topic("kitchen_orders"),
+                topic,
                 pool);
         ref = repository.nextIdentity();
         kitchenOrder = KitchenOrder.builder()
@@ -104,6 +110,58 @@ public class EmbeddedJdbcKitchenOrderRepositoryIntegrationTests {
         repository.add(kitchenOrder);
         assertThat(repository.findByOnlineOrderRef(kitchenOrder.getOnlineOrderRef())).isEqualTo(kitchenOrder);
     }
-}
 
+    @Test
+    public void lazy_find_by_ref_loads_pizzas_on_first_access() {
+        repository.add(kitchenOrder);
+        kitchenOrder.startPrep();
+
+        KitchenOrder found = repository.findByRef(ref, FetchPlan.LAZY);
+
+        assertThat(found.isPrepping()).isTrue();
+        assertThat(((LazyList<KitchenOrder.Pizza>) found.getPizzas()).isLoaded()).isFalse();
+        assertThat(found).isEqualTo(kitchenOrder);
+        assertThat(((LazyList<KitchenOrder.Pizza>) found.getPizzas()).isLoaded()).isTrue();
+    }
+
+    @Test
+    public void add_writes_nothing_when_a_pizza_cannot_be_inserted() throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("ALTER TABLE KITCHEN_ORDER_PIZZAS ADD CONSTRAINT NO_LARGE_PIZZAS CHECK (SIZE < 2)")) {
+            statement.execute();
+        }
+        KitchenOrder kitchenOrder = KitchenOrder.builder()
+                .ref(repository.nextIdentity())
+                .onlineOrderRef(new OnlineOrderRef(RefStringGenerator.generateRefString()))
+                .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.MEDIUM).build())
+                .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.LARGE).build())
+                .eventLog(eventLog)
+                .build();
+
+        assertThatThrownBy(() -> repository.add(kitchenOrder)).isInstanceOf(RuntimeException.class);
+
+        assertThat(count("SELECT COUNT(*) FROM KITCHEN_ORDERS")).isZero();
+        assertThat(count("SELECT COUNT(*) FROM KITCHEN_ORDER_PIZZAS")).isZero();
+    }
 
+    private long count(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Test
+    public void find_by_state_follows_order_through_its_lifecycle() {
+        repository.add(kitchenOrder);
+
+        assertThat(repository.findByState(KitchenOrder.State.NEW)).containsExactly(kitchenOrder);
+
+        kitchenOrder.startPrep();
+
+        assertThat(repository.findByState(KitchenOrder.State.PREPPING)).containsExactly(kitchenOrder);
+        assertThat(repository.findByState(KitchenOrder.State.NEW)).isEmpty();
+    }
+}
@@ -3,6 +3,8 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
@@ -13,8 +15,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.mock;
@@ -86,6 +91,58 @@ public class EmbeddedJdbcKitchenOrderRepositoryTests {
         connection.close();
     }
 
+    @Test
+    public void bootstrapping_an_existing_schema_keeps_its_orders() {
+        repository.add(kitchenOrder);
+
+        KitchenOrderRepository reopened = new EmbeddedJdbcKitchenOrderRepository(eventLog,
+                new Topic("kitchen_orders"),
+                pool);
+
+        assertThat(reopened.findByRef(ref)).isEqualTo(kitchenOrder);
+    }
+
+    @Test
+    public void bootstrapping_converts_varchar_refs_to_uuids() throws SQLException {
+        KitchenOrder order = KitchenOrder.builder()
+                .ref(ref)
+                .onlineOrderRef(new OnlineOrderRef(RefId.generate()))
+                .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.MEDIUM).build())
+                .eventLog(eventLog)
+                .build();
+        Connection connection = pool.getConnection();
+        connection.prepareStatement("DROP ALL OBJECTS").execute();
+        connection.prepareStatement("CREATE TABLE KITCHEN_ORDERS (REF VARCHAR(255), ONLINE_ORDER_REF VARCHAR(255), STATE INT)").execute();
+        connection.prepareStatement("CREATE TABLE KITCHEN_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)").execute();
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO KITCHEN_ORDERS (REF, ONLINE_ORDER_REF, STATE) VALUES (?, ?, ?)");
+        statement.setString(1, ref.getReference());
+        statement.setString(2, order.getOnlineOrderRef().getReference());
+        statement.setInt(3, order.getState().ordinal());
+        statement.execute();
+        statement = connection.prepareStatement("INSERT INTO KITCHEN_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, 0, ?)");
+        statement.setString(1, ref.getReference());
+        statement.setInt(2, KitchenOrder.Pizza.Size.MEDIUM.ordinal());
+        statement.execute();
+        connection.close();
+
+        KitchenOrderRepository migrated = new EmbeddedJdbcKitchenOrderRepository(eventLog,
+                new Topic("kitchen_orders"),
+                pool);
+
+        assertThat(migrated.findByRef(ref)).isEqualTo(order);
+        assertThat(migrated.findByOnlineOrderRef(order.getOnlineOrderRef())).isEqualTo(order);
+    }
+
+    @Test
+    public void schema_rejects_pizzas_without_an_order() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO KITCHEN_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, 0, 0)");
+        statement.setString(1, ref.getReference());
+
+        assertThatThrownBy(statement::execute).isInstanceOf(SQLException.class);
+        connection.close();
+    }
+
     @Test
     public void add_stores_in_database() throws SQLException {
         repository.add(kitchenOrder);
@@ -95,8 +152,8 @@ public class EmbeddedJdbcKitchenOrderRepositoryTests {
         statement.setString(1, kitchenOrder.getRef().getReference());
         ResultSet resultSet = statement.executeQuery();
         resultSet.first();
-        String reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(kitchenOrder.getRef().getReference());
+        RefId reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(kitchenOrder.getRef().getId());
         connection.close();
     }
 
@@ -106,8 +163,32 @@ public class EmbeddedJdbcKitchenOrderRepositoryTests {
         assertThat(repository.findByRef(ref)).isEqualTo(kitchenOrder);
     }
 
+    @Test
+    public void find_all_by_refs_hydrates_added_orders_in_requested_order() {
+        KitchenOrder other = KitchenOrder.builder()
+                .ref(repository.nextIdentity())
+                .onlineOrderRef(new OnlineOrderRef())
+                .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.SMALL).build())
+                .pizza(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.LARGE).build())
+                .eventLog(eventLog)
+                .build();
+        repository.add(kitchenOrder);
+        repository.add(other);
+        KitchenOrderRef unknown = repository.nextIdentity();
+
+        Map<KitchenOrderRef, KitchenOrder> found = repository.findAllByRefs(Arrays.asList(other.getRef(), unknown, ref));
+
+        assertThat(found).containsOnlyKeys(other.getRef(), ref);
+        assertThat(found.keySet()).containsExactly(other.getRef(), ref);
+        assertThat(found.get(ref)).isEqualTo(kitchenOrder);
+        assertThat(found.get(other.getRef())).isEqualTo(other);
+    }
+
     @Test
     public void subscribes_to_kitchen_orders_topic() {
-        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderPrepStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderBakeStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderAssemblyStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderAssemblyFinishedEvent.class), isA(EventHandler.class));
     }
 }
@@ -0,0 +1,103 @@
+package com.mattstine.dddworkshop.pizzashop.kitchen;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWritePolicy;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class EmbeddedJdbcPizzaRepositoryBenchmarks {
+
+    private EmbeddedJdbcPizzaRepository repository;
+    private InProcessEventLog eventLog;
+    private JdbcConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test;MVCC=FALSE", "", "");
+        eventLog = InProcessEventLog.synchronous();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (repository != null) {
+            repository.close();
+        }
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS")) {
+            statement.execute();
+        }
+
+        pool.dispose();
+    }
+
+    @Test
+    public void state_transition_throughput_with_write_behind() {
+        int pizzasPerRound = 2_000;
+        long immediate = 0;
+        long buffered = 0;
+        EmbeddedJdbcPizzaRepository writeBehind = null;
+
+        // alternate so that neither write path runs only cold, or only against the larger table
+        for (int round = 0; round < 3; round++) {
+            eventLog.purgeSubscribers();
+            repository = new EmbeddedJdbcPizzaRepository(eventLog, new Topic("pizzas"), pool);
+            immediate = transitionsPerSecond(pizzas(pizzasPerRound, repository));
+
+            eventLog.purgeSubscribers();
+            writeBehind = new EmbeddedJdbcPizzaRepository(eventLog, new Topic("pizzas"), pool,
+                    StateWritePolicy.writeBehind(1_000, 10_000, 50, TimeUnit.MILLISECONDS));
+            buffered = transitionsPerSecond(pizzas(pizzasPerRound, writeBehind));
+            repository.close();
+            writeBehind.close();
+        }
+
+        System.out.printf("Pizza state transitions: immediate -> %,7d/s, write-behind -> %,7d/s%n", immediate, buffered);
+        assertThat(writeBehind.findByState(Pizza.State.BAKED).count()).isEqualTo(6L * pizzasPerRound);
+    }
+
+    private List<Pizza> pizzas(int count, PizzaRepository target) {
+        List<Pizza> pizzas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Pizza next = Pizza.builder()
+                    .ref(target.nextIdentity())
+                    .size(Pizza.Size.MEDIUM)
+                    .kitchenOrderRef(new KitchenOrderRef(RefStringGenerator.generateRefString()))
+                    .eventLog(eventLog)
+                    .build();
+            target.add(next);
+            pizzas.add(next);
+        }
+        return pizzas;
+    }
+
+    private long transitionsPerSecond(List<Pizza> pizzas) {
+        long start = System.nanoTime();
+        for (Pizza next : pizzas) {
+            next.startPrep();
+            next.finishPrep();
+            next.startBake();
+            next.finishBake();
+        }
+        long elapsed = System.nanoTime() - start;
+        return TimeUnit.SECONDS.toNanos(1) * pizzas.size() * 4 / Math.max(elapsed, 1);
+    }
+}
@@ -3,6 +3,7 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWritePolicy;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
 import org.junit.Before;
@@ -10,13 +11,17 @@ import org.junit.Test;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class EmbeddedJdbcPizzaRepositoryIntegrationTests {
 
-    private PizzaRepository repository;
+    private static final StateWritePolicy WRITE_BEHIND = StateWritePolicy.writeBehind(10_000, 10_000, 1, TimeUnit.HOURS);
+
+    private EmbeddedJdbcPizzaRepository repository;
     private InProcessEventLog eventLog;
     private PizzaRef ref;
     private Pizza pizza;
@@ -41,6 +46,8 @@ public class EmbeddedJdbcPizzaRepositoryIntegrationTests {
 
     @After
     public void tearDown() throws SQLException {
+        repository.close();
+
         Connection connection = pool.getConnection();
         PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS");
         statement.execute();
@@ -85,4 +92,48 @@ public class EmbeddedJdbcPizzaRepositoryIntegrationTests {
         assertThat(repository.findByRef(ref)).isEqualTo(pizza);
     }
 
+    @Test
+    public void write_behind_finds_buffered_state_before_it_is_written() throws SQLException {
+        EmbeddedJdbcPizzaRepository writeBehind = writeBehindRepository();
+        writeBehind.add(pizza);
+        pizza.startPrep();
+        pizza.finishPrep();
+
+        assertThat(storedState(ref)).isEqualTo(Pizza.State.NEW.ordinal());
+        assertThat(writeBehind.findByRef(ref)).isEqualTo(pizza);
+        assertThat(writeBehind.findByState(Pizza.State.PREPPED)).containsExactly(pizza);
+        assertThat(writeBehind.findByState(Pizza.State.NEW)).isEmpty();
+        assertThat(writeBehind.findPizzasByKitchenOrderRef(pizza.getKitchenOrderRef())).containsExactly(pizza);
+    }
+
+    @Test
+    public void write_behind_close_writes_buffered_state() throws SQLException {
+        EmbeddedJdbcPizzaRepository writeBehind = writeBehindRepository();
+        writeBehind.add(pizza);
+        pizza.startPrep();
+
+        writeBehind.close();
+
+        assertThat(storedState(ref)).isEqualTo(Pizza.State.PREPPING.ordinal());
+    }
+
+    private EmbeddedJdbcPizzaRepository writeBehindRepository() {
+        eventLog.purgeSubscribers();
+        repository = new EmbeddedJdbcPizzaRepository(eventLog,
+                new Topic("pizzas"),
+                pool,
+                WRITE_BEHIND);
+        return repository;
+    }
+
+    private int storedState(PizzaRef pizzaRef) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT STATE FROM PIZZAS WHERE REF = ?")) {
+            statement.setString(1, pizzaRef.getReference());
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.first();
+            return resultSet.getInt(1);
+        }
+    }
+
 }
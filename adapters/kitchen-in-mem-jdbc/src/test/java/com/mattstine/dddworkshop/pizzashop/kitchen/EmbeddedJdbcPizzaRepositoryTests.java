@@ -3,6 +3,8 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
 import org.junit.Before;
@@ -12,6 +14,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -71,8 +75,8 @@ public class EmbeddedJdbcPizzaRepositoryTests {
         statement.setString(1, pizza.getRef().getReference());
         ResultSet resultSet = statement.executeQuery();
         resultSet.first();
-        String reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(pizza.getRef().getReference());
+        RefId reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(pizza.getRef().getId());
         connection.close();
     }
 
@@ -88,15 +92,53 @@ public class EmbeddedJdbcPizzaRepositoryTests {
         verify(eventLog).publish(eq(new Topic("pizzas")), eq(event));
     }
 
+    @Test
+    public void add_all_stores_in_database_and_fires_events_as_one_batch() {
+        Pizza other = Pizza.builder()
+                .ref(repository.nextIdentity())
+                .size(Pizza.Size.LARGE)
+                .kitchenOrderRef(pizza.getKitchenOrderRef())
+                .eventLog(eventLog)
+                .build();
+
+        repository.addAll(Arrays.asList(pizza, other));
+
+        assertThat(repository.findPizzasByKitchenOrderRef(pizza.getKitchenOrderRef())).containsExactlyInAnyOrder(pizza, other);
+        verify(eventLog).publishAll(eq(new Topic("pizzas")), eq(Arrays.asList(
+                new PizzaAddedEvent(ref, pizza.state()),
+                new PizzaAddedEvent(other.getRef(), other.state()))));
+    }
+
     @Test
     public void find_by_ref_hydrates_added_pizza() {
         repository.add(pizza);
         assertThat(repository.findByRef(ref)).isEqualTo(pizza);
     }
 
+    @Test
+    public void find_all_by_refs_hydrates_added_pizzas_in_requested_order() {
+        Pizza other = Pizza.builder()
+                .ref(repository.nextIdentity())
+                .size(Pizza.Size.LARGE)
+                .kitchenOrderRef(pizza.getKitchenOrderRef())
+                .eventLog(eventLog)
+                .build();
+        repository.addAll(Arrays.asList(pizza, other));
+        PizzaRef unknown = repository.nextIdentity();
+
+        Map<PizzaRef, Pizza> found = repository.findAllByRefs(Arrays.asList(other.getRef(), unknown, ref));
+
+        assertThat(found.keySet()).containsExactly(other.getRef(), ref);
+        assertThat(found.get(ref)).isEqualTo(pizza);
+        assertThat(found.get(other.getRef())).isEqualTo(other);
+    }
+
     @Test
     public void subscribes_to_pizzas_topic() {
-        verify(eventLog).subscribe(eq(new Topic("pizzas")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaPrepStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaPrepFinishedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaBakeStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaBakeFinishedEvent.class), isA(EventHandler.class));
     }
 
 }
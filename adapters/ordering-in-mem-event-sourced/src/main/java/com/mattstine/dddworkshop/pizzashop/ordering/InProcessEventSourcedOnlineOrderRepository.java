@@ -3,37 +3,52 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.InProcessEventSourcedRepository;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateIndex;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.UniqueIndex;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * @author Matt Stine
  */
 final class InProcessEventSourcedOnlineOrderRepository extends InProcessEventSourcedRepository<OnlineOrderRef, OnlineOrder, OnlineOrder.OrderState, OnlineOrderEvent, OnlineOrderAddedEvent> implements OnlineOrderRepository {
+    static final int DEFAULT_SNAPSHOT_INTERVAL = 64;
 
-    private final Map<PaymentRef, OnlineOrderRef> paymentRefToOrderRef;
+    private final UniqueIndex<PaymentRef, OnlineOrderRef> paymentRefToOrderRef;
+    private final StateIndex<OnlineOrder.State, OnlineOrderRef> onlineOrdersByState;
 
     InProcessEventSourcedOnlineOrderRepository(EventLog eventLog,
                                                Topic topic) {
-        super(eventLog, OnlineOrderRef.class, OnlineOrder.class, OnlineOrder.OrderState.class, OnlineOrderAddedEvent.class, topic);
+        this(eventLog, topic, DEFAULT_SNAPSHOT_INTERVAL);
+    }
 
-        paymentRefToOrderRef = new HashMap<>();
+    InProcessEventSourcedOnlineOrderRepository(EventLog eventLog,
+                                               Topic topic,
+                                               int snapshotInterval) {
+        super(eventLog, OnlineOrderRef.class, OnlineOrder.class, OnlineOrder.OrderState.class, OnlineOrderAddedEvent.class, topic, snapshotInterval);
 
-        eventLog.subscribe(topic, (e) -> {
-            if (e instanceof PaymentRefAssignedEvent) {
-                PaymentRefAssignedEvent prae = (PaymentRefAssignedEvent) e;
-                this.paymentRefToOrderRef.put(prae.getPaymentRef(), prae.getRef());
-            }
-        });
+        paymentRefToOrderRef = uniqueIndex(PaymentRefAssignedEvent.class, PaymentRefAssignedEvent::getPaymentRef);
+        onlineOrdersByState = stateIndex(InProcessEventSourcedOnlineOrderRepository::stateAfter);
     }
 
     @Override
     public OnlineOrder findByPaymentRef(PaymentRef paymentRef) {
-        OnlineOrderRef ref = paymentRefToOrderRef.get(paymentRef);
-        if (ref != null) {
-            return this.findByRef(ref);
+        return findBy(paymentRefToOrderRef, paymentRef);
+    }
+
+    @Override
+    public Stream<OnlineOrder> findByState(OnlineOrder.State state) {
+        return findAllBy(onlineOrdersByState, state);
+    }
+
+    private static OnlineOrder.State stateAfter(OnlineOrderEvent event) {
+        if (event instanceof OnlineOrderAddedEvent) {
+            return ((OnlineOrderAddedEvent) event).getOrderState().getState();
+        } else if (event instanceof OnlineOrderSubmittedEvent) {
+            return OnlineOrder.State.SUBMITTED;
+        } else if (event instanceof OnlineOrderPaidEvent) {
+            return OnlineOrder.State.PAID;
         }
         return null;
     }
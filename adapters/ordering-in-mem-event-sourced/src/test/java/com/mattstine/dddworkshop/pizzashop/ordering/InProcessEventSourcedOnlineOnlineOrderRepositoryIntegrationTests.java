@@ -2,12 +2,14 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 /**
  * @author Matt Stine
@@ -49,4 +51,46 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryIntegrationTests {
 
         assertThat(repository.findByPaymentRef(paymentRef)).isEqualTo(onlineOrder);
     }
+
+    @Test
+    public void find_by_ref_hydrates_order_from_snapshot_and_tail() {
+        repository.add(onlineOrder);
+        for (int i = 0; i < InProcessEventSourcedOnlineOrderRepository.DEFAULT_SNAPSHOT_INTERVAL * 3 + 7; i++) {
+            onlineOrder.addPizza(pizza);
+        }
+        onlineOrder.submit();
+
+        assertThat(repository.findByRef(onlineOrder.getRef())).isEqualTo(onlineOrder);
+    }
+
+    @Test
+    public void stale_order_cannot_append() {
+        repository.add(onlineOrder);
+        for (int i = 0; i < InProcessEventSourcedOnlineOrderRepository.DEFAULT_SNAPSHOT_INTERVAL + 1; i++) {
+            onlineOrder.addPizza(pizza);
+        }
+        OnlineOrder first = repository.findByRef(onlineOrder.getRef());
+        OnlineOrder second = repository.findByRef(onlineOrder.getRef());
+        assertThat(first.getVersion()).isEqualTo(InProcessEventSourcedOnlineOrderRepository.DEFAULT_SNAPSHOT_INTERVAL + 2);
+
+        first.submit();
+
+        assertThatExceptionOfType(VersionConflictException.class).isThrownBy(second::submit);
+        second = repository.findByRef(onlineOrder.getRef());
+        assertThat(second.isSubmitted()).isTrue();
+        assertThat(second.getVersion()).isEqualTo(first.getVersion());
+    }
+
+    @Test
+    public void find_by_state_follows_order_through_its_lifecycle() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+
+        assertThat(repository.findByState(OnlineOrder.State.NEW)).contains(onlineOrder);
+
+        onlineOrder.submit();
+
+        assertThat(repository.findByState(OnlineOrder.State.SUBMITTED)).contains(onlineOrder);
+        assertThat(repository.findByState(OnlineOrder.State.NEW)).doesNotContain(onlineOrder);
+    }
 }
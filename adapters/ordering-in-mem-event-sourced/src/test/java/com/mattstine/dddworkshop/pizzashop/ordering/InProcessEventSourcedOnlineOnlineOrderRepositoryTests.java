@@ -1,14 +1,20 @@
 package com.mattstine.dddworkshop.pizzashop.ordering;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.ReadCountingList;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -54,7 +60,7 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
     public void find_by_ref_hydrates_added_order() {
         repository.add(onlineOrder);
 
-        when(eventLog.eventsBy(new Topic("ordering")))
+        when(eventLog.eventsBy(new Topic("ordering"), ref))
                 .thenReturn(Collections.singletonList(new OnlineOrderAddedEvent(ref, onlineOrder.state())));
 
         assertThat(repository.findByRef(ref)).isEqualTo(onlineOrder);
@@ -65,7 +71,7 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
         repository.add(onlineOrder);
         onlineOrder.addPizza(pizza);
 
-        when(eventLog.eventsBy(new Topic("ordering")))
+        when(eventLog.eventsBy(new Topic("ordering"), ref))
                 .thenReturn(Arrays.asList(new OnlineOrderAddedEvent(ref, onlineOrder.state()),
                         new PizzaAddedEvent(ref, pizza)));
 
@@ -78,7 +84,7 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
         onlineOrder.addPizza(pizza);
         onlineOrder.submit();
 
-        when(eventLog.eventsBy(new Topic("ordering")))
+        when(eventLog.eventsBy(new Topic("ordering"), ref))
                 .thenReturn(Arrays.asList(new OnlineOrderAddedEvent(ref, onlineOrder.state()),
                         new PizzaAddedEvent(ref, pizza),
                         new OnlineOrderSubmittedEvent(ref)));
@@ -95,7 +101,7 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
         PaymentRef paymentRef = new PaymentRef();
         onlineOrder.assignPaymentRef(paymentRef);
 
-        when(eventLog.eventsBy(new Topic("ordering")))
+        when(eventLog.eventsBy(new Topic("ordering"), ref))
                 .thenReturn(Arrays.asList(new OnlineOrderAddedEvent(ref, onlineOrder.state()),
                         new PizzaAddedEvent(ref, pizza),
                         new OnlineOrderSubmittedEvent(ref),
@@ -115,7 +121,7 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
 
         onlineOrder.markPaid();
 
-        when(eventLog.eventsBy(new Topic("ordering")))
+        when(eventLog.eventsBy(new Topic("ordering"), ref))
                 .thenReturn(Arrays.asList(new OnlineOrderAddedEvent(ref, onlineOrder.state()),
                         new PizzaAddedEvent(ref, pizza),
                         new OnlineOrderSubmittedEvent(ref),
@@ -126,8 +132,64 @@ public class InProcessEventSourcedOnlineOnlineOrderRepositoryTests {
     }
 
     @Test
-    public void subscribes_to_ordering_topic() {
-        verify(eventLog).subscribe(eq(new Topic("ordering")), isA(EventHandler.class));
+    public void find_by_ref_replays_only_events_since_latest_snapshot() {
+        assertThat(eventsReplayedToLoadAfter(100)).isEqualTo(5);
+        assertThat(eventsReplayedToLoadAfter(10_000)).isEqualTo(5);
     }
 
+    private int eventsReplayedToLoadAfter(int pizzas) {
+        repository = new InProcessEventSourcedOnlineOrderRepository(eventLog, new Topic("ordering"), 10);
+        ref = repository.nextIdentity();
+        onlineOrder = OnlineOrder.builder()
+                .ref(ref)
+                .type(OnlineOrder.Type.PICKUP)
+                .eventLog(eventLog)
+                .build();
+
+        List<Event> history = new ArrayList<>();
+        history.add(new OnlineOrderAddedEvent(ref, onlineOrder.state()));
+        for (int i = 0; i < pizzas; i++) {
+            onlineOrder.addPizza(pizza);
+            history.add(new PizzaAddedEvent(ref, pizza));
+        }
+        when(eventLog.eventsBy(new Topic("ordering"), ref)).thenReturn(history);
+        assertThat(repository.findByRef(ref)).isEqualTo(onlineOrder);
+
+        for (int i = 0; i < 5; i++) {
+            onlineOrder.addPizza(pizza);
+            history.add(new PizzaAddedEvent(ref, pizza));
+        }
+        ReadCountingList events = new ReadCountingList(history);
+        when(eventLog.eventsBy(new Topic("ordering"), ref)).thenReturn(events);
+        assertThat(repository.findByRef(ref)).isEqualTo(onlineOrder);
+
+        return events.getReads();
+    }
+
+    @Test
+    public void delivered_events_only_read_the_stream_when_a_snapshot_is_due() {
+        eventLog = mock(EventLog.class);
+        repository = new InProcessEventSourcedOnlineOrderRepository(eventLog, new Topic("ordering"), 10);
+        ArgumentCaptor<EventHandler> handlers = ArgumentCaptor.forClass(EventHandler.class);
+        verify(eventLog, atLeastOnce()).subscribe(eq(new Topic("ordering")), eq(AggregateEvent.class), handlers.capture());
+
+        List<Event> history = new ArrayList<>();
+        when(eventLog.eventsBy(new Topic("ordering"), ref)).thenReturn(history);
+        for (int i = 0; i < 25; i++) {
+            Event event = i == 0 ? new OnlineOrderAddedEvent(ref, onlineOrder.state()) : new PizzaAddedEvent(ref, pizza);
+            history.add(event);
+            handlers.getAllValues().forEach(handler -> handler.handleEvent(event));
+        }
+
+        verify(eventLog, times(2)).eventsBy(new Topic("ordering"), ref);
+        ReadCountingList events = new ReadCountingList(history);
+        when(eventLog.eventsBy(new Topic("ordering"), ref)).thenReturn(events);
+        repository.findByRef(ref);
+        assertThat(events.getReads()).isEqualTo(5);
+    }
+
+    @Test
+    public void subscribes_to_ordering_topic() {
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(PaymentRefAssignedEvent.class), isA(EventHandler.class));
+    }
 }
@@ -0,0 +1,65 @@
+package com.mattstine.dddworkshop.pizzashop.ordering;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with <code>mvn test -Pbenchmarks</code>.
+ *
+ * @author Matt Stine
+ */
+public class InProcessEventSourcedOnlineOrderRepositoryBenchmarks {
+
+    private OnlineOrderRepository repository;
+    private OnlineOrder onlineOrder;
+    private InProcessEventLog eventLog;
+
+    @Before
+    public void setUp() {
+        eventLog = InProcessEventLog.instance();
+        repository = new InProcessEventSourcedOnlineOrderRepository(eventLog,
+                new Topic("ordering"));
+        onlineOrder = OnlineOrder.builder()
+                .ref(repository.nextIdentity())
+                .type(OnlineOrder.Type.PICKUP)
+                .eventLog(eventLog)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        this.eventLog.purgeSubscribers();
+    }
+
+    @Test
+    public void find_by_ref_throughput() {
+        repository.add(onlineOrder);
+        for (int i = 0; i < 10; i++) {
+            onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.MEDIUM).build());
+        }
+        onlineOrder.submit();
+        OnlineOrderRef ref = onlineOrder.getRef();
+
+        // warm up
+        loadsPerSecond(ref);
+
+        System.out.printf("OnlineOrder findByRef: %,10d loads/s%n", loadsPerSecond(ref));
+        assertThat(repository.findByRef(ref)).isEqualTo(onlineOrder);
+    }
+
+    private long loadsPerSecond(OnlineOrderRef ref) {
+        int loads = 100_000;
+        long began = System.nanoTime();
+        for (int i = 0; i < loads; i++) {
+            assertThat(repository.findByRef(ref)).isNotNull();
+        }
+        return loads * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - began);
+    }
+}
@@ -0,0 +1,78 @@
+package com.mattstine.dddworkshop.pizzashop.ordering;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.EmbeddedJdbcEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
+import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Matt Stine
+ */
+public class InProcessEventSourcedOnlineOrderRepositoryJdbcEventStoreIntegrationTests {
+    private JdbcConnectionPool pool;
+    private EmbeddedJdbcEventLog eventLog;
+    private OnlineOrderRepository repository;
+    private OnlineOrder onlineOrder;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test", "", "");
+        eventLog = EmbeddedJdbcEventLog.open(pool);
+        repository = new InProcessEventSourcedOnlineOrderRepository(eventLog, OnlineOrder.TOPIC);
+        onlineOrder = OnlineOrder.builder()
+                .ref(repository.nextIdentity())
+                .type(OnlineOrder.Type.DELIVERY)
+                .eventLog(eventLog)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS");
+        statement.execute();
+        connection.close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void restarted_repository_rehydrates_order_from_event_store() {
+        PaymentRef paymentRef = new PaymentRef(RefStringGenerator.generateRefString());
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.LARGE).build());
+        onlineOrder.submit();
+        onlineOrder.assignPaymentRef(paymentRef);
+
+        EmbeddedJdbcEventLog reopened = EmbeddedJdbcEventLog.open(pool);
+        OnlineOrderRepository restarted = new InProcessEventSourcedOnlineOrderRepository(reopened, OnlineOrder.TOPIC);
+
+        OnlineOrder found = restarted.findByRef(onlineOrder.getRef());
+        assertThat(found).isEqualTo(onlineOrder);
+        assertThat(found.getVersion()).isEqualTo(4);
+        assertThat(restarted.findByPaymentRef(paymentRef)).isEqualTo(onlineOrder);
+    }
+
+    @Test
+    public void stale_order_cannot_append_to_event_store() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.LARGE).build());
+        OnlineOrder stale = repository.findByRef(onlineOrder.getRef());
+
+        onlineOrder.submit();
+
+        assertThatExceptionOfType(VersionConflictException.class).isThrownBy(stale::submit);
+        assertThat(eventLog.eventsBy(OnlineOrder.TOPIC, onlineOrder.getRef())).hasSize(3);
+    }
+}
@@ -2,7 +2,11 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import org.h2.jdbcx.JdbcConnectionPool;
 
@@ -10,12 +14,35 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * @author Matt Stine
  */
 final class EmbeddedJdbcOnlineOrderRepository implements OnlineOrderRepository {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("ONLINE_ORDERS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS ONLINE_ORDERS (REF VARCHAR(255), TYPE INT, STATE INT, PAYMENT_REF VARCHAR(255), VERSION BIGINT)",
+                    "CREATE INDEX IF NOT EXISTS ONLINE_ORDERS_STATE ON ONLINE_ORDERS (STATE)",
+                    "CREATE TABLE IF NOT EXISTS ONLINE_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)")
+            .version(2,
+                    "ALTER TABLE ONLINE_ORDERS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE ONLINE_ORDERS ADD CONSTRAINT ONLINE_ORDERS_PK PRIMARY KEY (REF)",
+                    "CREATE INDEX ONLINE_ORDERS_PAYMENT_REF ON ONLINE_ORDERS (PAYMENT_REF)",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ALTER COLUMN REF SET NOT NULL",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ALTER COLUMN INDEX SET NOT NULL",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ADD CONSTRAINT ONLINE_ORDER_PIZZAS_PK PRIMARY KEY (REF, INDEX)",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ADD CONSTRAINT ONLINE_ORDER_PIZZAS_ONLINE_ORDERS_FK FOREIGN KEY (REF) REFERENCES ONLINE_ORDERS (REF)")
+            .version(3,
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS DROP CONSTRAINT ONLINE_ORDER_PIZZAS_ONLINE_ORDERS_FK",
+                    "ALTER TABLE ONLINE_ORDERS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE ONLINE_ORDERS ALTER COLUMN PAYMENT_REF UUID",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ALTER COLUMN REF UUID NOT NULL",
+                    "ALTER TABLE ONLINE_ORDER_PIZZAS ADD CONSTRAINT ONLINE_ORDER_PIZZAS_ONLINE_ORDERS_FK FOREIGN KEY (REF) REFERENCES ONLINE_ORDERS (REF)")
+            .build();
+    private static final String SELECT_WITH_PIZZAS = "SELECT o.REF, o.TYPE, o.STATE, o.PAYMENT_REF, o.VERSION, p.SIZE FROM ONLINE_ORDERS o LEFT JOIN ONLINE_ORDER_PIZZAS p ON p.REF = o.REF";
+
     private final EventLog eventLog;
     private final Topic topic;
     private final JdbcConnectionPool pool;
@@ -25,86 +52,89 @@ final class EmbeddedJdbcOnlineOrderRepository implements OnlineOrderRepository {
         this.topic = topic;
         this.pool = pool;
 
+        SCHEMA.migrate(pool);
+
+        eventLog.subscribe(topic, PizzaAddedEvent.class, e -> insertPizza((PizzaAddedEvent) e));
+        eventLog.subscribe(topic, PaymentRefAssignedEvent.class, e -> updatePaymentRef((PaymentRefAssignedEvent) e));
+        eventLog.subscribe(topic, OnlineOrderPaidEvent.class,
+                e -> updateState(((OnlineOrderPaidEvent) e).getRef(), OnlineOrder.State.PAID));
+        eventLog.subscribe(topic, OnlineOrderSubmittedEvent.class,
+                e -> updateState(((OnlineOrderSubmittedEvent) e).getRef(), OnlineOrder.State.SUBMITTED));
+    }
+
+    /*
+     * The next INDEX is read and the row inserted in one transaction, so
+     * concurrent additions to the same order cannot claim the same INDEX.
+     */
+    private void insertPizza(PizzaAddedEvent pae) {
         try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("CREATE TABLE ONLINE_ORDERS (REF VARCHAR(255), TYPE INT, STATE INT, PAYMENT_REF VARCHAR(255))");
-            statement.execute();
+            connection.setAutoCommit(false);
+            try (PreparedStatement indexStatement = connection.prepareStatement("SELECT MAX(INDEX) FROM ONLINE_ORDER_PIZZAS WHERE REF = ? FOR UPDATE");
+                 PreparedStatement pizzaStatement = connection.prepareStatement("INSERT INTO ONLINE_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)")) {
+                RefColumns.setRef(indexStatement, 1, pae.getRef());
+                ResultSet resultSet = indexStatement.executeQuery();
+                int index = 0;
+                if (resultSet.first()) {
+                    index = resultSet.getInt(1) + 1;
+                }
+
+                RefColumns.setRef(pizzaStatement, 1, pae.getRef());
+                pizzaStatement.setInt(2, index);
+                pizzaStatement.setInt(3, pae.getPizza().getSize().ordinal());
+                pizzaStatement.execute();
+
+                incrementVersion(connection, pae.getRef());
 
-            statement = connection.prepareStatement("CREATE TABLE ONLINE_ORDER_PIZZAS (REF VARCHAR(255), INDEX INT, SIZE INT)");
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            throw new RuntimeException("Unable to insert Pizza into ONLINE_ORDER_PIZZAS table: ", ex);
+        }
+    }
+
+    private void updatePaymentRef(PaymentRefAssignedEvent prae) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("UPDATE ONLINE_ORDERS SET PAYMENT_REF = ?, VERSION = VERSION + 1 WHERE REF = ?")) {
+            RefColumns.setRef(statement, 1, prae.getPaymentRef());
+            RefColumns.setRef(statement, 2, prae.getRef());
             statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to initialize ONLINE_ORDERS table: ", e);
+        } catch (SQLException ex) {
+            throw new RuntimeException("Unable to update PAYMENT_REF in ONLINE_ORDERS table: ", ex);
         }
+    }
 
-        eventLog.subscribe(topic, e -> {
-            if (e instanceof PizzaAddedEvent) {
-                PizzaAddedEvent pae = (PizzaAddedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("SELECT MAX(INDEX) FROM ONLINE_ORDER_PIZZAS WHERE REF = ? FOR UPDATE");
-                    statement.setString(1, pae.getRef().getReference());
-                    ResultSet resultSet = statement.executeQuery();
-                    int index = 0;
-                    if (resultSet.first()) {
-                        index = resultSet.getInt(1) + 1;
-                    }
-
-                    statement = connection.prepareStatement("INSERT INTO ONLINE_ORDER_PIZZAS (REF, INDEX, SIZE) VALUES (?, ?, ?)");
-                    statement.setString(1, pae.getRef().getReference());
-                    statement.setInt(2, index);
-                    statement.setInt(3, pae.getPizza().getSize().ordinal());
-                    statement.execute();
-
-                    connection.commit();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to insert Pizza into ONLINE_ORDER_PIZZAS table: ", ex);
-                }
-            } else if (e instanceof PaymentRefAssignedEvent) {
-                PaymentRefAssignedEvent prae = (PaymentRefAssignedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE ONLINE_ORDERS SET PAYMENT_REF = ? WHERE REF = ?");
-                    statement.setString(1, prae.getPaymentRef().getReference());
-                    statement.setString(2, prae.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update PAYMENT_REF in ONLINE_ORDERS table: ", ex);
-                }
-            } else if (e instanceof OnlineOrderPaidEvent) {
-                OnlineOrderPaidEvent oope = (OnlineOrderPaidEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE ONLINE_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, OnlineOrder.State.PAID.ordinal());
-                    statement.setString(2, oope.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in ONLINE_ORDERS table: ", ex);
-                }
-            } else if (e instanceof OnlineOrderSubmittedEvent) {
-                OnlineOrderSubmittedEvent oose = (OnlineOrderSubmittedEvent) e;
-
-                try (Connection connection = pool.getConnection()) {
-                    PreparedStatement statement = connection
-                            .prepareStatement("UPDATE ONLINE_ORDERS SET STATE = ? WHERE REF = ?");
-                    statement.setInt(1, OnlineOrder.State.SUBMITTED.ordinal());
-                    statement.setString(2, oose.getRef().getReference());
-                    statement.execute();
-                } catch (SQLException ex) {
-                    throw new RuntimeException("Unable to update STATE in ONLINE_ORDERS table: ", ex);
-                }
-            }
+    private void updateState(OnlineOrderRef ref, OnlineOrder.State state) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("UPDATE ONLINE_ORDERS SET STATE = ?, VERSION = VERSION + 1 WHERE REF = ?")) {
+            statement.setInt(1, state.ordinal());
+            RefColumns.setRef(statement, 2, ref);
+            statement.execute();
+        } catch (SQLException ex) {
+            throw new RuntimeException("Unable to update STATE in ONLINE_ORDERS table: ", ex);
+        }
+    }
 
-        });
+    private void incrementVersion(Connection connection, OnlineOrderRef ref) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE ONLINE_ORDERS SET VERSION = VERSION + 1 WHERE REF = ?")) {
+            RefColumns.setRef(statement, 1, ref);
+            statement.execute();
+        }
     }
 
+    /**
+     * VERSION mirrors the number of events in the order's stream, starting with the add event, so an order read
+     * back from the table appends with the same expected version as one replayed from the {@link EventLog}.
+     */
     @Override
     public void add(OnlineOrder onlineOrder) {
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO ONLINE_ORDERS (REF, TYPE, STATE) VALUES (?, ?, ?)");
-            statement.setString(1, onlineOrder.getRef().getReference());
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO ONLINE_ORDERS (REF, TYPE, STATE, VERSION) VALUES (?, ?, ?, 1)")) {
+            RefColumns.setRef(statement, 1, onlineOrder.getRef());
             statement.setInt(2, onlineOrder.getType().ordinal());
             statement.setInt(3, onlineOrder.getState().ordinal());
             statement.execute();
@@ -113,6 +143,7 @@ final class EmbeddedJdbcOnlineOrderRepository implements OnlineOrderRepository {
         }
 
         this.eventLog.publish(topic, new OnlineOrderAddedEvent(onlineOrder.getRef(), onlineOrder.state()));
+        onlineOrder.setVersion(1);
     }
 
     @Override
@@ -122,55 +153,133 @@ final class EmbeddedJdbcOnlineOrderRepository implements OnlineOrderRepository {
 
     @Override
     public OnlineOrder findByRef(OnlineOrderRef ref) {
-        OnlineOrder onlineOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, TYPE, STATE, PAYMENT_REF FROM ONLINE_ORDERS WHERE REF = ?");
-            onlineOrder = rehydrateOnlineOrder(ref, connection, statement);
+        return findByRef(ref, FetchPlan.EAGER);
+    }
+
+    /**
+     * With {@link FetchPlan#EAGER}, the order and its pizzas are read by one join of ONLINE_ORDERS and
+     * ONLINE_ORDER_PIZZAS. With {@link FetchPlan#LAZY}, only ONLINE_ORDERS is queried; ONLINE_ORDER_PIZZAS is
+     * queried when the order's pizzas are first accessed.
+     */
+    @Override
+    public OnlineOrder findByRef(OnlineOrderRef ref, FetchPlan fetchPlan) {
+        return findOne("REF", ref, fetchPlan);
+    }
+
+    @Override
+    public OnlineOrder findByPaymentRef(PaymentRef paymentRef) {
+        return findByPaymentRef(paymentRef, FetchPlan.EAGER);
+    }
+
+    @Override
+    public OnlineOrder findByPaymentRef(PaymentRef paymentRef, FetchPlan fetchPlan) {
+        return findOne("PAYMENT_REF", paymentRef, fetchPlan);
+    }
+
+    @Override
+    public Stream<OnlineOrder> findByState(OnlineOrder.State state) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.STATE = ? ORDER BY o.REF, p.INDEX")) {
+            statement.setInt(1, state.ordinal());
+            return rehydrateOnlineOrders(statement.executeQuery()).stream();
         } catch (SQLException e) {
-            throw new RuntimeException("Unable to retrieve OnlineOrder from ONLINE_ORDERS table: ", e);
+            throw new RuntimeException("Unable to retrieve OnlineOrders from ONLINE_ORDERS table: ", e);
         }
-        return onlineOrder;
     }
 
+    /**
+     * Loads every requested order, with its pizzas, from one join of ONLINE_ORDERS and ONLINE_ORDER_PIZZAS.
+     */
     @Override
-    public OnlineOrder findByPaymentRef(PaymentRef paymentRef) {
-        OnlineOrder onlineOrder;
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT REF, TYPE, STATE, PAYMENT_REF FROM ONLINE_ORDERS WHERE PAYMENT_REF = ?");
-            onlineOrder = rehydrateOnlineOrder(paymentRef, connection, statement);
+    public Map<OnlineOrderRef, OnlineOrder> findAllByRefs(Collection<OnlineOrderRef> refs) {
+        Map<OnlineOrderRef, OnlineOrder> found = new HashMap<>();
+        if (!refs.isEmpty()) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(SELECT_WITH_PIZZAS + " WHERE o.REF IN " + RefColumns.inClause(refs.size()) + " ORDER BY o.REF, p.INDEX")) {
+                RefColumns.setRefs(statement, refs);
+                rehydrateOnlineOrders(statement.executeQuery())
+                        .forEach(onlineOrder -> found.put(onlineOrder.getRef(), onlineOrder));
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to retrieve OnlineOrders from ONLINE_ORDERS table: ", e);
+            }
+        }
+
+        return RefColumns.inRequestedOrder(refs, found);
+    }
+
+    private OnlineOrder findOne(String column, Ref ref, FetchPlan fetchPlan) {
+        String sql = fetchPlan == FetchPlan.LAZY
+                ? "SELECT REF, TYPE, STATE, PAYMENT_REF, VERSION FROM ONLINE_ORDERS o WHERE o." + column + " = ?"
+                : SELECT_WITH_PIZZAS + " WHERE o." + column + " = ? ORDER BY o.REF, p.INDEX";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            RefColumns.setRef(statement, 1, ref);
+            ResultSet resultSet = statement.executeQuery();
+            if (fetchPlan == FetchPlan.LAZY) {
+                return resultSet.next() ? rehydrateLazily(resultSet) : null;
+            }
+            List<OnlineOrder> onlineOrders = rehydrateOnlineOrders(resultSet);
+            return onlineOrders.isEmpty() ? null : onlineOrders.get(0);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to retrieve OnlineOrder from ONLINE_ORDERS table: ", e);
         }
-        return onlineOrder;
     }
 
-    private OnlineOrder rehydrateOnlineOrder(Ref ref, Connection connection, PreparedStatement statement) throws SQLException {
-        OnlineOrder onlineOrder = null;
-        statement.setString(1, ref.getReference());
-        ResultSet resultSet = statement.executeQuery();
-        if (resultSet.first()) {
-            OnlineOrderRef onlineOrderRef = new OnlineOrderRef(resultSet.getString(1));
-            int type = resultSet.getInt(2);
-            int state = resultSet.getInt(3);
-            onlineOrder = OnlineOrder.builder()
-                    .ref(onlineOrderRef)
-                    .type(OnlineOrder.Type.values()[type])
+    /*
+     * Expects the rows of SELECT_WITH_PIZZAS ordered by REF and then
+     * INDEX, so each order's rows are adjacent. An order without pizzas
+     * has a single row with a NULL SIZE.
+     */
+    private List<OnlineOrder> rehydrateOnlineOrders(ResultSet resultSet) throws SQLException {
+        List<OnlineOrder> onlineOrders = new ArrayList<>();
+        boolean more = resultSet.next();
+        while (more) {
+            RefId ref = RefColumns.getRefId(resultSet, 1);
+            OnlineOrder onlineOrder = OnlineOrder.builder()
+                    .ref(new OnlineOrderRef(ref))
+                    .type(OnlineOrder.Type.values()[resultSet.getInt(2)])
                     .eventLog(eventLog)
                     .build();
-            Optional<String> optPaymentRef = Optional.ofNullable(resultSet.getString(4));
-            if (optPaymentRef.isPresent()) {
-                onlineOrder.setPaymentRef(new PaymentRef(optPaymentRef.get()));
-            }
-            onlineOrder.setState(OnlineOrder.State.values()[state]);
+            setScalars(onlineOrder, resultSet);
+            do {
+                int size = resultSet.getInt(6);
+                if (!resultSet.wasNull()) {
+                    onlineOrder.getPizzas().add(Pizza.builder().size(Pizza.Size.values()[size]).build());
+                }
+                more = resultSet.next();
+            } while (more && ref.equals(RefColumns.getRefId(resultSet, 1)));
+            onlineOrders.add(onlineOrder);
+        }
+        return onlineOrders;
+    }
 
-            statement = connection.prepareStatement("SELECT REF, INDEX, SIZE FROM ONLINE_ORDER_PIZZAS WHERE REF = ? ORDER BY INDEX");
-            statement.setString(1, onlineOrderRef.getReference());
-            resultSet = statement.executeQuery();
+    private OnlineOrder rehydrateLazily(ResultSet resultSet) throws SQLException {
+        OnlineOrderRef onlineOrderRef = new OnlineOrderRef(RefColumns.getRefId(resultSet, 1));
+        OnlineOrder onlineOrder = OnlineOrder.withLazyPizzas(OnlineOrder.Type.values()[resultSet.getInt(2)], eventLog, onlineOrderRef, () -> findPizzas(onlineOrderRef));
+        setScalars(onlineOrder, resultSet);
+        return onlineOrder;
+    }
+
+    private static void setScalars(OnlineOrder onlineOrder, ResultSet resultSet) throws SQLException {
+        onlineOrder.setState(OnlineOrder.State.values()[resultSet.getInt(3)]);
+        Optional.ofNullable(RefColumns.getRefId(resultSet, 4))
+                .ifPresent(paymentRef -> onlineOrder.setPaymentRef(new PaymentRef(paymentRef)));
+        onlineOrder.setVersion(resultSet.getLong(5));
+    }
 
+    private List<Pizza> findPizzas(OnlineOrderRef ref) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT REF, INDEX, SIZE FROM ONLINE_ORDER_PIZZAS WHERE REF = ? ORDER BY INDEX")) {
+            RefColumns.setRef(statement, 1, ref);
+            ResultSet resultSet = statement.executeQuery();
+
+            List<Pizza> pizzas = new ArrayList<>();
             while (resultSet.next()) {
-                onlineOrder.getPizzas().add(Pizza.builder().size(Pizza.Size.values()[resultSet.getInt(3)]).build());
+                pizzas.add(Pizza.builder().size(Pizza.Size.values()[resultSet.getInt(3)]).build());
             }
+            return pizzas;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Pizzas from ONLINE_ORDER_PIZZAS table: ", e);
         }
-        return onlineOrder;
     }
 }
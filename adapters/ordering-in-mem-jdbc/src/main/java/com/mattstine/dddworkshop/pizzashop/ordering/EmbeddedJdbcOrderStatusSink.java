@@ -0,0 +1,126 @@
+package com.mattstine.dddworkshop.pizzashop.ordering;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.ProjectionSink;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Keeps the {@link OrderStatus} views in an ORDER_STATUS table, and the projection's checkpoint in a
+ * PROJECTION_CHECKPOINTS table that any number of projections can share, so a restarted {@link
+ * com.mattstine.dddworkshop.pizzashop.infrastructure.projection.adapters.Projector} resumes where it stopped.
+ *
+ * @author Matt Stine
+ */
+final class EmbeddedJdbcOrderStatusSink implements ProjectionSink<OnlineOrderRef, OrderStatus> {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("ORDER_STATUS")
+            .version(1, "CREATE TABLE IF NOT EXISTS ORDER_STATUS (REF VARCHAR(255) PRIMARY KEY, TYPE INT, STATE INT, PAYMENT_REF VARCHAR(255))")
+            .build();
+    private static final SchemaMigrations CHECKPOINTS_SCHEMA = SchemaMigrations.builder("PROJECTION_CHECKPOINTS")
+            .version(1, "CREATE TABLE IF NOT EXISTS PROJECTION_CHECKPOINTS (NAME VARCHAR(255) PRIMARY KEY, NEXT_OFFSET BIGINT)")
+            .build();
+
+    private final JdbcConnectionPool pool;
+    private final String name;
+
+    EmbeddedJdbcOrderStatusSink(JdbcConnectionPool pool) {
+        this.pool = pool;
+        this.name = OrderStatus.PROJECTION.getName();
+
+        SCHEMA.migrate(pool);
+        CHECKPOINTS_SCHEMA.migrate(pool);
+    }
+
+    @Override
+    public OrderStatus find(OnlineOrderRef ref) {
+        OrderStatus status = null;
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT TYPE, STATE, PAYMENT_REF FROM ORDER_STATUS WHERE REF = ?")) {
+            statement.setString(1, ref.getReference());
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                String paymentRef = resultSet.getString(3);
+                status = new OrderStatus(ref,
+                        OnlineOrder.Type.values()[resultSet.getInt(1)],
+                        OnlineOrder.State.values()[resultSet.getInt(2)],
+                        paymentRef == null ? null : new PaymentRef(paymentRef));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve OrderStatus from ORDER_STATUS table: ", e);
+        }
+        return status;
+    }
+
+    @Override
+    public void save(OnlineOrderRef ref, OrderStatus status) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("MERGE INTO ORDER_STATUS (REF, TYPE, STATE, PAYMENT_REF) KEY (REF) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1, ref.getReference());
+            statement.setInt(2, status.getType().ordinal());
+            statement.setInt(3, status.getState().ordinal());
+            if (status.getPaymentRef() == null) {
+                statement.setNull(4, Types.VARCHAR);
+            } else {
+                statement.setString(4, status.getPaymentRef().getReference());
+            }
+            statement.execute();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to save OrderStatus into ORDER_STATUS table: ", e);
+        }
+    }
+
+    @Override
+    public void delete(OnlineOrderRef ref) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM ORDER_STATUS WHERE REF = ?")) {
+            statement.setString(1, ref.getReference());
+            statement.execute();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to delete OrderStatus from ORDER_STATUS table: ", e);
+        }
+    }
+
+    @Override
+    public long getCheckpoint() {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT NEXT_OFFSET FROM PROJECTION_CHECKPOINTS WHERE NAME = ?")) {
+            statement.setString(1, name);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve checkpoint from PROJECTION_CHECKPOINTS table: ", e);
+        }
+    }
+
+    @Override
+    public void checkpoint(long offset) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("MERGE INTO PROJECTION_CHECKPOINTS (NAME, NEXT_OFFSET) KEY (NAME) VALUES (?, ?)")) {
+            statement.setString(1, name);
+            statement.setLong(2, offset);
+            statement.execute();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to update PROJECTION_CHECKPOINTS table: ", e);
+        }
+    }
+
+    @Override
+    public void clear() {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement deleteViews = connection.prepareStatement("DELETE FROM ORDER_STATUS");
+             PreparedStatement deleteCheckpoint = connection.prepareStatement("DELETE FROM PROJECTION_CHECKPOINTS WHERE NAME = ?")) {
+            deleteViews.execute();
+
+            deleteCheckpoint.setString(1, name);
+            deleteCheckpoint.execute();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to clear ORDER_STATUS table: ", e);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.LazyList;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
@@ -12,8 +15,11 @@ import org.junit.Test;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 /**
  * @author Matt Stine
@@ -109,4 +115,84 @@ public class EmbeddedJdbcOnlineOrderRepositoryIntegrationTests {
 
         assertThat(repository.findByPaymentRef(paymentRef)).isEqualTo(onlineOrder);
     }
+
+    @Test
+    public void find_by_ref_loads_version_matching_event_stream() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+        onlineOrder.submit();
+
+        OnlineOrder found = repository.findByRef(ref);
+        assertThat(found.getVersion()).isEqualTo(3).isEqualTo(eventLog.eventsBy(new Topic("ordering"), ref).size());
+    }
+
+    @Test
+    public void stale_order_cannot_append() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+        OnlineOrder first = repository.findByRef(ref);
+        OnlineOrder second = repository.findByRef(ref);
+
+        first.submit();
+
+        assertThatExceptionOfType(VersionConflictException.class).isThrownBy(() -> second.addPizza(pizza));
+        assertThat(repository.findByRef(ref).getPizzas()).containsExactly(pizza);
+    }
+
+    @Test
+    public void lazy_find_by_paymentRef_loads_pizzas_on_first_access() {
+        PaymentRef paymentRef = new PaymentRef(RefStringGenerator.generateRefString());
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+        onlineOrder.assignPaymentRef(paymentRef);
+
+        OnlineOrder found = repository.findByPaymentRef(paymentRef, FetchPlan.LAZY);
+
+        assertThat(((LazyList<Pizza>) found.getPizzas()).isLoaded()).isFalse();
+        assertThat(found).isEqualTo(onlineOrder);
+    }
+
+    @Test
+    public void lazily_found_order_rejects_more_pizzas() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+
+        OnlineOrder found = repository.findByRef(ref, FetchPlan.LAZY);
+
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> found.addPizza(Pizza.builder().size(Pizza.Size.LARGE).build()));
+        assertThat(repository.findByRef(ref)).isEqualTo(onlineOrder);
+    }
+
+    @Test
+    public void find_all_by_refs_hydrates_orders_with_and_without_pizzas() {
+        OnlineOrder empty = OnlineOrder.builder()
+                .ref(repository.nextIdentity())
+                .type(OnlineOrder.Type.DELIVERY)
+                .eventLog(eventLog)
+                .build();
+        repository.add(onlineOrder);
+        repository.add(empty);
+        onlineOrder.addPizza(pizza);
+        onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.LARGE).build());
+
+        Map<OnlineOrderRef, OnlineOrder> found = repository.findAllByRefs(Arrays.asList(empty.getRef(), ref));
+
+        assertThat(found.keySet()).containsExactly(empty.getRef(), ref);
+        assertThat(found.get(ref)).isEqualTo(onlineOrder);
+        assertThat(found.get(empty.getRef())).isEqualTo(empty);
+    }
+
+    @Test
+    public void find_by_state_follows_order_through_its_lifecycle() {
+        repository.add(onlineOrder);
+        onlineOrder.addPizza(pizza);
+
+        assertThat(repository.findByState(OnlineOrder.State.NEW)).containsExactly(onlineOrder);
+
+        onlineOrder.submit();
+
+        assertThat(repository.findByState(OnlineOrder.State.SUBMITTED)).containsExactly(onlineOrder);
+        assertThat(repository.findByState(OnlineOrder.State.NEW)).isEmpty();
+    }
 }
@@ -3,6 +3,8 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
 import org.junit.Before;
@@ -96,8 +98,8 @@ public class EmbeddedJdbcOnlineOrderRepositoryTests {
         statement.setString(1, onlineOrder.getRef().getReference());
         ResultSet resultSet = statement.executeQuery();
         resultSet.first();
-        String reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(onlineOrder.getRef().getReference());
+        RefId reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(onlineOrder.getRef().getId());
         connection.close();
     }
 
@@ -109,7 +111,10 @@ public class EmbeddedJdbcOnlineOrderRepositoryTests {
 
     @Test
     public void subscribes_to_ordering_topic() {
-        verify(eventLog).subscribe(eq(new Topic("ordering")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(PizzaAddedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(PaymentRefAssignedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(OnlineOrderPaidEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(OnlineOrderSubmittedEvent.class), isA(EventHandler.class));
     }
 
 }
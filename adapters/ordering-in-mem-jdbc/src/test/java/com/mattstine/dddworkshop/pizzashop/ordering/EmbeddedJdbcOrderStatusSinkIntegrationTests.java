@@ -0,0 +1,97 @@
+package com.mattstine.dddworkshop.pizzashop.ordering;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.adapters.InProcessEventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.adapters.Projector;
+import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Matt Stine
+ */
+public class EmbeddedJdbcOrderStatusSinkIntegrationTests {
+    private InProcessEventLog eventLog;
+    private OnlineOrderRepository repository;
+    private JdbcConnectionPool pool;
+    private EmbeddedJdbcOrderStatusSink sink;
+    private OnlineOrderRef ref;
+    private OnlineOrder onlineOrder;
+
+    @Before
+    public void setUp() {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:test;MVCC=FALSE", "", "");
+
+        eventLog = InProcessEventLog.instance();
+        repository = new EmbeddedJdbcOnlineOrderRepository(eventLog, OnlineOrder.TOPIC, pool);
+        sink = new EmbeddedJdbcOrderStatusSink(pool);
+        ref = repository.nextIdentity();
+        onlineOrder = OnlineOrder.builder()
+                .ref(ref)
+                .type(OnlineOrder.Type.DELIVERY)
+                .eventLog(eventLog)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("DROP ALL OBJECTS");
+        statement.execute();
+        connection.close();
+
+        pool.dispose();
+        eventLog.purgeSubscribers();
+    }
+
+    @Test
+    public void started_projector_keeps_order_status_current() {
+        new Projector<>(eventLog, OrderStatus.PROJECTION, sink, 100).start();
+        PaymentRef paymentRef = new PaymentRef(RefStringGenerator.generateRefString());
+
+        repository.add(onlineOrder);
+        assertThat(sink.find(ref)).isEqualTo(new OrderStatus(ref, OnlineOrder.Type.DELIVERY, OnlineOrder.State.NEW, null));
+
+        onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.MEDIUM).build());
+        onlineOrder.submit();
+        onlineOrder.assignPaymentRef(paymentRef);
+        onlineOrder.markPaid();
+
+        assertThat(sink.find(ref)).isEqualTo(new OrderStatus(ref, OnlineOrder.Type.DELIVERY, OnlineOrder.State.PAID, paymentRef));
+    }
+
+    @Test
+    public void projector_resumes_from_stored_checkpoint() {
+        repository.add(onlineOrder);
+        new Projector<>(eventLog, OrderStatus.PROJECTION, sink, 100).catchUp();
+        long checkpoint = sink.getCheckpoint();
+
+        onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.MEDIUM).build());
+        onlineOrder.submit();
+
+        Projector<OnlineOrderRef, OrderStatus> restarted =
+                new Projector<>(eventLog, OrderStatus.PROJECTION, new EmbeddedJdbcOrderStatusSink(pool), 1);
+        assertThat(restarted.catchUp()).isEqualTo(2);
+        assertThat(sink.getCheckpoint()).isEqualTo(checkpoint + 2);
+        assertThat(sink.find(ref).getState()).isEqualTo(OnlineOrder.State.SUBMITTED);
+    }
+
+    @Test
+    public void rebuild_replays_whole_topic() {
+        Projector<OnlineOrderRef, OrderStatus> projector = new Projector<>(eventLog, OrderStatus.PROJECTION, sink, 100);
+        repository.add(onlineOrder);
+        projector.catchUp();
+        sink.delete(ref);
+
+        assertThat(projector.rebuild()).isEqualTo(eventLog.eventsBy(OnlineOrder.TOPIC).size());
+        assertThat(sink.find(ref).getState()).isEqualTo(OnlineOrder.State.NEW);
+    }
+}
@@ -3,13 +3,38 @@ package com.mattstine.dddworkshop.pizzashop.payments;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.InProcessEventSourcedRepository;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateIndex;
+
+import java.util.stream.Stream;
 
 /**
  * @author Matt Stine
  */
 final class InProcessEventSourcedPaymentRepository extends InProcessEventSourcedRepository<PaymentRef, Payment, Payment.PaymentState, PaymentEvent, PaymentAddedEvent> implements PaymentRepository {
+    private final StateIndex<Payment.State, PaymentRef> paymentsByState;
+
     InProcessEventSourcedPaymentRepository(EventLog eventLog,
                                            Topic topic) {
         super(eventLog, PaymentRef.class, Payment.class, Payment.PaymentState.class, PaymentAddedEvent.class, topic);
+
+        paymentsByState = stateIndex(InProcessEventSourcedPaymentRepository::stateAfter);
+    }
+
+    @Override
+    public Stream<Payment> findByState(Payment.State state) {
+        return findAllBy(paymentsByState, state);
+    }
+
+    private static Payment.State stateAfter(PaymentEvent event) {
+        if (event instanceof PaymentAddedEvent) {
+            return Payment.State.NEW;
+        } else if (event instanceof PaymentRequestedEvent) {
+            return Payment.State.REQUESTED;
+        } else if (event instanceof PaymentSuccessfulEvent) {
+            return Payment.State.SUCCESSFUL;
+        } else if (event instanceof PaymentFailedEvent) {
+            return Payment.State.FAILED;
+        }
+        return null;
     }
 }
@@ -52,7 +52,7 @@ public class InProcessEventSourcedPaymentRepositoryTests {
     public void find_by_ref_hydrates_added_payment() {
         repository.add(payment);
 
-        when(eventLog.eventsBy(new Topic("payments")))
+        when(eventLog.eventsBy(new Topic("payments"), ref))
                 .thenReturn(Collections.singletonList(new PaymentAddedEvent(ref, payment.state())));
 
 
@@ -64,7 +64,7 @@ public class InProcessEventSourcedPaymentRepositoryTests {
         repository.add(payment);
         payment.request();
 
-        when(eventLog.eventsBy(new Topic("payments")))
+        when(eventLog.eventsBy(new Topic("payments"), ref))
                 .thenReturn(Arrays.asList(new PaymentAddedEvent(ref, payment.state()),
                         new PaymentRequestedEvent(ref)));
 
@@ -77,7 +77,7 @@ public class InProcessEventSourcedPaymentRepositoryTests {
         payment.request();
         payment.markSuccessful();
 
-        when(eventLog.eventsBy(new Topic("payments")))
+        when(eventLog.eventsBy(new Topic("payments"), ref))
                 .thenReturn(Arrays.asList(new PaymentAddedEvent(ref, payment.state()),
                         new PaymentRequestedEvent(ref),
                         new PaymentSuccessfulEvent(ref)));
@@ -91,7 +91,7 @@ public class InProcessEventSourcedPaymentRepositoryTests {
         payment.request();
         payment.markFailed();
 
-        when(eventLog.eventsBy(new Topic("payments")))
+        when(eventLog.eventsBy(new Topic("payments"), ref))
                 .thenReturn(Arrays.asList(new PaymentAddedEvent(ref, payment.state()),
                         new PaymentRequestedEvent(ref),
                         new PaymentFailedEvent(ref)));
@@ -3,57 +3,81 @@ package com.mattstine.dddworkshop.pizzashop.payments;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.valuetypes.Amount;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.SchemaMigrations;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWriteBuffer;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.StateWritePolicy;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
 import org.h2.jdbcx.JdbcConnectionPool;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author Matt Stine
  */
 final class EmbeddedJdbcPaymentRepository implements PaymentRepository {
+    private static final SchemaMigrations SCHEMA = SchemaMigrations.builder("PAYMENTS")
+            .version(1,
+                    "CREATE TABLE IF NOT EXISTS PAYMENTS (REF VARCHAR(255) PRIMARY KEY, DOLLARS INT, CENTS INT, STATE INT)",
+                    "CREATE INDEX IF NOT EXISTS PAYMENTS_STATE ON PAYMENTS (STATE)")
+            .version(2,
+                    "DROP INDEX PAYMENTS_STATE",
+                    "CREATE INDEX PAYMENTS_STATE_REF ON PAYMENTS (STATE, REF)")
+            .version(3,
+                    "ALTER TABLE PAYMENTS ALTER COLUMN REF UUID NOT NULL")
+            .build();
 
     private final EventLog eventLog;
     private final Topic topic;
     private final JdbcConnectionPool pool;
+    private final StateWriteBuffer states;
 
     EmbeddedJdbcPaymentRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool) {
+        this(eventLog, topic, pool, StateWritePolicy.immediate());
+    }
+
+    /**
+     * With a {@link StateWritePolicy#writeBehind} policy, state events only update an in-memory buffer, which a
+     * background thread flushes to PAYMENTS; every find overlays the buffered states on the rows it reads.
+     */
+    EmbeddedJdbcPaymentRepository(EventLog eventLog, Topic topic, JdbcConnectionPool pool, StateWritePolicy statePolicy) {
         this.eventLog = eventLog;
         this.topic = topic;
         this.pool = pool;
 
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("CREATE TABLE PAYMENTS (REF VARCHAR(255) PRIMARY KEY, DOLLARS INT, CENTS INT, STATE INT)");
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to initialize PAYMENTS table: ", e);
-        }
+        SCHEMA.migrate(pool);
+        this.states = new StateWriteBuffer(pool, "PAYMENTS", statePolicy);
 
-        eventLog.subscribe(topic, e -> {
-            if (e instanceof PaymentRequestedEvent) {
-                PaymentRequestedEvent pre = (PaymentRequestedEvent) e;
-                updatePaymentState(pre.getRef(), Payment.State.REQUESTED);
-            } else if (e instanceof PaymentSuccessfulEvent) {
-                PaymentSuccessfulEvent pre = (PaymentSuccessfulEvent) e;
-                updatePaymentState(pre.getRef(), Payment.State.SUCCESSFUL);
-            } else if (e instanceof PaymentFailedEvent) {
-                PaymentFailedEvent pre = (PaymentFailedEvent) e;
-                updatePaymentState(pre.getRef(), Payment.State.FAILED);
-            }
-        });
+        eventLog.subscribe(topic, PaymentRequestedEvent.class,
+                e -> updatePaymentState(((PaymentRequestedEvent) e).getRef(), Payment.State.REQUESTED));
+        eventLog.subscribe(topic, PaymentSuccessfulEvent.class,
+                e -> updatePaymentState(((PaymentSuccessfulEvent) e).getRef(), Payment.State.SUCCESSFUL));
+        eventLog.subscribe(topic, PaymentFailedEvent.class,
+                e -> updatePaymentState(((PaymentFailedEvent) e).getRef(), Payment.State.FAILED));
     }
 
     private void updatePaymentState(PaymentRef ref, Payment.State state) {
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("UPDATE PAYMENTS SET STATE = ? WHERE REF = ?");
-            statement.setInt(1, state.ordinal());
-            statement.setString(2, ref.getReference());
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to update PAYMENTS.STATE: ", e);
-        }
+        states.put(ref, state.ordinal());
+    }
+
+    /**
+     * Write every buffered state to PAYMENTS now.
+     */
+    void flush() {
+        states.flush();
+    }
+
+    /**
+     * Stop the write-behind thread, if any, after flushing every buffered state.
+     */
+    void close() {
+        states.close();
     }
 
     @Override
@@ -63,9 +87,9 @@ final class EmbeddedJdbcPaymentRepository implements PaymentRepository {
 
     @Override
     public void add(Payment payment) {
-        try (Connection connection = pool.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO PAYMENTS (REF, DOLLARS, CENTS, STATE) VALUES (?, ?, ?, ?)");
-            statement.setString(1, payment.getRef().getReference());
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO PAYMENTS (REF, DOLLARS, CENTS, STATE) VALUES (?, ?, ?, ?)")) {
+            RefColumns.setRef(statement, 1, payment.getRef());
             statement.setInt(2, payment.getAmount().getDollars());
             statement.setInt(3, payment.getAmount().getCents());
             statement.setInt(4, payment.getState().ordinal());
@@ -80,26 +104,87 @@ final class EmbeddedJdbcPaymentRepository implements PaymentRepository {
     @Override
     public Payment findByRef(PaymentRef ref) {
         Payment payment = null;
+        Map<Ref, Integer> pendingStates = states.pendingStates();
         try (Connection connection = pool.getConnection()) {
             PreparedStatement statement = connection.prepareStatement("SELECT REF, DOLLARS, CENTS, STATE FROM PAYMENTS WHERE REF = ?");
-            statement.setString(1, ref.getReference());
+            RefColumns.setRef(statement, 1, ref);
             ResultSet resultSet = statement.executeQuery();
             if (resultSet.first()) {
-                PaymentRef paymentRef = new PaymentRef(resultSet.getString(1));
-                int dollars = resultSet.getInt(2);
-                int cents = resultSet.getInt(3);
-                int state = resultSet.getInt(4);
-                payment = Payment.builder()
-                        .ref(paymentRef)
-                        .amount(Amount.of(dollars, cents))
-                        .paymentProcessor(DummyPaymentProcessor.instance())
-                        .eventLog(eventLog)
-                        .build();
-                payment.setState(Payment.State.values()[state]);
+                payment = buildPayment(resultSet, pendingStates);
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to retrieve Payment from PAYMENTS table: ", e);
         }
         return payment;
     }
+
+    @Override
+    public Stream<Payment> findByState(Payment.State state) {
+        Map<Ref, Integer> pendingStates = states.pendingStates();
+        Map<PaymentRef, Payment> found = new LinkedHashMap<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT REF, DOLLARS, CENTS, STATE FROM PAYMENTS WHERE STATE = ? ORDER BY REF")) {
+            statement.setInt(1, state.ordinal());
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Payment payment = buildPayment(resultSet, Collections.emptyMap());
+                found.put(payment.getRef(), payment);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to retrieve Payments from PAYMENTS table: ", e);
+        }
+        if (pendingStates.isEmpty()) {
+            return found.values().stream();
+        }
+
+        List<PaymentRef> refs = StateWriteBuffer.refsInState(new ArrayList<>(found.keySet()), PaymentRef.class, state.ordinal(), pendingStates);
+        found.putAll(findAllByRefs(refs.stream()
+                .filter(ref -> !found.containsKey(ref))
+                .collect(Collectors.toList())));
+        return refs.stream()
+                .map(found::get)
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public Map<PaymentRef, Payment> findAllByRefs(Collection<PaymentRef> refs) {
+        Map<PaymentRef, Payment> found = new HashMap<>();
+        if (!refs.isEmpty()) {
+            Map<Ref, Integer> pendingStates = states.pendingStates();
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement("SELECT REF, DOLLARS, CENTS, STATE FROM PAYMENTS WHERE REF IN " + RefColumns.inClause(refs.size()))) {
+                RefColumns.setRefs(statement, refs);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    Payment payment = buildPayment(resultSet, pendingStates);
+                    found.put(payment.getRef(), payment);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to retrieve Payments from PAYMENTS table: ", e);
+            }
+        }
+
+        return RefColumns.inRequestedOrder(refs, found);
+    }
+
+    /*
+     * A state still buffered for the payment is newer than its row.
+     */
+    private Payment buildPayment(ResultSet resultSet, Map<Ref, Integer> pendingStates) throws SQLException {
+        PaymentRef paymentRef = new PaymentRef(RefColumns.getRefId(resultSet, 1));
+        int dollars = resultSet.getInt(2);
+        int cents = resultSet.getInt(3);
+        Integer state = pendingStates.get(paymentRef);
+        if (state == null) {
+            state = resultSet.getInt(4);
+        }
+        Payment payment = Payment.builder()
+                .ref(paymentRef)
+                .amount(Amount.of(dollars, cents))
+                .paymentProcessor(DummyPaymentProcessor.instance())
+                .eventLog(eventLog)
+                .build();
+        payment.setState(Payment.State.values()[state]);
+        return payment;
+    }
 }
@@ -78,4 +78,13 @@ public class EmbeddedJdbcPaymentRepositoryIntegrationTests {
 
         assertThat(repository.findByRef(ref)).isEqualTo(payment);
     }
+
+    @Test
+    public void find_by_state_uses_projected_state() {
+        repository.add(payment);
+        payment.request();
+
+        assertThat(repository.findByState(Payment.State.REQUESTED)).containsExactly(payment);
+        assertThat(repository.findByState(Payment.State.NEW)).isEmpty();
+    }
 }
@@ -3,6 +3,8 @@ package com.mattstine.dddworkshop.pizzashop.payments;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.valuetypes.Amount;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.adapters.RefColumns;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.junit.After;
 import org.junit.Before;
@@ -88,8 +90,8 @@ public class EmbeddedJdbcPaymentRepositoryTests {
         statement.setString(1, payment.getRef().getReference());
         ResultSet resultSet = statement.executeQuery();
         resultSet.first();
-        String reference = resultSet.getString(1);
-        assertThat(reference).isEqualTo(payment.getRef().getReference());
+        RefId reference = RefColumns.getRefId(resultSet, 1);
+        assertThat(reference).isEqualTo(payment.getRef().getId());
         connection.close();
     }
 
@@ -8,6 +8,7 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Aggre
 import lombok.*;
 import lombok.experimental.NonFinal;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.function.BiFunction;
 
@@ -110,7 +111,7 @@ public final class DeliveryOrder implements Aggregate {
      * Pizza Value Object for KitchenOrder Details Only
      */
     @Value
-    public static final class Pizza {
+    public static final class Pizza implements Serializable {
         Size size;
 
         @Builder
@@ -1,29 +1,52 @@
 package com.mattstine.dddworkshop.pizzashop.delivery;
 
-import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.Value;
+import lombok.experimental.NonFinal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 /**
  * @author Matt Stine
  */
 @Value
 public final class DeliveryOrderRef implements Ref {
+    private static final long serialVersionUID = 3540442015350596784L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     public static final DeliveryOrderRef IDENTITY = new DeliveryOrderRef("");
-    String reference;
+    @NonFinal
+    RefId id;
 
     @SuppressWarnings("WeakerAccess")
     public DeliveryOrderRef() {
-        this.reference = RefStringGenerator.generateRefString();
+        this.id = RefId.generate();
     }
 
     @SuppressWarnings("SameParameterValue")
     DeliveryOrderRef(String reference) {
-        this.reference = reference;
+        this.id = RefId.of(reference);
+    }
+
+    DeliveryOrderRef(RefId id) {
+        this.id = id;
     }
 
     @Override
     public String getReference() {
-        return reference;
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
     }
 }
@@ -3,9 +3,13 @@ package com.mattstine.dddworkshop.pizzashop.delivery;
 import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenOrderRef;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Repository;
 
+import java.util.stream.Stream;
+
 /**
  * @author Matt Stine
  */
 interface DeliveryOrderRepository extends Repository<DeliveryOrderRef, DeliveryOrder, DeliveryOrder.OrderState, DeliveryOrderEvent, DeliveryOrderAddedEvent> {
     DeliveryOrder findByKitchenOrderRef(KitchenOrderRef kitchenOrderRef);
+
+    Stream<DeliveryOrder> findByState(DeliveryOrder.State state);
 }
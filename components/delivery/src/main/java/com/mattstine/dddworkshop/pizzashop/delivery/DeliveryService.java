@@ -14,6 +14,8 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
  * @author Matt Stine
  */
 final class DeliveryService {
+    private static final Topic KITCHEN_ORDERS = Topic.of("kitchen_orders");
+
     private final EventLog eventLog;
     private final DeliveryOrderRepository deliveryOrderRepository;
     private final OrderingService orderingService;
@@ -25,10 +27,8 @@ final class DeliveryService {
         this.orderingService = orderingService;
         this.kitchenService = kitchenService;
 
-        this.eventLog.subscribe(new Topic("kitchen_orders"), e -> {
-            KitchenOrderAssemblyFinishedEvent kitchenOrderAssemblyFinishedEvent = (KitchenOrderAssemblyFinishedEvent) e;
-            addDeliveryOrderToRepository(kitchenOrderAssemblyFinishedEvent);
-        });
+        this.eventLog.subscribe(KITCHEN_ORDERS, KitchenOrderAssemblyFinishedEvent.class,
+                e -> addDeliveryOrderToRepository((KitchenOrderAssemblyFinishedEvent) e));
     }
 
     private void addDeliveryOrderToRepository(KitchenOrderAssemblyFinishedEvent e) {
@@ -6,6 +6,14 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 
@@ -14,6 +22,17 @@ import static org.mockito.Mockito.mock;
  */
 public class DeliveryOrderTests {
 
+    /*
+     * A DeliveryOrderRef and a KitchenOrderRef serialized before refs held a
+     * RefId. No delivery event could be stored then, as its OnlineOrderRef was
+     * not yet serializable.
+     */
+    private static final String REFS_STORED_BEFORE_REF_IDS = "rO0ABXNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAACdwQAAAACc3IAPWNvbS5tYXR0c3Rp"
+            + "bmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmRlbGl2ZXJ5LkRlbGl2ZXJ5T3JkZXJSZWYxIi1BQNcksAIAAUwACXJlZmVyZW5j"
+            + "ZXQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwdAAkRTFGMjAzMTQtMjUzNi00NzQ4LTk5NkEtN0I4QzlEQUVCRkMwc3IASGNvbS5t"
+            + "YXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmRlbGl2ZXJ5LmFjbC5raXRjaGVuLktpdGNoZW5PcmRlclJlZmuzNZB4"
+            + "ZK5CAgABTAAJcmVmZXJlbmNlcQB+AAN4cHQAJDBCMEUyRjNBLTVDMUQtNEU2Ri04QTlCLTBDMUQyRTNGNEE1Qng=";
+
     private DeliveryOrder deliveryOrder;
     private DeliveryOrderRef ref;
     private EventLog eventLog;
@@ -46,4 +65,18 @@ public class DeliveryOrderTests {
         DeliveryOrderAddedEvent deliveryOrderAddedEvent = new DeliveryOrderAddedEvent(ref, deliveryOrder.state());
         assertThat(deliveryOrder.accumulatorFunction(eventLog).apply(deliveryOrder.identity(), deliveryOrderAddedEvent)).isEqualTo(deliveryOrder);
     }
+
+    @Test
+    public void refs_stored_before_ref_ids_still_deserialize() throws Exception {
+        List<Object> refs = new ArrayList<>(Arrays.asList(new DeliveryOrderRef("E1F20314-2536-4748-996A-7B8C9DAEBFC0"),
+                new KitchenOrderRef("0B0E2F3A-5C1D-4E6F-8A9B-0C1D2E3F4A5B")));
+
+        assertThat(deserialize(REFS_STORED_BEFORE_REF_IDS)).isEqualTo(refs);
+    }
+
+    private static Object deserialize(String payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload)))) {
+            return in.readObject();
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.mattstine.dddworkshop.pizzashop.delivery;
 
+import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenOrderAssemblyFinishedEvent;
 import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenOrderRef;
 import com.mattstine.dddworkshop.pizzashop.delivery.acl.kitchen.KitchenService;
 import com.mattstine.dddworkshop.pizzashop.delivery.acl.ordering.OnlineOrderRef;
@@ -33,7 +34,7 @@ public class DeliveryServiceTests {
 
     @Test
     public void subscribes_to_kitchen_orders_topic() {
-        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderAssemblyFinishedEvent.class), isA(EventHandler.class));
     }
 
     @Test
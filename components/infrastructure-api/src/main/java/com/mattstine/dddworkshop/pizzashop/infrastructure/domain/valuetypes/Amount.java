@@ -4,12 +4,14 @@ import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Value;
 
+import java.io.Serializable;
+
 /**
  * @author Matt Stine
  */
 @Value
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
-public final class Amount {
+public final class Amount implements Serializable {
     public static Amount IDENTITY = Amount.of(0, 0);
     int dollars;
     int cents;
@@ -0,0 +1,16 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import java.util.List;
+
+/**
+ * An {@link EventHandler} that receives the events of one {@link EventLog#publishAll(Topic, List)} in a single
+ * callback instead of one callback per event.
+ *
+ * @author Matt Stine
+ */
+public interface BatchEventHandler extends EventHandler {
+    /**
+     * @param events the batch, in publication order; never empty
+     */
+    void handleEvents(List<Event> events);
+}
@@ -0,0 +1,20 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A bounded run of consecutive events read from a topic, and the offset to continue reading from.
+ *
+ * @author Matt Stine
+ */
+@Value
+public final class EventBatch {
+    List<Event> events;
+    long nextOffset;
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+}
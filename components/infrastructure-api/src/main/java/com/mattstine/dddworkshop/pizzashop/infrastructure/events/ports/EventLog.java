@@ -1,8 +1,11 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
 
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateEvent;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -16,11 +19,26 @@ public interface EventLog {
             throw new NotImplementedException();
         }
 
+        @Override
+        public void publishAll(Topic topic, List<Event> events) {
+            throw new NotImplementedException();
+        }
+
+        @Override
+        public void append(Topic topic, Ref ref, long expectedVersion, List<Event> events) {
+            throw new NotImplementedException();
+        }
+
         @Override
         public void subscribe(Topic topic, EventHandler handler) {
             throw new NotImplementedException();
         }
 
+        @Override
+        public void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+            throw new NotImplementedException();
+        }
+
         @Override
         public int getNumberOfSubscribers(Topic topic) {
             return -1;
@@ -30,15 +48,128 @@ public interface EventLog {
         public List<Event> eventsBy(Topic topic) {
             return null;
         }
+
+        @Override
+        public List<Event> eventsBy(Topic topic, Ref ref) {
+            return null;
+        }
+
+        @Override
+        public EventBatch read(Topic topic, long offset, int maxEvents) {
+            return null;
+        }
     };
 
     void publish(Topic topic, Event event);
 
+    /**
+     * Append <code>events</code> to <code>topic</code> as one batch that no other event is interleaved with.
+     * {@link BatchEventHandler}s receive the whole batch in one callback; other handlers receive its events one
+     * at a time, in order.
+     * <p>
+     * The default implementation simply publishes each event in turn and is not atomic.
+     *
+     * @param topic  the topic to append to
+     * @param events the events to append, in order
+     */
+    default void publishAll(Topic topic, List<Event> events) {
+        events.forEach(event -> publish(topic, event));
+    }
+
+    /**
+     * Append <code>events</code>, all belonging to the aggregate identified by <code>ref</code>, as one batch, but
+     * only if the aggregate's stream on <code>topic</code> still holds exactly <code>expectedVersion</code> events.
+     * Writers that loaded the same aggregate concurrently therefore cannot both succeed: the second is rejected
+     * and must reload and retry, while writers to different aggregates never conflict.
+     * <p>
+     * The default implementation checks and publishes while holding this log's monitor, so it is only atomic with
+     * respect to other versioned appends made through the default implementation.
+     *
+     * @param topic           the topic the aggregate's events are published to
+     * @param ref             the aggregate's identity
+     * @param expectedVersion number of the aggregate's events the caller has seen
+     * @param events          the events to append, in order
+     * @throws VersionConflictException if the aggregate's stream holds any other number of events
+     */
+    default void append(Topic topic, Ref ref, long expectedVersion, List<Event> events) {
+        if (expectedVersion < 0) {
+            throw new IllegalArgumentException("expectedVersion must be >= 0");
+        }
+        for (Event event : events) {
+            if (!(event instanceof AggregateEvent) || !ref.equals(((AggregateEvent) event).getRef())) {
+                throw new IllegalArgumentException("Can only append events of " + ref + ": " + event);
+            }
+        }
+        synchronized (this) {
+            long actualVersion = eventsBy(topic, ref).size();
+            if (actualVersion != expectedVersion) {
+                throw new VersionConflictException(topic, ref, expectedVersion, actualVersion);
+            }
+            publishAll(topic, events);
+        }
+    }
+
     void subscribe(Topic topic, EventHandler handler);
 
+    /**
+     * Subscribe <code>handler</code> to only those events of <code>topic</code> that are instances of
+     * <code>eventType</code>. Adapters route each event to the handlers interested in its type, so the
+     * handler is never invoked for other events and need not check their type.
+     * <p>
+     * The default implementation filters inside a plain subscription and therefore delivers batches to a
+     * {@link BatchEventHandler} one event at a time.
+     */
+    default void subscribe(Topic topic, Class<? extends Event> eventType, EventHandler handler) {
+        subscribe(topic, e -> {
+            if (eventType.isInstance(e)) {
+                handler.handleEvent(e);
+            }
+        });
+    }
+
     @SuppressWarnings("unused")
     int getNumberOfSubscribers(Topic topic);
 
+    /**
+     * Retrieve every event published to <code>topic</code> so far, as an immutable snapshot that later
+     * publishes do not affect. Prefer {@link #read(Topic, long, int)} to process a long history in bounded
+     * batches.
+     */
     List<Event> eventsBy(Topic topic);
 
+    /**
+     * Retrieve only those events published to <code>topic</code> that belong to the aggregate identified by
+     * <code>ref</code>, in publication order.
+     *
+     * @param topic the topic the aggregate's events are published to
+     * @param ref   the aggregate's identity
+     * @return the aggregate's events, or an empty list if none have been published
+     */
+    List<Event> eventsBy(Topic topic, Ref ref);
+
+    /**
+     * Read at most <code>maxEvents</code> consecutive events of <code>topic</code>, starting with the event
+     * at <code>offset</code> (the first event ever published to a topic has offset 0).
+     *
+     * @param topic     the topic to read
+     * @param offset    offset of the first event to return
+     * @param maxEvents upper bound on the size of the batch
+     * @return the events read, possibly none, and the offset to pass to the next read
+     */
+    default EventBatch read(Topic topic, long offset, int maxEvents) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must be >= 0");
+        }
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("maxEvents must be > 0");
+        }
+        List<Event> events = eventsBy(topic);
+        if (offset >= events.size()) {
+            return new EventBatch(Collections.emptyList(), offset);
+        }
+        int from = (int) offset;
+        int to = (int) Math.min(events.size(), offset + maxEvents);
+        return new EventBatch(events.subList(from, to), to);
+    }
+
 }
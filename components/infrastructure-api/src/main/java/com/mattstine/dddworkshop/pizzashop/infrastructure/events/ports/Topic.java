@@ -1,11 +1,35 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
 
-import lombok.Value;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 
 /**
+ * A named stream of events.
+ * <p>
+ * Every name is registered once with a dense, process-wide integer {@link #getId() id}, so topics compare and
+ * hash by that id and event logs may index their per-topic state by it. {@link #of(String)} returns the
+ * interned instance; prefer it, held in a constant, over constructing a new topic on every publish.
+ *
  * @author Matt Stine
  */
-@Value
+@Getter
+@EqualsAndHashCode(of = "id")
+@ToString(of = "name")
 public final class Topic {
-    String name;
+    private final String name;
+    private final int id;
+
+    public Topic(String name) {
+        this(name, TopicRegistry.intern(name).getId());
+    }
+
+    Topic(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    public static Topic of(String name) {
+        return TopicRegistry.intern(name);
+    }
 }
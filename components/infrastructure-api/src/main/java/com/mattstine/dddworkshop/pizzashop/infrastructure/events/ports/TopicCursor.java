@@ -0,0 +1,39 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import java.util.List;
+
+/**
+ * Tails a topic incrementally by remembering the offset of the next unread event.
+ * <p>
+ * A cursor is not thread-safe. To resume after a restart, store {@link #getOffset()} and pass it back in
+ * when creating the next cursor.
+ *
+ * @author Matt Stine
+ */
+public final class TopicCursor {
+    private final EventLog eventLog;
+    private final Topic topic;
+    private long offset;
+
+    public TopicCursor(EventLog eventLog, Topic topic, long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must be >= 0");
+        }
+        this.eventLog = eventLog;
+        this.topic = topic;
+        this.offset = offset;
+    }
+
+    /**
+     * @return up to <code>maxEvents</code> events published since the previous poll; empty once caught up
+     */
+    public List<Event> poll(int maxEvents) {
+        EventBatch batch = eventLog.read(topic, offset, maxEvents);
+        this.offset = batch.getNextOffset();
+        return batch.getEvents();
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
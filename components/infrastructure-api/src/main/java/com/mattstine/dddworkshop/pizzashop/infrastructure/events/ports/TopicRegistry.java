@@ -0,0 +1,29 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns {@link Topic}s by name, assigning ids 0, 1, 2, ... in registration order.
+ *
+ * @author Matt Stine
+ */
+final class TopicRegistry {
+    private static final ConcurrentMap<String, Topic> TOPICS = new ConcurrentHashMap<>();
+    private static int nextId;
+
+    private TopicRegistry() {
+    }
+
+    static Topic intern(String name) {
+        Topic topic = TOPICS.get(name);
+        if (topic == null) {
+            topic = register(name);
+        }
+        return topic;
+    }
+
+    private static synchronized Topic register(String name) {
+        return TOPICS.computeIfAbsent(name, n -> new Topic(n, nextId++));
+    }
+}
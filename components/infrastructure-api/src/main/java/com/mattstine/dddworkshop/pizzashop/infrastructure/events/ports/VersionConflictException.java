@@ -0,0 +1,27 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import lombok.Getter;
+
+/**
+ * Thrown by {@link EventLog#append(Topic, Ref, long, java.util.List)} when other events have been appended to the
+ * aggregate's stream since the caller loaded it. Nothing has been appended; the caller should reload the aggregate
+ * and retry.
+ *
+ * @author Matt Stine
+ */
+@Getter
+public final class VersionConflictException extends RuntimeException {
+    private final Topic topic;
+    private final Ref ref;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public VersionConflictException(Topic topic, Ref ref, long expectedVersion, long actualVersion) {
+        super("Expected " + ref + " at version " + expectedVersion + " on " + topic + " but found version " + actualVersion);
+        this.topic = topic;
+        this.ref = ref;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+}
@@ -0,0 +1,80 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declares a read model derived from one topic: a {@link ProjectionHandler} per event type. Events of any other
+ * type are skipped.
+ * <p>
+ * Handlers are looked up by the exact class of the event, so a projection pays one hash lookup per event no
+ * matter how many handlers it declares.
+ *
+ * @param <K> the type identifying a view
+ * @param <V> the type of the views
+ * @author Matt Stine
+ */
+public final class Projection<K, V> {
+    @Getter
+    private final String name;
+    @Getter
+    private final Topic topic;
+    private final Map<Class<? extends Event>, ProjectionHandler<Event, K, V>> handlers;
+
+    private Projection(String name, Topic topic, Map<Class<? extends Event>, ProjectionHandler<Event, K, V>> handlers) {
+        this.name = name;
+        this.topic = topic;
+        this.handlers = Collections.unmodifiableMap(new LinkedHashMap<>(handlers));
+    }
+
+    public static <K, V> Builder<K, V> builder(String name, Topic topic) {
+        return new Builder<>(name, topic);
+    }
+
+    public Set<Class<? extends Event>> getEventTypes() {
+        return handlers.keySet();
+    }
+
+    /**
+     * Apply <code>event</code> to <code>sink</code> if this projection handles its type.
+     *
+     * @return whether a handler was applied
+     */
+    public boolean apply(Event event, ProjectionSink<K, V> sink) {
+        ProjectionHandler<Event, K, V> handler = handlers.get(event.getClass());
+        if (handler == null) {
+            return false;
+        }
+        handler.apply(event, sink);
+        return true;
+    }
+
+    public static final class Builder<K, V> {
+        private final String name;
+        private final Topic topic;
+        private final Map<Class<? extends Event>, ProjectionHandler<Event, K, V>> handlers = new LinkedHashMap<>();
+
+        private Builder(String name, Topic topic) {
+            this.name = name;
+            this.topic = topic;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <E extends Event> Builder<K, V> on(Class<E> eventType, ProjectionHandler<? super E, K, V> handler) {
+            if (handlers.putIfAbsent(eventType, (ProjectionHandler<Event, K, V>) handler) != null) {
+                throw new IllegalArgumentException(name + " already handles " + eventType.getSimpleName());
+            }
+            return this;
+        }
+
+        public Projection<K, V> build() {
+            return new Projection<>(name, topic, handlers);
+        }
+    }
+}
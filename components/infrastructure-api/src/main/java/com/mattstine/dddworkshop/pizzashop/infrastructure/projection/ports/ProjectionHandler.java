@@ -0,0 +1,13 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
+
+/**
+ * Folds one type of event into the views held by a {@link ProjectionSink}.
+ *
+ * @author Matt Stine
+ */
+@FunctionalInterface
+public interface ProjectionHandler<E extends Event, K, V> {
+    void apply(E event, ProjectionSink<K, V> sink);
+}
@@ -0,0 +1,37 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports;
+
+/**
+ * Stores the views a {@link Projection} maintains, together with the checkpoint: the offset of the first event of
+ * the projection's topic that is not yet reflected in those views.
+ * <p>
+ * A projector saves a batch of views before it advances the checkpoint, so after a crash the events since
+ * the last checkpoint are applied again. Handlers should therefore overwrite views rather than accumulate into
+ * them.
+ *
+ * @param <K> the type identifying a view
+ * @param <V> the type of the views
+ * @author Matt Stine
+ */
+public interface ProjectionSink<K, V> {
+
+    /**
+     * @return the view identified by <code>key</code>, or <code>null</code> if there is none
+     */
+    V find(K key);
+
+    void save(K key, V view);
+
+    void delete(K key);
+
+    /**
+     * @return the offset to resume projecting from; 0 for an empty sink
+     */
+    long getCheckpoint();
+
+    void checkpoint(long offset);
+
+    /**
+     * Remove every view and reset the checkpoint to 0.
+     */
+    void clear();
+}
@@ -0,0 +1,18 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+/**
+ * How much of an aggregate a find method must load before returning it.
+ *
+ * @author Matt Stine
+ */
+public enum FetchPlan {
+    /**
+     * Load the whole aggregate, including collections stored apart from it.
+     */
+    EAGER,
+    /**
+     * Load only the aggregate's own fields; collections stored apart from it are loaded, as a read-only {@link LazyList},
+     * when first accessed. Suits callers that only inspect state.
+     */
+    LAZY
+}
@@ -0,0 +1,54 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A list whose elements are only loaded by the first method that needs them, so a repository can hand out an
+ * aggregate without querying a child collection the caller may never touch.
+ * <p>
+ * Loading happens at most once, even when several threads race to trigger it. The list is read-only: an aggregate
+ * whose collection is to change must be loaded eagerly.
+ *
+ * @author Matt Stine
+ */
+public final class LazyList<E> extends AbstractList<E> {
+    private final Object lock = new Object();
+    private Supplier<? extends List<E>> loader;
+    private volatile List<E> elements;
+
+    public LazyList(Supplier<? extends List<E>> loader) {
+        this.loader = loader;
+    }
+
+    public boolean isLoaded() {
+        return elements != null;
+    }
+
+    @Override
+    public E get(int index) {
+        return elements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return elements().size();
+    }
+
+    private List<E> elements() {
+        List<E> loaded = elements;
+        if (loaded == null) {
+            synchronized (lock) {
+                loaded = elements;
+                if (loaded == null) {
+                    loaded = new ArrayList<>(loader.get());
+                    elements = loaded;
+                    loader = null;
+                }
+            }
+        }
+        return loaded;
+    }
+}
@@ -1,9 +1,25 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
 
+import java.io.Serializable;
+
 /**
+ * Identity of an aggregate.
+ * <p>
+ * Refs are serialized into stored events, so an implementation that holds a {@link RefId} still writes and reads
+ * the form refs had before it did: a single <code>reference</code> String field, under a pinned
+ * <code>serialVersionUID</code>. Events stored by either version therefore replay under the other.
+ *
  * @author Matt Stine
  */
-public interface Ref {
+public interface Ref extends Serializable {
     @SuppressWarnings("unused")
     String getReference();
+
+    /**
+     * The compact form of {@link #getReference()}. Refs that store a {@link RefId} return it as is; the default
+     * parses the reference on every call.
+     */
+    default RefId getId() {
+        return RefId.of(getReference());
+    }
 }
@@ -0,0 +1,167 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Compact identity behind a {@link Ref}.
+ * <p>
+ * A reference in the canonical 36 character UUID form is held as its two 64-bit halves rather than as a String,
+ * which takes about a third of the memory and compares with two <code>long</code> comparisons. The hash is computed
+ * once, when the id is created, so refs used as map keys never rehash. Any other reference, such as the empty
+ * reference of an <code>IDENTITY</code> ref, is kept as the String it was given.
+ * <p>
+ * UUID references are parsed without regard to case and always print in upper case, the form produced by
+ * {@link com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator}.
+ *
+ * @author Matt Stine
+ */
+public final class RefId implements Serializable {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final long mostSignificantBits;
+    private final long leastSignificantBits;
+    private final String reference;
+    private final int hash;
+
+    private RefId(long mostSignificantBits, long leastSignificantBits, String reference) {
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
+        this.reference = reference;
+        this.hash = reference == null
+                ? Long.hashCode(mostSignificantBits ^ leastSignificantBits)
+                : reference.hashCode();
+    }
+
+    /**
+     * Generate a random UUID id without going through its String form.
+     */
+    public static RefId generate() {
+        return of(UUID.randomUUID());
+    }
+
+    /**
+     * @return the id of <code>reference</code>, or <code>null</code> if <code>reference</code> is
+     * <code>null</code>
+     */
+    public static RefId of(String reference) {
+        if (reference == null) {
+            return null;
+        }
+        if (reference.length() != 36) {
+            return new RefId(0, 0, reference);
+        }
+
+        long mostSignificantBits = 0;
+        long leastSignificantBits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = reference.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return new RefId(0, 0, reference);
+                }
+                continue;
+            }
+            int digit = hexValue(c);
+            if (digit < 0) {
+                return new RefId(0, 0, reference);
+            }
+            if (i < 18) {
+                mostSignificantBits = (mostSignificantBits << 4) | digit;
+            } else {
+                leastSignificantBits = (leastSignificantBits << 4) | digit;
+            }
+        }
+        return new RefId(mostSignificantBits, leastSignificantBits, null);
+    }
+
+    /**
+     * @return the id of <code>uuid</code>, or <code>null</code> if <code>uuid</code> is <code>null</code>
+     */
+    public static RefId of(UUID uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        return new RefId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+    }
+
+    public boolean isUuid() {
+        return reference == null;
+    }
+
+    /**
+     * @throws IllegalStateException if this id's reference is not a UUID
+     */
+    public UUID toUuid() {
+        if (!isUuid()) {
+            throw new IllegalStateException("Reference \"" + reference + "\" is not a UUID");
+        }
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RefId)) {
+            return false;
+        }
+        RefId other = (RefId) o;
+        if (hash != other.hash) {
+            return false;
+        }
+        if (reference == null) {
+            return other.reference == null
+                    && mostSignificantBits == other.mostSignificantBits
+                    && leastSignificantBits == other.leastSignificantBits;
+        }
+        return reference.equals(other.reference);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return the reference this id was created from, with a UUID in its upper case canonical form
+     */
+    @Override
+    public String toString() {
+        if (reference != null) {
+            return reference;
+        }
+        char[] chars = new char[36];
+        appendHex(chars, 0, mostSignificantBits >>> 32, 8);
+        chars[8] = '-';
+        appendHex(chars, 9, mostSignificantBits >>> 16, 4);
+        chars[13] = '-';
+        appendHex(chars, 14, mostSignificantBits, 4);
+        chars[18] = '-';
+        appendHex(chars, 19, leastSignificantBits >>> 48, 4);
+        chars[23] = '-';
+        appendHex(chars, 24, leastSignificantBits, 12);
+        return new String(chars);
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static void appendHex(char[] chars, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[offset + i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
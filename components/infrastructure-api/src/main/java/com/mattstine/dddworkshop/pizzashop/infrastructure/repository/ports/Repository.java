@@ -1,9 +1,46 @@
 package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public interface Repository<K extends Ref, T extends Aggregate, S extends AggregateState, U extends AggregateEvent, V extends RepositoryAddEvent> {
     K nextIdentity();
 
     void add(T aggregateInstance);
 
+    /**
+     * Add several aggregates at once. Adapters may store them together and publish their add events as a single
+     * batch; the default simply adds them one at a time.
+     */
+    default void addAll(Collection<T> aggregateInstances) {
+        aggregateInstances.forEach(this::add);
+    }
+
     T findByRef(K ref);
+
+    /**
+     * Like {@link #findByRef(Ref)}, but adapters that store some of the aggregate's collections apart from it may
+     * defer loading them as directed by <code>fetchPlan</code>. The default ignores the plan and loads everything.
+     */
+    default T findByRef(K ref, FetchPlan fetchPlan) {
+        return findByRef(ref);
+    }
+
+    /**
+     * Find several aggregates at once. Adapters may load them with a single query; the default simply finds them
+     * one at a time.
+     *
+     * @return the aggregates found, keyed by ref in the order requested; refs that were not found are absent
+     */
+    default Map<K, T> findAllByRefs(Collection<K> refs) {
+        Map<K, T> aggregates = new LinkedHashMap<>();
+        for (K ref : refs) {
+            T aggregate = findByRef(ref);
+            if (aggregate != null) {
+                aggregates.put(ref, aggregate);
+            }
+        }
+        return aggregates;
+    }
 }
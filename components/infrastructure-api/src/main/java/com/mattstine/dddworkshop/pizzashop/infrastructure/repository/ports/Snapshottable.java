@@ -0,0 +1,24 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+
+/**
+ * Implemented by an {@link Aggregate} whose complete state can be captured, so that a repository can rehydrate
+ * it from its latest snapshot plus the events that followed rather than from its entire history.
+ *
+ * @author Matt Stine
+ */
+public interface Snapshottable<S extends AggregateState> {
+
+    /**
+     * @return the complete state of this aggregate, sharing no mutable structure with it
+     */
+    S snapshot();
+
+    /**
+     * Like {@link Aggregate#identity()}, invoked on an instance created through the private no-args constructor.
+     *
+     * @return a new aggregate equal to the one <code>snapshot</code> was taken of
+     */
+    Aggregate restore(S snapshot, EventLog eventLog);
+}
@@ -0,0 +1,21 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+
+/**
+ * Implemented by an {@link Aggregate} that appends its events with
+ * {@link EventLog#append(Topic, Ref, long, java.util.List)}, so that concurrent writers to the same aggregate
+ * are detected rather than interleaved.
+ * <p>
+ * The version is the number of events in the aggregate's stream that the instance reflects. Repositories set it
+ * whenever they add or load an aggregate; the aggregate advances it with every event it appends.
+ *
+ * @author Matt Stine
+ */
+public interface Versioned {
+
+    long getVersion();
+
+    void setVersion(long version);
+}
@@ -0,0 +1,34 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Matt Stine
+ */
+public class TopicTests {
+
+    @Test
+    public void interns_topics_by_name() {
+        assertThat(Topic.of("interned")).isSameAs(Topic.of("interned"));
+    }
+
+    @Test
+    public void constructed_topics_share_the_interned_id() {
+        Topic topic = new Topic("constructed");
+
+        assertThat(topic).isEqualTo(Topic.of("constructed"));
+        assertThat(topic.hashCode()).isEqualTo(Topic.of("constructed").hashCode());
+        assertThat(topic.getId()).isEqualTo(Topic.of("constructed").getId());
+    }
+
+    @Test
+    public void assigns_distinct_dense_ids() {
+        Topic first = Topic.of("dense-1");
+        Topic second = Topic.of("dense-2");
+
+        assertThat(first).isNotEqualTo(second);
+        assertThat(second.getId()).isEqualTo(first.getId() + 1);
+    }
+}
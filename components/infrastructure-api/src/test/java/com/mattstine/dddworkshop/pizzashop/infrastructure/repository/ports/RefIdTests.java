@@ -0,0 +1,71 @@
+package com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+/**
+ * @author Matt Stine
+ */
+public class RefIdTests {
+
+    @Test
+    public void round_trips_generated_reference_strings() {
+        String reference = RefStringGenerator.generateRefString();
+
+        RefId id = RefId.of(reference);
+
+        assertThat(id.isUuid()).isTrue();
+        assertThat(id.toString()).isEqualTo(reference);
+        assertThat(id.toUuid()).isEqualTo(UUID.fromString(reference));
+    }
+
+    @Test
+    public void parses_uuids_without_regard_to_case() {
+        String reference = "0a1b2c3d-4e5f-4a6b-8c7d-9e0f1a2b3c4d";
+
+        assertThat(RefId.of(reference)).isEqualTo(RefId.of(reference.toUpperCase()));
+        assertThat(RefId.of(reference).hashCode()).isEqualTo(RefId.of(reference.toUpperCase()).hashCode());
+        assertThat(RefId.of(reference).toString()).isEqualTo(reference.toUpperCase());
+    }
+
+    @Test
+    public void equals_id_of_same_uuid() {
+        UUID uuid = UUID.randomUUID();
+
+        assertThat(RefId.of(uuid)).isEqualTo(RefId.of(uuid.toString()));
+        assertThat(RefId.of(uuid).toUuid()).isEqualTo(uuid);
+    }
+
+    @Test
+    public void generates_random_uuids() {
+        RefId id = RefId.generate();
+
+        assertThat(id.isUuid()).isTrue();
+        assertThat(id.toUuid().version()).isEqualTo(4);
+        assertThat(id).isNotEqualTo(RefId.generate());
+    }
+
+    @Test
+    public void keeps_other_references_as_given() {
+        RefId identity = RefId.of("");
+        RefId almostUuid = RefId.of("0A1B2C3D-4E5F-4A6B-8C7D-9E0F1A2B3C4G");
+
+        assertThat(identity.isUuid()).isFalse();
+        assertThat(identity.toString()).isEmpty();
+        assertThat(identity).isEqualTo(RefId.of(""));
+        assertThat(almostUuid.isUuid()).isFalse();
+        assertThat(almostUuid.toString()).isEqualTo("0A1B2C3D-4E5F-4A6B-8C7D-9E0F1A2B3C4G");
+        assertThatIllegalStateException().isThrownBy(identity::toUuid);
+    }
+
+    @Test
+    public void null_references_have_no_id() {
+        assertThat(RefId.of((String) null)).isNull();
+        assertThat(RefId.of((UUID) null)).isNull();
+    }
+}
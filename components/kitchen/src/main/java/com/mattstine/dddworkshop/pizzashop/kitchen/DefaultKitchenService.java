@@ -2,16 +2,21 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrder;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderPaidEvent;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OrderingService;
 import lombok.Value;
 
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Value
 final class DefaultKitchenService implements KitchenService {
+    private static final Topic ORDERING = Topic.of("ordering");
+
     EventLog eventLog;
     KitchenOrderRepository kitchenOrderRepository;
     PizzaRepository pizzaRepository;
@@ -23,44 +28,40 @@ final class DefaultKitchenService implements KitchenService {
         this.pizzaRepository = pizzaRepository;
         this.orderingService = orderingService;
 
-        this.eventLog.subscribe(new Topic("ordering"), (e) -> {
-            if (e instanceof OnlineOrderPaidEvent) {
-                addKitchenOrderToRepository((OnlineOrderPaidEvent) e);
-            }
+        this.eventLog.subscribe(ORDERING, OnlineOrderPaidEvent.class,
+                e -> addKitchenOrderToRepository((OnlineOrderPaidEvent) e));
+
+        this.eventLog.subscribe(KitchenOrder.TOPIC, KitchenOrderPrepStartedEvent.class,
+                e -> createAndStartPrepOfKitchenOrderPizzas((KitchenOrderPrepStartedEvent) e));
+
+        this.eventLog.subscribe(Pizza.TOPIC, PizzaPrepFinishedEvent.class, e -> {
+            PizzaPrepFinishedEvent ppfe = (PizzaPrepFinishedEvent) e;
+            Pizza pizza = pizzaRepository.findByRef(ppfe.getRef());
+            pizza.startBake();
         });
 
-        this.eventLog.subscribe(new Topic("kitchen_orders"), (e) -> {
-            if (e instanceof KitchenOrderPrepStartedEvent) {
-                createAndStartPrepOfKitchenOrderPizzas((KitchenOrderPrepStartedEvent) e);
+        this.eventLog.subscribe(Pizza.TOPIC, PizzaBakeStartedEvent.class, e -> {
+            PizzaBakeStartedEvent pbse = (PizzaBakeStartedEvent) e;
+            Pizza pizza = pizzaRepository.findByRef(pbse.getRef());
+            KitchenOrder kitchenOrder = kitchenOrderRepository.findByRef(pizza.getKitchenOrderRef(), FetchPlan.LAZY);
+            if (kitchenOrder.isPrepping()) {
+                kitchenOrder.startBake();
             }
         });
 
-        this.eventLog.subscribe(new Topic("pizzas"), e -> {
-            if (e instanceof PizzaPrepFinishedEvent) {
-                PizzaPrepFinishedEvent ppfe = (PizzaPrepFinishedEvent) e;
-                Pizza pizza = pizzaRepository.findByRef(ppfe.getRef());
-                pizza.startBake();
-            } else if (e instanceof PizzaBakeStartedEvent) {
-                PizzaBakeStartedEvent pbse = (PizzaBakeStartedEvent) e;
-                Pizza pizza = pizzaRepository.findByRef(pbse.getRef());
-                KitchenOrder kitchenOrder = kitchenOrderRepository.findByRef(pizza.getKitchenOrderRef());
-                if (kitchenOrder.isPrepping()) {
-                    kitchenOrder.startBake();
-                }
-            } else if (e instanceof PizzaBakeFinishedEvent) {
-                PizzaBakeFinishedEvent pbfe = (PizzaBakeFinishedEvent) e;
-                Pizza pizza = pizzaRepository.findByRef(pbfe.getRef());
-                KitchenOrderRef kitchenOrderRef = pizza.getKitchenOrderRef();
-                KitchenOrder kitchenOrder = kitchenOrderRepository.findByRef(kitchenOrderRef);
-
-                if (kitchenOrder.isBaking()) {
-                    kitchenOrder.startAssembly();
-                }
-
-                if (pizzaRepository.findPizzasByKitchenOrderRef(kitchenOrderRef).stream()
-                        .allMatch(Pizza::hasFinishedBaking)) {
-                    kitchenOrder.finishAssembly();
-                }
+        this.eventLog.subscribe(Pizza.TOPIC, PizzaBakeFinishedEvent.class, e -> {
+            PizzaBakeFinishedEvent pbfe = (PizzaBakeFinishedEvent) e;
+            Pizza pizza = pizzaRepository.findByRef(pbfe.getRef());
+            KitchenOrderRef kitchenOrderRef = pizza.getKitchenOrderRef();
+            KitchenOrder kitchenOrder = kitchenOrderRepository.findByRef(kitchenOrderRef, FetchPlan.LAZY);
+
+            if (kitchenOrder.isBaking()) {
+                kitchenOrder.startAssembly();
+            }
+
+            if (pizzaRepository.findPizzasByKitchenOrderRef(kitchenOrderRef).stream()
+                    .allMatch(Pizza::hasFinishedBaking)) {
+                kitchenOrder.finishAssembly();
             }
         });
     }
@@ -106,17 +107,17 @@ final class DefaultKitchenService implements KitchenService {
     private void createAndStartPrepOfKitchenOrderPizzas(KitchenOrderPrepStartedEvent e) {
         KitchenOrder kitchenOrder = kitchenOrderRepository.findByRef(e.getRef());
 
-        kitchenOrder.getPizzas().forEach(pizzaVO -> {
-            Pizza pizza = Pizza.builder()
-                    .ref(this.pizzaRepository.nextIdentity())
-                    .kitchenOrderRef(kitchenOrder.getRef())
-                    .eventLog(eventLog)
-                    .size(pizzaValueObjectSizeToPizzaAggregateSize(pizzaVO.getSize()))
-                    .build();
-
-            pizzaRepository.add(pizza);
-            pizza.startPrep();
-        });
+        List<Pizza> pizzas = kitchenOrder.getPizzas().stream()
+                .map(pizzaVO -> Pizza.builder()
+                        .ref(this.pizzaRepository.nextIdentity())
+                        .kitchenOrderRef(kitchenOrder.getRef())
+                        .eventLog(eventLog)
+                        .size(pizzaValueObjectSizeToPizzaAggregateSize(pizzaVO.getSize()))
+                        .build())
+                .collect(Collectors.toList());
+
+        pizzaRepository.addAll(pizzas);
+        Pizza.startPrepOfAll(pizzas, eventLog);
     }
 
     private void addKitchenOrderToRepository(OnlineOrderPaidEvent e) {
@@ -4,15 +4,21 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Aggregate;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateState;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.LazyList;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Snapshottable;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import lombok.*;
 import lombok.experimental.NonFinal;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 @Value
-public final class KitchenOrder implements Aggregate {
+public final class KitchenOrder implements Aggregate, Snapshottable<KitchenOrder.OrderSnapshot> {
+    public static final Topic TOPIC = Topic.of("kitchen_orders");
+
     KitchenOrderRef ref;
     OnlineOrderRef onlineOrderRef;
     List<Pizza> pizzas;
@@ -31,6 +37,13 @@ public final class KitchenOrder implements Aggregate {
         this.state = State.NEW;
     }
 
+    /**
+     * Create a NEW order whose pizzas are only loaded, from <code>pizzas</code>, when first accessed.
+     */
+    static KitchenOrder withLazyPizzas(@NonNull KitchenOrderRef ref, @NonNull OnlineOrderRef onlineOrderRef, @NonNull Supplier<List<Pizza>> pizzas, @NonNull EventLog eventLog) {
+        return new KitchenOrder(ref, onlineOrderRef, new LazyList<>(pizzas), eventLog);
+    }
+
     /**
      * Private no-args ctor to support reflection ONLY.
      */
@@ -58,7 +71,7 @@ public final class KitchenOrder implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("kitchen_orders"), new KitchenOrderPrepStartedEvent(ref));
+        $eventLog.publish(TOPIC, new KitchenOrderPrepStartedEvent(ref));
     }
 
     boolean isPrepping() {
@@ -77,7 +90,7 @@ public final class KitchenOrder implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("kitchen_orders"), new KitchenOrderBakeStartedEvent(ref));
+        $eventLog.publish(TOPIC, new KitchenOrderBakeStartedEvent(ref));
     }
 
     boolean isBaking() {
@@ -96,7 +109,7 @@ public final class KitchenOrder implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("kitchen_orders"), new KitchenOrderAssemblyStartedEvent(ref));
+        $eventLog.publish(TOPIC, new KitchenOrderAssemblyStartedEvent(ref));
     }
 
     boolean hasStartedAssembly() {
@@ -115,7 +128,7 @@ public final class KitchenOrder implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("kitchen_orders"), new KitchenOrderAssemblyFinishedEvent(ref));
+        $eventLog.publish(TOPIC, new KitchenOrderAssemblyFinishedEvent(ref));
     }
 
     boolean hasFinishedAssembly() {
@@ -141,6 +154,23 @@ public final class KitchenOrder implements Aggregate {
         return new OrderState(ref, onlineOrderRef, pizzas);
     }
 
+    @Override
+    public OrderSnapshot snapshot() {
+        return new OrderSnapshot(ref, onlineOrderRef, pizzas, state);
+    }
+
+    @Override
+    public KitchenOrder restore(OrderSnapshot snapshot, EventLog eventLog) {
+        KitchenOrder kitchenOrder = KitchenOrder.builder()
+                .eventLog(eventLog)
+                .ref(snapshot.getRef())
+                .onlineOrderRef(snapshot.getOnlineOrderRef())
+                .pizzas(snapshot.getPizzas())
+                .build();
+        kitchenOrder.state = snapshot.getState();
+        return kitchenOrder;
+    }
+
     enum State {
         NEW,
         PREPPING,
@@ -189,7 +219,7 @@ public final class KitchenOrder implements Aggregate {
      * Pizza Value Object for OnlineOrder Details Only
      */
     @Value
-    public static final class Pizza {
+    public static final class Pizza implements Serializable {
         Size size;
 
         @Builder
@@ -208,4 +238,12 @@ public final class KitchenOrder implements Aggregate {
         OnlineOrderRef onlineOrderRef;
         List<Pizza> pizzas;
     }
+
+    @Value
+    static class OrderSnapshot implements AggregateState {
+        KitchenOrderRef ref;
+        OnlineOrderRef onlineOrderRef;
+        List<Pizza> pizzas;
+        State state;
+    }
 }
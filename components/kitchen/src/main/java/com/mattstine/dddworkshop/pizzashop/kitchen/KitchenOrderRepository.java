@@ -3,6 +3,10 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Repository;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 
+import java.util.stream.Stream;
+
 interface KitchenOrderRepository extends Repository<KitchenOrderRef, KitchenOrder, KitchenOrder.OrderState, KitchenOrderEvent, KitchenOrderAddedEvent> {
     KitchenOrder findByOnlineOrderRef(OnlineOrderRef onlineOrderRef);
+
+    Stream<KitchenOrder> findByState(KitchenOrder.State state);
 }
@@ -1,16 +1,22 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Event;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Aggregate;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateState;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Snapshottable;
 import lombok.*;
 import lombok.experimental.NonFinal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.BiFunction;
 
 @Value
-public final class Pizza implements Aggregate {
+public final class Pizza implements Aggregate, Snapshottable<Pizza.PizzaSnapshot> {
+    public static final Topic TOPIC = Topic.of("pizzas");
+
     PizzaRef ref;
     KitchenOrderRef kitchenOrderRef;
     Size size;
@@ -59,7 +65,24 @@ public final class Pizza implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("pizzas"), new PizzaPrepStartedEvent(ref));
+        $eventLog.publish(TOPIC, new PizzaPrepStartedEvent(ref));
+    }
+
+    /**
+     * Start prep of several NEW pizzas at once, publishing their events as a single batch.
+     */
+    static void startPrepOfAll(List<Pizza> pizzas, EventLog eventLog) {
+        if (pizzas.stream().anyMatch(pizza -> pizza.state != State.NEW)) {
+            throw new IllegalStateException("only NEW Pizza can startPrep");
+        }
+
+        List<Event> events = new ArrayList<>(pizzas.size());
+        pizzas.forEach(pizza -> {
+            pizza.state = State.PREPPING;
+            events.add(new PizzaPrepStartedEvent(pizza.ref));
+        });
+
+        eventLog.publishAll(TOPIC, events);
     }
 
     boolean isPrepping() {
@@ -78,7 +101,7 @@ public final class Pizza implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("pizzas"), new PizzaPrepFinishedEvent(ref));
+        $eventLog.publish(TOPIC, new PizzaPrepFinishedEvent(ref));
     }
 
     boolean hasFinishedPrep() {
@@ -97,7 +120,7 @@ public final class Pizza implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("pizzas"), new PizzaBakeStartedEvent(ref));
+        $eventLog.publish(TOPIC, new PizzaBakeStartedEvent(ref));
     }
 
     boolean isBaking() {
@@ -116,7 +139,7 @@ public final class Pizza implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("pizzas"), new PizzaBakeFinishedEvent(ref));
+        $eventLog.publish(TOPIC, new PizzaBakeFinishedEvent(ref));
     }
 
     boolean hasFinishedBaking() {
@@ -148,6 +171,23 @@ public final class Pizza implements Aggregate {
         return new PizzaState(ref, kitchenOrderRef, size);
     }
 
+    @Override
+    public PizzaSnapshot snapshot() {
+        return new PizzaSnapshot(ref, kitchenOrderRef, size, state);
+    }
+
+    @Override
+    public Pizza restore(PizzaSnapshot snapshot, EventLog eventLog) {
+        Pizza pizza = Pizza.builder()
+                .size(snapshot.getSize())
+                .ref(snapshot.getRef())
+                .kitchenOrderRef(snapshot.getKitchenOrderRef())
+                .eventLog(eventLog)
+                .build();
+        pizza.state = snapshot.getState();
+        return pizza;
+    }
+
     enum Size {
         IDENTITY, SMALL, MEDIUM, LARGE
     }
@@ -202,4 +242,12 @@ public final class Pizza implements Aggregate {
         KitchenOrderRef kitchenOrderRef;
         Size size;
     }
+
+    @Value
+    static class PizzaSnapshot implements AggregateState {
+        PizzaRef ref;
+        KitchenOrderRef kitchenOrderRef;
+        Size size;
+        State state;
+    }
 }
@@ -1,25 +1,48 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen;
 
-import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.Value;
+import lombok.experimental.NonFinal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 @Value
 public final class PizzaRef implements Ref {
+    private static final long serialVersionUID = -3206313672835871234L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     public static final PizzaRef IDENTITY = new PizzaRef("");
-    String reference;
+    @NonFinal
+    RefId id;
 
     public PizzaRef() {
-        this.reference = RefStringGenerator.generateRefString();
+        this.id = RefId.generate();
     }
 
     @SuppressWarnings("SameParameterValue")
     PizzaRef(String reference) {
-        this.reference = reference;
+        this.id = RefId.of(reference);
+    }
+
+    PizzaRef(RefId id) {
+        this.id = id;
     }
 
     @Override
     public String getReference() {
-        return reference;
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
     }
 }
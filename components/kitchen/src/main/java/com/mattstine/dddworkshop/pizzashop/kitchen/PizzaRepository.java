@@ -3,7 +3,10 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Repository;
 
 import java.util.Set;
+import java.util.stream.Stream;
 
 interface PizzaRepository extends Repository<PizzaRef, Pizza, Pizza.PizzaState, PizzaEvent, PizzaAddedEvent> {
     Set<Pizza> findPizzasByKitchenOrderRef(KitchenOrderRef kitchenOrderRef);
+
+    Stream<Pizza> findByState(Pizza.State state);
 }
@@ -1,19 +1,48 @@
 package com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
-import lombok.AllArgsConstructor;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.NoArgsConstructor;
 import lombok.Value;
 import lombok.experimental.NonFinal;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
 /**
  * @author Matt Stine
  */
 @Value
 @NoArgsConstructor
-@AllArgsConstructor
 public class OnlineOrderRef implements Ref {
+    private static final long serialVersionUID = -5379309920963065261L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     public static final OnlineOrderRef IDENTITY = new OnlineOrderRef("");
     @NonFinal
-    String reference;
+    RefId id;
+
+    public OnlineOrderRef(String reference) {
+        this.id = RefId.of(reference);
+    }
+
+    public OnlineOrderRef(RefId id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getReference() {
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
+    }
 }
@@ -3,6 +3,7 @@ package com.mattstine.dddworkshop.pizzashop.kitchen;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderPaidEvent;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OrderingService;
 import org.junit.Before;
@@ -28,7 +29,7 @@ public class DefaultKitchenServiceTests {
 
     @Test
     public void subscribes_to_ordering_topic() {
-        verify(eventLog).subscribe(eq(new Topic("ordering")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("ordering")), eq(OnlineOrderPaidEvent.class), isA(EventHandler.class));
     }
 
     @Test
@@ -48,12 +49,14 @@ public class DefaultKitchenServiceTests {
 
     @Test
     public void subscribes_to_kitchen_orders_topic() {
-        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("kitchen_orders")), eq(KitchenOrderPrepStartedEvent.class), isA(EventHandler.class));
     }
 
     @Test
     public void subscribes_to_pizzas_topic() {
-        verify(eventLog).subscribe(eq(new Topic("pizzas")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaPrepFinishedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaBakeStartedEvent.class), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("pizzas")), eq(PizzaBakeFinishedEvent.class), isA(EventHandler.class));
     }
 
 }
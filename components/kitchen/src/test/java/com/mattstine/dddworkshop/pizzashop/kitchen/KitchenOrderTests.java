@@ -6,6 +6,13 @@ import com.mattstine.dddworkshop.pizzashop.kitchen.acl.ordering.OnlineOrderRef;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
 import static org.mockito.ArgumentMatchers.eq;
@@ -15,6 +22,27 @@ import static org.mockito.Mockito.verify;
 
 public class KitchenOrderTests {
 
+    /*
+     * A KitchenOrderAddedEvent serialized before refs held a RefId, when every
+     * ref was serialized as its reference String.
+     */
+    private static final String ADDED_EVENT_STORED_BEFORE_REF_IDS = "rO0ABXNyAEJjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5raXRjaGVuLktpdGNoZW5PcmRlckFkZGVkRXZl"
+            + "bnSigoJaEYjlhwIAAkwAA3JlZnQAPUxjb20vbWF0dHN0aW5lL2RkZHdvcmtzaG9wL3Bpenphc2hvcC9raXRjaGVuL0tpdGNo"
+            + "ZW5PcmRlclJlZjtMAAVzdGF0ZXQARUxjb20vbWF0dHN0aW5lL2RkZHdvcmtzaG9wL3Bpenphc2hvcC9raXRjaGVuL0tpdGNo"
+            + "ZW5PcmRlciRPcmRlclN0YXRlO3hwc3IAO2NvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmtpdGNoZW4uS2l0"
+            + "Y2hlbk9yZGVyUmVmlM2feTRD02sCAAFMAAlyZWZlcmVuY2V0ABJMamF2YS9sYW5nL1N0cmluZzt4cHQAJDBCMEUyRjNBLTVD"
+            + "MUQtNEU2Ri04QTlCLTBDMUQyRTNGNEE1QnNyAENjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5raXRjaGVu"
+            + "LktpdGNoZW5PcmRlciRPcmRlclN0YXRl/2aVNOM80S8CAANMAA5vbmxpbmVPcmRlclJlZnQASUxjb20vbWF0dHN0aW5lL2Rk"
+            + "ZHdvcmtzaG9wL3Bpenphc2hvcC9raXRjaGVuL2FjbC9vcmRlcmluZy9PbmxpbmVPcmRlclJlZjtMAAZwaXp6YXN0ABBMamF2"
+            + "YS91dGlsL0xpc3Q7TAADcmVmcQB+AAF4cHNyAEdjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5raXRjaGVu"
+            + "LmFjbC5vcmRlcmluZy5PbmxpbmVPcmRlclJlZrVY2iCwQwpTAgABTAAJcmVmZXJlbmNlcQB+AAV4cHQAJDdEOEU5RkEwLUIx"
+            + "QzItNEQzRS05RjQwLTUxNjI3Mzg0OTUwNnNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAAB"
+            + "dwQAAAABc3IAPmNvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmtpdGNoZW4uS2l0Y2hlbk9yZGVyJFBpenph"
+            + "hFP3uDRvgAMCAAFMAARzaXpldABFTGNvbS9tYXR0c3RpbmUvZGRkd29ya3Nob3AvcGl6emFzaG9wL2tpdGNoZW4vS2l0Y2hl"
+            + "bk9yZGVyJFBpenphJFNpemU7eHB+cgBDY29tLm1hdHRzdGluZS5kZGR3b3Jrc2hvcC5waXp6YXNob3Aua2l0Y2hlbi5LaXRj"
+            + "aGVuT3JkZXIkUGl6emEkU2l6ZQAAAAAAAAAAEgAAeHIADmphdmEubGFuZy5FbnVtAAAAAAAAAAASAAB4cHQABUxBUkdFeHEA"
+            + "fgAG";
+
     private KitchenOrder kitchenOrder;
     private EventLog eventLog;
     private KitchenOrderRef ref;
@@ -232,4 +260,21 @@ public class KitchenOrderTests {
         KitchenOrderAssemblyFinishedEvent orderAssemblyFinishedEvent = new KitchenOrderAssemblyFinishedEvent(ref);
         assertThat(kitchenOrder.accumulatorFunction(eventLog).apply(kitchenOrder, orderAssemblyFinishedEvent)).isEqualTo(expectedKitchenOrder);
     }
+
+    @Test
+    public void added_event_stored_before_ref_ids_still_replays() throws Exception {
+        KitchenOrderRef ref = new KitchenOrderRef("0B0E2F3A-5C1D-4E6F-8A9B-0C1D2E3F4A5B");
+        List<KitchenOrder.Pizza> pizzas = new ArrayList<>();
+        pizzas.add(KitchenOrder.Pizza.builder().size(KitchenOrder.Pizza.Size.LARGE).build());
+        KitchenOrderAddedEvent event = new KitchenOrderAddedEvent(ref,
+                new KitchenOrder.OrderState(ref, new OnlineOrderRef("7D8E9FA0-B1C2-4D3E-9F40-516273849506"), pizzas));
+
+        assertThat(deserialize(ADDED_EVENT_STORED_BEFORE_REF_IDS)).isEqualTo(event);
+    }
+
+    private static Object deserialize(String payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload)))) {
+            return in.readObject();
+        }
+    }
 }
@@ -5,6 +5,13 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
 import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
@@ -14,6 +21,22 @@ import static org.mockito.Mockito.verify;
 
 public class PizzaTests {
 
+    /*
+     * A PizzaAddedEvent serialized before refs held a RefId.
+     */
+    private static final String ADDED_EVENT_STORED_BEFORE_REF_IDS = "rO0ABXNyADtjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5raXRjaGVuLlBpenphQWRkZWRFdmVudCLZCN+N"
+            + "+XZfAgACTAADcmVmdAA2TGNvbS9tYXR0c3RpbmUvZGRkd29ya3Nob3AvcGl6emFzaG9wL2tpdGNoZW4vUGl6emFSZWY7TAAF"
+            + "c3RhdGV0AD5MY29tL21hdHRzdGluZS9kZGR3b3Jrc2hvcC9waXp6YXNob3Ava2l0Y2hlbi9QaXp6YSRQaXp6YVN0YXRlO3hw"
+            + "c3IANGNvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmtpdGNoZW4uUGl6emFSZWbTgOKzzCPN/gIAAUwACXJl"
+            + "ZmVyZW5jZXQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwdAAkQzRENUU2RjctMDgxOS00QTJCLUJDM0QtNEU1RjYwNzE4Mjkzc3IA"
+            + "PGNvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLmtpdGNoZW4uUGl6emEkUGl6emFTdGF0ZUa+wCgDGs4BAgAD"
+            + "TAAPa2l0Y2hlbk9yZGVyUmVmdAA9TGNvbS9tYXR0c3RpbmUvZGRkd29ya3Nob3AvcGl6emFzaG9wL2tpdGNoZW4vS2l0Y2hl"
+            + "bk9yZGVyUmVmO0wAA3JlZnEAfgABTAAEc2l6ZXQAOExjb20vbWF0dHN0aW5lL2RkZHdvcmtzaG9wL3Bpenphc2hvcC9raXRj"
+            + "aGVuL1BpenphJFNpemU7eHBzcgA7Y29tLm1hdHRzdGluZS5kZGR3b3Jrc2hvcC5waXp6YXNob3Aua2l0Y2hlbi5LaXRjaGVu"
+            + "T3JkZXJSZWaUzZ95NEPTawIAAUwACXJlZmVyZW5jZXEAfgAFeHB0ACQwQjBFMkYzQS01QzFELTRFNkYtOEE5Qi0wQzFEMkUz"
+            + "RjRBNUJxAH4ABn5yADZjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5raXRjaGVuLlBpenphJFNpemUAAAAA"
+            + "AAAAABIAAHhyAA5qYXZhLmxhbmcuRW51bQAAAAAAAAAAEgAAeHB0AAZNRURJVU0=";
+
     private Pizza pizza;
     private EventLog eventLog;
     private PizzaRef ref;
@@ -54,6 +77,30 @@ public class PizzaTests {
         assertThatIllegalStateException().isThrownBy(pizza::startPrep);
     }
 
+    @Test
+    public void start_prep_of_all_publishes_one_batch() {
+        Pizza other = Pizza.builder()
+                .ref(new PizzaRef())
+                .eventLog(eventLog)
+                .kitchenOrderRef(kitchenOrderRef)
+                .size(Pizza.Size.MEDIUM)
+                .build();
+
+        Pizza.startPrepOfAll(Arrays.asList(pizza, other), eventLog);
+
+        assertThat(pizza.isPrepping()).isTrue();
+        assertThat(other.isPrepping()).isTrue();
+        verify(eventLog).publishAll(eq(new Topic("pizzas")), eq(Arrays.asList(
+                new PizzaPrepStartedEvent(ref),
+                new PizzaPrepStartedEvent(other.getRef()))));
+    }
+
+    @Test
+    public void only_new_pizzas_can_start_prep_of_all() {
+        pizza.startPrep();
+        assertThatIllegalStateException().isThrownBy(() -> Pizza.startPrepOfAll(Collections.singletonList(pizza), eventLog));
+    }
+
     @Test
     public void finish_pizza_prep_updates_state() {
         pizza.startPrep();
@@ -229,5 +276,19 @@ public class PizzaTests {
         PizzaBakeFinishedEvent pizzaBakeFinishedEvent = new PizzaBakeFinishedEvent(ref);
         assertThat(pizza.accumulatorFunction(eventLog).apply(pizza, pizzaBakeFinishedEvent)).isEqualTo(expectedPizza);
     }
-}
 
+    @Test
+    public void added_event_stored_before_ref_ids_still_replays() throws Exception {
+        PizzaRef ref = new PizzaRef("C4D5E6F7-0819-4A2B-BC3D-4E5F60718293");
+        PizzaAddedEvent event = new PizzaAddedEvent(ref,
+                new Pizza.PizzaState(ref, new KitchenOrderRef("0B0E2F3A-5C1D-4E6F-8A9B-0C1D2E3F4A5B"), Pizza.Size.MEDIUM));
+
+        assertThat(deserialize(ADDED_EVENT_STORED_BEFORE_REF_IDS)).isEqualTo(event);
+    }
+
+    private static Object deserialize(String payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload)))) {
+            return in.readObject();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.valuetypes.Amount;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentService;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentSuccessfulEvent;
@@ -11,6 +12,8 @@ import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentSuccessf
  * @author Matt Stine
  */
 final class DefaultOrderingService implements OrderingService {
+    private static final Topic PAYMENTS = Topic.of("payments");
+
     private final EventLog eventLog;
     private final OnlineOrderRepository repository;
     private final PaymentService paymentService;
@@ -20,12 +23,8 @@ final class DefaultOrderingService implements OrderingService {
         this.repository = repository;
         this.paymentService = paymentService;
 
-        eventLog.subscribe(new Topic("payments"), e -> {
-            if (e instanceof PaymentSuccessfulEvent) {
-                PaymentSuccessfulEvent pse = (PaymentSuccessfulEvent) e;
-                this.markOrderPaid(pse.getRef());
-            }
-        });
+        eventLog.subscribe(PAYMENTS, PaymentSuccessfulEvent.class,
+                e -> this.markOrderPaid(((PaymentSuccessfulEvent) e).getRef()));
     }
 
     @Override
@@ -52,7 +51,7 @@ final class DefaultOrderingService implements OrderingService {
     public void requestPayment(OnlineOrderRef ref) {
         PaymentRef paymentRef = paymentService.createPaymentOf(Amount.of(10, 0));
         paymentService.requestPaymentFor(paymentRef);
-        OnlineOrder onlineOrder = repository.findByRef(ref);
+        OnlineOrder onlineOrder = repository.findByRef(ref, FetchPlan.LAZY);
         onlineOrder.assignPaymentRef(paymentRef);
     }
 
@@ -62,7 +61,7 @@ final class DefaultOrderingService implements OrderingService {
     }
 
     private void markOrderPaid(PaymentRef paymentRef) {
-        OnlineOrder onlineOrder = repository.findByPaymentRef(paymentRef);
+        OnlineOrder onlineOrder = repository.findByPaymentRef(paymentRef, FetchPlan.LAZY);
         onlineOrder.markPaid();
     }
 }
@@ -5,13 +5,18 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Aggregate;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.AggregateState;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.LazyList;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Snapshottable;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Versioned;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import lombok.*;
 import lombok.experimental.NonFinal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * @author Matt Stine
@@ -19,7 +24,9 @@ import java.util.function.BiFunction;
 @SuppressWarnings("DefaultAnnotationParam")
 @Value
 @EqualsAndHashCode(callSuper = false)
-public final class OnlineOrder implements Aggregate {
+public final class OnlineOrder implements Aggregate, Snapshottable<OnlineOrder.OrderSnapshot>, Versioned {
+    public static final Topic TOPIC = Topic.of("ordering");
+
     Type type;
     EventLog $eventLog;
     OnlineOrderRef ref;
@@ -30,17 +37,30 @@ public final class OnlineOrder implements Aggregate {
     @NonFinal
     @Setter(AccessLevel.PACKAGE)
     PaymentRef paymentRef;
+    @NonFinal
+    long $version;
 
     @Builder
     private OnlineOrder(@NonNull Type type, @NonNull EventLog eventLog, @NonNull OnlineOrderRef ref) {
+        this(type, eventLog, ref, new ArrayList<>());
+    }
+
+    private OnlineOrder(Type type, EventLog eventLog, OnlineOrderRef ref, List<Pizza> pizzas) {
         this.type = type;
         this.$eventLog = eventLog;
         this.ref = ref;
-        this.pizzas = new ArrayList<>();
+        this.pizzas = pizzas;
 
         this.state = State.NEW;
     }
 
+    /**
+     * Create a NEW order whose pizzas are only loaded, from <code>pizzas</code>, when first accessed.
+     */
+    static OnlineOrder withLazyPizzas(@NonNull Type type, @NonNull EventLog eventLog, @NonNull OnlineOrderRef ref, @NonNull Supplier<List<Pizza>> pizzas) {
+        return new OnlineOrder(type, eventLog, ref, new LazyList<>(pizzas));
+    }
+
     /**
      * Private no-args ctor to support reflection ONLY.
      */
@@ -84,12 +104,7 @@ public final class OnlineOrder implements Aggregate {
         assert this.pizzas != null;
         this.pizzas.add(pizza);
 
-        /*
-         * condition only occurs if reflection supporting
-         * private no-args constructor is used
-         */
-        assert $eventLog != null;
-        $eventLog.publish(new Topic("ordering"), new PizzaAddedEvent(ref, pizza));
+        append(new PizzaAddedEvent(ref, pizza));
     }
 
     void submit() {
@@ -108,23 +123,13 @@ public final class OnlineOrder implements Aggregate {
 
         this.state = State.SUBMITTED;
 
-        /*
-         * condition only occurs if reflection supporting
-         * private no-args constructor is used
-         */
-        assert $eventLog != null;
-        $eventLog.publish(new Topic("ordering"), new OnlineOrderSubmittedEvent(ref));
+        append(new OnlineOrderSubmittedEvent(ref));
     }
 
     void assignPaymentRef(PaymentRef paymentRef) {
         this.paymentRef = paymentRef;
 
-        /*
-         * condition only occurs if reflection supporting
-         * private no-args constructor is used
-         */
-        assert $eventLog != null;
-        $eventLog.publish(new Topic("ordering"), new PaymentRefAssignedEvent(ref, paymentRef));
+        append(new PaymentRefAssignedEvent(ref, paymentRef));
     }
 
     Amount calculatePrice() {
@@ -145,12 +150,31 @@ public final class OnlineOrder implements Aggregate {
 
         this.state = State.PAID;
 
+        append(new OnlineOrderPaidEvent(ref));
+    }
+
+    @Override
+    public long getVersion() {
+        return $version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.$version = version;
+    }
+
+    /*
+     * Rejected if another writer appended to this order since it was
+     * loaded; this instance is then stale and must be discarded.
+     */
+    private void append(OnlineOrderEvent event) {
         /*
          * condition only occurs if reflection supporting
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("ordering"), new OnlineOrderPaidEvent(ref));
+        $eventLog.append(TOPIC, ref, $version, Collections.singletonList(event));
+        $version++;
     }
 
     @Override
@@ -172,6 +196,34 @@ public final class OnlineOrder implements Aggregate {
         return new OrderState(ref, state, type);
     }
 
+    @Override
+    public OrderSnapshot snapshot() {
+        /*
+         * condition only occurs if reflection supporting
+         * private no-args constructor is used
+         */
+        assert this.pizzas != null;
+        return new OrderSnapshot(ref, state, type, Collections.unmodifiableList(new ArrayList<>(pizzas)), paymentRef);
+    }
+
+    @Override
+    public OnlineOrder restore(OrderSnapshot snapshot, EventLog eventLog) {
+        OnlineOrder onlineOrder = OnlineOrder.builder()
+                .eventLog(eventLog)
+                .ref(snapshot.getOnlineOrderRef())
+                .type(snapshot.getType())
+                .build();
+        /*
+         * condition only occurs if reflection supporting
+         * private no-args constructor is used
+         */
+        assert onlineOrder.pizzas != null;
+        onlineOrder.pizzas.addAll(snapshot.getPizzas());
+        onlineOrder.state = snapshot.getState();
+        onlineOrder.paymentRef = snapshot.getPaymentRef();
+        return onlineOrder;
+    }
+
     enum State {
         NEW, SUBMITTED, PAID
     }
@@ -230,4 +282,13 @@ public final class OnlineOrder implements Aggregate {
         State state;
         Type type;
     }
+
+    @Value
+    static class OrderSnapshot implements AggregateState {
+        OnlineOrderRef onlineOrderRef;
+        State state;
+        Type type;
+        List<Pizza> pizzas;
+        PaymentRef paymentRef;
+    }
 }
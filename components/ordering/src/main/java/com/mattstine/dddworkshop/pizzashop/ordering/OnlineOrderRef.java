@@ -1,27 +1,50 @@
 package com.mattstine.dddworkshop.pizzashop.ordering;
 
-import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.Value;
+import lombok.experimental.NonFinal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 /**
  * @author Matt Stine
  */
 @Value
 public final class OnlineOrderRef implements Ref {
+    private static final long serialVersionUID = -9166474192100645911L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     public static final OnlineOrderRef IDENTITY = new OnlineOrderRef("");
-    String reference;
+    @NonFinal
+    RefId id;
 
     public OnlineOrderRef() {
-        reference = RefStringGenerator.generateRefString();
+        id = RefId.generate();
     }
 
     public OnlineOrderRef(String reference) {
-        this.reference = reference;
+        this.id = RefId.of(reference);
+    }
+
+    public OnlineOrderRef(RefId id) {
+        this.id = id;
     }
 
     @Override
     public String getReference() {
-        return reference;
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
     }
 }
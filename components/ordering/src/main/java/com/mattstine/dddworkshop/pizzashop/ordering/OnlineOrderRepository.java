@@ -1,8 +1,11 @@
 package com.mattstine.dddworkshop.pizzashop.ordering;
 
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Repository;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 
+import java.util.stream.Stream;
+
 /**
  * @author Matt Stine
  */
@@ -14,4 +17,10 @@ interface OnlineOrderRepository extends Repository<OnlineOrderRef, OnlineOrder,
     OnlineOrder findByRef(OnlineOrderRef ref);
 
     OnlineOrder findByPaymentRef(PaymentRef paymentRef);
+
+    default OnlineOrder findByPaymentRef(PaymentRef paymentRef, FetchPlan fetchPlan) {
+        return findByPaymentRef(paymentRef);
+    }
+
+    Stream<OnlineOrder> findByState(OnlineOrder.State state);
 }
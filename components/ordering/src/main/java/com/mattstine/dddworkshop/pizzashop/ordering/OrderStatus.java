@@ -0,0 +1,46 @@
+package com.mattstine.dddworkshop.pizzashop.ordering;
+
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.Projection;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.projection.ports.ProjectionSink;
+import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
+import lombok.Value;
+import lombok.experimental.Wither;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Read model answering "where is my order?" without rehydrating the {@link OnlineOrder}.
+ * <p>
+ * Every handler of {@link #PROJECTION} overwrites the whole view, so applying an event twice leaves it unchanged.
+ *
+ * @author Matt Stine
+ */
+@Value
+@Wither
+final class OrderStatus {
+    static final Projection<OnlineOrderRef, OrderStatus> PROJECTION =
+            Projection.<OnlineOrderRef, OrderStatus>builder("order_status", OnlineOrder.TOPIC)
+                    .on(OnlineOrderAddedEvent.class, (e, sink) -> {
+                        OnlineOrder.OrderState orderState = e.getOrderState();
+                        sink.save(e.getRef(), new OrderStatus(e.getRef(), orderState.getType(), orderState.getState(), null));
+                    })
+                    .on(OnlineOrderSubmittedEvent.class, (e, sink) ->
+                            update(sink, e.getRef(), status -> status.withState(OnlineOrder.State.SUBMITTED)))
+                    .on(PaymentRefAssignedEvent.class, (e, sink) ->
+                            update(sink, e.getRef(), status -> status.withPaymentRef(e.getPaymentRef())))
+                    .on(OnlineOrderPaidEvent.class, (e, sink) ->
+                            update(sink, e.getRef(), status -> status.withState(OnlineOrder.State.PAID)))
+                    .build();
+
+    OnlineOrderRef ref;
+    OnlineOrder.Type type;
+    OnlineOrder.State state;
+    PaymentRef paymentRef;
+
+    private static void update(ProjectionSink<OnlineOrderRef, OrderStatus> sink, OnlineOrderRef ref, UnaryOperator<OrderStatus> change) {
+        OrderStatus status = sink.find(ref);
+        if (status != null) {
+            sink.save(ref, change.apply(status));
+        }
+    }
+}
@@ -5,11 +5,13 @@ import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
 
+import java.io.Serializable;
+
 /**
  * @author Matt Stine
  */
 @Value
-public final class Pizza {
+public final class Pizza implements Serializable {
 
     Size size;
 
@@ -1,18 +1,47 @@
 package com.mattstine.dddworkshop.pizzashop.ordering.acl.payments;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
-import lombok.AllArgsConstructor;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.NoArgsConstructor;
 import lombok.Value;
 import lombok.experimental.NonFinal;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
 /**
  * @author Matt Stine
  */
 @Value
 @NoArgsConstructor
-@AllArgsConstructor
 public class PaymentRef implements Ref {
+    private static final long serialVersionUID = 3984837844180248252L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     @NonFinal
-    String reference;
+    RefId id;
+
+    public PaymentRef(String reference) {
+        this.id = RefId.of(reference);
+    }
+
+    public PaymentRef(RefId id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getReference() {
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
+    }
 }
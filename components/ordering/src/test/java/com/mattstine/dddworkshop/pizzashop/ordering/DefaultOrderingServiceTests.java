@@ -4,8 +4,10 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.valuetypes.Amou
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventHandler;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.FetchPlan;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentService;
+import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentSuccessfulEvent;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -32,7 +34,7 @@ public class DefaultOrderingServiceTests {
 
     @Test
     public void subscribes_to_payments_topic() {
-        verify(eventLog).subscribe(eq(new Topic("payments")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("payments")), eq(PaymentSuccessfulEvent.class), isA(EventHandler.class));
     }
 
     @Test
@@ -75,7 +77,7 @@ public class DefaultOrderingServiceTests {
                 .eventLog(eventLog)
                 .ref(onlineOrderRef)
                 .build();
-        when(repository.findByRef(onlineOrderRef)).thenReturn(onlineOrder);
+        when(repository.findByRef(onlineOrderRef, FetchPlan.LAZY)).thenReturn(onlineOrder);
 
         PaymentRef paymentRef = new PaymentRef();
         when(paymentService.createPaymentOf(Amount.of(10, 0))).thenReturn(paymentRef);
@@ -2,22 +2,42 @@ package com.mattstine.dddworkshop.pizzashop.ordering;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.EventLog;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.VersionConflictException;
 import com.mattstine.dddworkshop.pizzashop.ordering.acl.payments.PaymentRef;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Base64;
+
+import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.ArgumentMatchers.isA;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.*;
 
 /**
  * @author Matt Stine
  */
 public class OnlineOrderTests {
 
+    /*
+     * A PaymentRefAssignedEvent serialized before refs held a RefId, when every
+     * ref was serialized as its reference String.
+     */
+    private static final String PAYMENT_REF_ASSIGNED_EVENT_STORED_BEFORE_REF_IDS = "rO0ABXNyAERjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5vcmRlcmluZy5QYXltZW50UmVmQXNzaWduZWRF"
+            + "dmVudHITdrBgSWHwAgACTAAKcGF5bWVudFJlZnQARkxjb20vbWF0dHN0aW5lL2RkZHdvcmtzaG9wL3Bpenphc2hvcC9vcmRl"
+            + "cmluZy9hY2wvcGF5bWVudHMvUGF5bWVudFJlZjtMAANyZWZ0AD1MY29tL21hdHRzdGluZS9kZGR3b3Jrc2hvcC9waXp6YXNo"
+            + "b3Avb3JkZXJpbmcvT25saW5lT3JkZXJSZWY7eHBzcgBEY29tLm1hdHRzdGluZS5kZGR3b3Jrc2hvcC5waXp6YXNob3Aub3Jk"
+            + "ZXJpbmcuYWNsLnBheW1lbnRzLlBheW1lbnRSZWY3TPzoHeWmvAIAAUwACXJlZmVyZW5jZXQAEkxqYXZhL2xhbmcvU3RyaW5n"
+            + "O3hwdAAkMkEzQjRDNUQtNkU3Ri00MDgxLTkyQTMtQjRDNUQ2RTdGODA5c3IAO2NvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3Au"
+            + "cGl6emFzaG9wLm9yZGVyaW5nLk9ubGluZU9yZGVyUmVmgMokSdEOI+kCAAFMAAlyZWZlcmVuY2VxAH4ABXhwdAAkN0Q4RTlG"
+            + "QTAtQjFDMi00RDNFLTlGNDAtNTE2MjczODQ5NTA2";
+
     private EventLog eventLog;
     private OnlineOrder onlineOrder;
     private Pizza pizza;
@@ -65,8 +85,8 @@ public class OnlineOrderTests {
     public void adding_pizza_fires_event() {
         onlineOrder.addPizza(pizza);
         verify(eventLog)
-                .publish(eq(new Topic("ordering")),
-                        eq(new PizzaAddedEvent(ref, pizza)));
+                .append(eq(new Topic("ordering")), eq(ref), eq(0L),
+                        eq(singletonList(new PizzaAddedEvent(ref, pizza))));
     }
 
     @Test
@@ -88,8 +108,8 @@ public class OnlineOrderTests {
         onlineOrder.addPizza(Pizza.builder().size(Pizza.Size.MEDIUM).build());
         onlineOrder.submit();
         verify(eventLog)
-                .publish(eq(new Topic("ordering")),
-                        isA(OnlineOrderSubmittedEvent.class));
+                .append(eq(new Topic("ordering")), eq(ref), eq(1L),
+                        eq(singletonList(new OnlineOrderSubmittedEvent(ref))));
     }
 
     @Test
@@ -122,11 +142,11 @@ public class OnlineOrderTests {
     @Test
     public void mark_paid_fires_event() {
         onlineOrder.addPizza(pizza);
-        verify(eventLog).publish(eq(new Topic("ordering")), isA(PizzaAddedEvent.class));
+        verify(eventLog).append(eq(new Topic("ordering")), eq(ref), eq(0L), eq(singletonList(new PizzaAddedEvent(ref, pizza))));
         onlineOrder.submit();
-        verify(eventLog).publish(eq(new Topic("ordering")), isA(OnlineOrderSubmittedEvent.class));
+        verify(eventLog).append(eq(new Topic("ordering")), eq(ref), eq(1L), eq(singletonList(new OnlineOrderSubmittedEvent(ref))));
         onlineOrder.markPaid();
-        verify(eventLog).publish(eq(new Topic("ordering")), isA(OnlineOrderPaidEvent.class));
+        verify(eventLog).append(eq(new Topic("ordering")), eq(ref), eq(2L), eq(singletonList(new OnlineOrderPaidEvent(ref))));
     }
 
     @Test
@@ -139,7 +159,24 @@ public class OnlineOrderTests {
         PaymentRef paymentRef = new PaymentRef();
         onlineOrder.assignPaymentRef(paymentRef);
 
-        verify(eventLog).publish(eq(new Topic("ordering")), isA(PaymentRefAssignedEvent.class));
+        verify(eventLog).append(eq(new Topic("ordering")), eq(ref), eq(0L), eq(singletonList(new PaymentRefAssignedEvent(ref, paymentRef))));
+    }
+
+    @Test
+    public void appending_events_advances_version() {
+        onlineOrder.setVersion(1);
+        onlineOrder.addPizza(pizza);
+        onlineOrder.submit();
+        assertThat(onlineOrder.getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    public void stale_order_is_rejected() {
+        doThrow(new VersionConflictException(OnlineOrder.TOPIC, ref, 0, 1))
+                .when(eventLog).append(eq(OnlineOrder.TOPIC), eq(ref), eq(0L), anyList());
+
+        assertThatExceptionOfType(VersionConflictException.class).isThrownBy(() -> onlineOrder.addPizza(pizza));
+        assertThat(onlineOrder.getVersion()).isEqualTo(0);
     }
 
     @Test
@@ -232,4 +269,17 @@ public class OnlineOrderTests {
         assertThat(onlineOrder.accumulatorFunction(eventLog).apply(onlineOrder, ope)).isEqualTo(expectedOnlineOrder);
     }
 
+    @Test
+    public void payment_ref_assigned_event_stored_before_ref_ids_still_replays() throws Exception {
+        PaymentRefAssignedEvent event = new PaymentRefAssignedEvent(new OnlineOrderRef("7D8E9FA0-B1C2-4D3E-9F40-516273849506"),
+                new PaymentRef("2A3B4C5D-6E7F-4081-92A3-B4C5D6E7F809"));
+
+        assertThat(deserialize(PAYMENT_REF_ASSIGNED_EVENT_STORED_BEFORE_REF_IDS)).isEqualTo(event);
+    }
+
+    private static Object deserialize(String payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload)))) {
+            return in.readObject();
+        }
+    }
 }
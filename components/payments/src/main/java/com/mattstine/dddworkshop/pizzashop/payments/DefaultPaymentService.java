@@ -8,6 +8,8 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
  * @author Matt Stine
  */
 final class DefaultPaymentService implements PaymentService {
+    private static final Topic PAYMENT_PROCESSOR = Topic.of("payment_processor");
+
     private final PaymentProcessor processor;
     private final PaymentRepository repository;
     private final EventLog eventLog;
@@ -17,14 +19,12 @@ final class DefaultPaymentService implements PaymentService {
         this.repository = repository;
         this.eventLog = eventLog;
 
-        eventLog.subscribe(new Topic("payment_processor"), (e) -> {
-            if (e instanceof PaymentProcessedEvent) {
-                PaymentProcessedEvent ppe = (PaymentProcessedEvent) e;
-                if (ppe.isSuccessful()) {
-                    markPaymentSuccessful(ppe.getRef());
-                } else if (ppe.isFailed()) {
-                    markPaymentFailed(ppe.getRef());
-                }
+        eventLog.subscribe(PAYMENT_PROCESSOR, PaymentProcessedEvent.class, (e) -> {
+            PaymentProcessedEvent ppe = (PaymentProcessedEvent) e;
+            if (ppe.isSuccessful()) {
+                markPaymentSuccessful(ppe.getRef());
+            } else if (ppe.isFailed()) {
+                markPaymentFailed(ppe.getRef());
             }
         });
     }
@@ -17,6 +17,8 @@ import java.util.function.BiFunction;
 @Value
 @EqualsAndHashCode(callSuper = false)
 public final class Payment implements Aggregate {
+    public static final Topic TOPIC = Topic.of("payments");
+
     Amount amount;
     PaymentProcessor $paymentProcessor;
     PaymentRef ref;
@@ -84,7 +86,7 @@ public final class Payment implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("payments"), new PaymentRequestedEvent(this.ref));
+        $eventLog.publish(TOPIC, new PaymentRequestedEvent(this.ref));
     }
 
     void markSuccessful() {
@@ -99,7 +101,7 @@ public final class Payment implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("payments"), new PaymentSuccessfulEvent(ref));
+        $eventLog.publish(TOPIC, new PaymentSuccessfulEvent(ref));
     }
 
     void markFailed() {
@@ -114,7 +116,7 @@ public final class Payment implements Aggregate {
          * private no-args constructor is used
          */
         assert $eventLog != null;
-        $eventLog.publish(new Topic("payments"), new PaymentFailedEvent(ref));
+        $eventLog.publish(TOPIC, new PaymentFailedEvent(ref));
     }
 
     @Override
@@ -1,23 +1,51 @@
 package com.mattstine.dddworkshop.pizzashop.payments;
 
-import com.mattstine.dddworkshop.pizzashop.infrastructure.domain.services.RefStringGenerator;
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Ref;
+import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.RefId;
 import lombok.Value;
+import lombok.experimental.NonFinal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 /**
  * @author Matt Stine
  */
 @Value
 public final class PaymentRef implements Ref {
+    private static final long serialVersionUID = -4953930871611996686L;
+    private static final ObjectStreamField[] serialPersistentFields = {new ObjectStreamField("reference", String.class)};
+
     public static final PaymentRef IDENTITY = new PaymentRef("");
-    String reference;
+    @NonFinal
+    RefId id;
 
     public PaymentRef() {
-        reference = RefStringGenerator.generateRefString();
+        id = RefId.generate();
     }
 
     @SuppressWarnings("SameParameterValue")
     PaymentRef(String reference) {
-        this.reference = reference;
+        this.id = RefId.of(reference);
+    }
+
+    PaymentRef(RefId id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getReference() {
+        return id == null ? null : id.toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reference", getReference());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        id = RefId.of((String) in.readFields().get("reference", null));
     }
 }
@@ -2,8 +2,11 @@ package com.mattstine.dddworkshop.pizzashop.payments;
 
 import com.mattstine.dddworkshop.pizzashop.infrastructure.repository.ports.Repository;
 
+import java.util.stream.Stream;
+
 /**
  * @author Matt Stine
  */
 interface PaymentRepository extends Repository<PaymentRef, Payment, Payment.PaymentState, PaymentEvent, PaymentAddedEvent> {
+    Stream<Payment> findByState(Payment.State state);
 }
@@ -30,7 +30,7 @@ public class DefaultPaymentServiceTests {
 
     @Test
     public void subscribes_to_payment_processor_topic() {
-        verify(eventLog).subscribe(eq(new Topic("payment_processor")), isA(EventHandler.class));
+        verify(eventLog).subscribe(eq(new Topic("payment_processor")), eq(PaymentProcessedEvent.class), isA(EventHandler.class));
     }
 
     @Test
@@ -6,6 +6,11 @@ import com.mattstine.dddworkshop.pizzashop.infrastructure.events.ports.Topic;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Base64;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
 import static org.mockito.ArgumentMatchers.eq;
@@ -18,6 +23,15 @@ import static org.mockito.Mockito.verify;
  */
 public class PaymentTests {
 
+    /*
+     * A PaymentRequestedEvent serialized before refs held a RefId.
+     */
+    private static final String REQUESTED_EVENT_STORED_BEFORE_REF_IDS = "rO0ABXNyAEJjb20ubWF0dHN0aW5lLmRkZHdvcmtzaG9wLnBpenphc2hvcC5wYXltZW50cy5QYXltZW50UmVxdWVzdGVkRXZl"
+            + "bnSqAjUmTOKoVAIAAUwAA3JlZnQAOUxjb20vbWF0dHN0aW5lL2RkZHdvcmtzaG9wL3Bpenphc2hvcC9wYXltZW50cy9QYXlt"
+            + "ZW50UmVmO3hwc3IAN2NvbS5tYXR0c3RpbmUuZGRkd29ya3Nob3AucGl6emFzaG9wLnBheW1lbnRzLlBheW1lbnRSZWa7QBoe"
+            + "i7nF8gIAAUwACXJlZmVyZW5jZXQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwdAAkMkEzQjRDNUQtNkU3Ri00MDgxLTkyQTMtQjRD"
+            + "NUQ2RTdGODA5";
+
     private EventLog eventLog;
     private PaymentProcessor paymentProcessor;
     private Payment payment;
@@ -160,4 +174,16 @@ public class PaymentTests {
         assertThatIllegalStateException().isThrownBy(() -> payment.accumulatorFunction(eventLog).apply(payment, () -> null));
     }
 
+    @Test
+    public void requested_event_stored_before_ref_ids_still_replays() throws Exception {
+        PaymentRequestedEvent event = new PaymentRequestedEvent(new PaymentRef("2A3B4C5D-6E7F-4081-92A3-B4C5D6E7F809"));
+
+        assertThat(deserialize(REQUESTED_EVENT_STORED_BEFORE_REF_IDS)).isEqualTo(event);
+    }
+
+    private static Object deserialize(String payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload)))) {
+            return in.readObject();
+        }
+    }
 }